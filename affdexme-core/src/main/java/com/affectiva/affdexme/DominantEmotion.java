@@ -0,0 +1,54 @@
+/**
+ * Copyright (c) 2016 Affectiva Inc.
+ * See the file license.txt for copying permission.
+ */
+
+package com.affectiva.affdexme;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * Selects the emotion drawn as dominant under a face.
+ */
+public class DominantEmotion {
+
+    //emotions which may be shown as dominant, in order of precedence when tied. Ignore VALENCE and ENGAGEMENT
+    static final MetricsManager.Emotions[] CANDIDATES = {
+            MetricsManager.Emotions.ANGER,
+            MetricsManager.Emotions.CONTEMPT,
+            MetricsManager.Emotions.DISGUST,
+            MetricsManager.Emotions.FEAR,
+            MetricsManager.Emotions.JOY,
+            MetricsManager.Emotions.SADNESS,
+            MetricsManager.Emotions.SURPRISE};
+    private static final float THRESHOLD = 50.0f; //no emotion is dominant unless greater than this
+    private static final int[] CANDIDATE_INDEXES = new int[CANDIDATES.length];
+
+    static {
+        for (int n = 0; n < CANDIDATES.length; n++) {
+            CANDIDATE_INDEXES[n] = MetricsManager.getMetricIndex(CANDIDATES[n]);
+        }
+    }
+
+    private DominantEmotion() {
+    }
+
+    /**
+     * @return the candidate emotion with the highest score, or null if no emotion is dominant
+     */
+    @Nullable
+    public static MetricsManager.Emotions find(@NonNull FaceScores face) {
+        int dominant = -1;
+        float dominantScore = THRESHOLD;
+
+        for (int n = 0; n < CANDIDATE_INDEXES.length; n++) {
+            float score = face.getScore(CANDIDATE_INDEXES[n]);
+            if (score > dominantScore) {
+                dominant = n;
+                dominantScore = score;
+            }
+        }
+        return dominant < 0 ? null : CANDIDATES[dominant];
+    }
+}
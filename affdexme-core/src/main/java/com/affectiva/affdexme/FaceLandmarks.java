@@ -0,0 +1,19 @@
+/**
+ * Copyright (c) 2016 Affectiva Inc.
+ * See the file license.txt for copying permission.
+ */
+
+package com.affectiva.affdexme;
+
+/**
+ * The landmarks of one face, in camera image coordinates, as read by the engines of this module.
+ * Implemented by the application's FaceSnapshot, so the engines do not depend on the Affectiva SDK.
+ */
+public interface FaceLandmarks {
+
+    int getPointCount();
+
+    float getPointX(int n);
+
+    float getPointY(int n);
+}
@@ -0,0 +1,18 @@
+/**
+ * Copyright (c) 2016 Affectiva Inc.
+ * See the file license.txt for copying permission.
+ */
+
+package com.affectiva.affdexme;
+
+/**
+ * The metric scores of one face, as read by the engines of this module.
+ * Implemented by the application's FaceSnapshot, so the engines do not depend on the Affectiva SDK.
+ */
+public interface FaceScores {
+
+    /**
+     * @param metricIndex index of the metric, as given by MetricsManager.getMetricIndex()
+     */
+    float getScore(int metricIndex);
+}
@@ -0,0 +1,217 @@
+/**
+ * Copyright (c) 2016 Affectiva Inc.
+ * See the file license.txt for copying permission.
+ */
+
+package com.affectiva.affdexme;
+
+import java.util.Arrays;
+
+/**
+ * Gives the faces found in consecutive frames stable identities, so that per-face state (smoothing filters,
+ * history, caches) follows a person rather than their position in the SDK's face list.
+ * <p>
+ * Each frame's bounding boxes are matched to the boxes of the existing tracks greedily: the pair with the highest
+ * intersection-over-union is matched first, then the next highest among the remaining ones, until no pair
+ * overlaps by at least minOverlap. Unmatched faces start new tracks, unmatched tracks age and expire once they
+ * have been missing for more than maxMissedFrames frames.
+ * <p>
+ * Tracks live in a fixed number of slots, which callers can use to index their own per-face arrays; a slot is
+ * reused once its track expires, which isNewTrack() reports. Nothing is allocated per frame once the scratch
+ * arrays have grown to the largest number of faces seen. An instance is not thread-safe.
+ */
+public class FaceTracker {
+
+    public static final int NO_TRACK = -1;
+
+    private final int maxTracks;
+    private final float minOverlap;
+    private final int maxMissedFrames;
+    private int nextTrackId = 1;
+
+    // per track slot
+    private final boolean[] isActive;
+    private final int[] trackIds;
+    private final float[] trackBoxes; // left, top, right, bottom
+    private final int[] trackAges;
+    private final int[] missedFrames;
+    private final boolean[] isTrackMatched;
+
+    // per face of the last update
+    private int faceCount;
+    private int[] faceSlots = new int[0];
+    private boolean[] isFaceNew = new boolean[0];
+
+    public FaceTracker(int maxTracks, float minOverlap, int maxMissedFrames) {
+        if (maxTracks <= 0) {
+            throw new IllegalArgumentException("A tracker needs at least one track slot");
+        }
+        this.maxTracks = maxTracks;
+        this.minOverlap = minOverlap;
+        this.maxMissedFrames = maxMissedFrames;
+        isActive = new boolean[maxTracks];
+        trackIds = new int[maxTracks];
+        trackBoxes = new float[maxTracks * 4];
+        trackAges = new int[maxTracks];
+        missedFrames = new int[maxTracks];
+        isTrackMatched = new boolean[maxTracks];
+    }
+
+    static float intersectionOverUnion(float[] a, int aOffset, float[] b, int bOffset) {
+        float width = Math.min(a[aOffset + 2], b[bOffset + 2]) - Math.max(a[aOffset], b[bOffset]);
+        float height = Math.min(a[aOffset + 3], b[bOffset + 3]) - Math.max(a[aOffset + 1], b[bOffset + 1]);
+        if (width <= 0 || height <= 0) {
+            return 0;
+        }
+        float intersection = width * height;
+        float union = area(a, aOffset) + area(b, bOffset) - intersection;
+        return union > 0 ? intersection / union : 0;
+    }
+
+    private static float area(float[] box, int offset) {
+        return Math.max(0, box[offset + 2] - box[offset]) * Math.max(0, box[offset + 3] - box[offset + 1]);
+    }
+
+    public int getMaxTracks() {
+        return maxTracks;
+    }
+
+    /**
+     * Match the faces of a new frame to the existing tracks.
+     *
+     * @param boxes     bounding box of every face, packed as left, top, right, bottom
+     * @param faceCount number of faces in the frame
+     */
+    public void update(float[] boxes, int faceCount) {
+        if (boxes.length < faceCount * 4) {
+            throw new IllegalArgumentException("Expected " + faceCount + " boxes");
+        }
+        if (faceSlots.length < faceCount) {
+            faceSlots = new int[faceCount];
+            isFaceNew = new boolean[faceCount];
+        }
+        this.faceCount = faceCount;
+        Arrays.fill(faceSlots, 0, faceCount, NO_TRACK);
+        Arrays.fill(isFaceNew, 0, faceCount, false);
+        Arrays.fill(isTrackMatched, false);
+
+        //greedy matching, best overlap first; face counts are small enough that rescanning all pairs is cheapest
+        while (true) {
+            float bestOverlap = minOverlap;
+            int bestFace = -1;
+            int bestSlot = -1;
+            for (int face = 0; face < faceCount; face++) {
+                if (faceSlots[face] != NO_TRACK) {
+                    continue;
+                }
+                for (int slot = 0; slot < maxTracks; slot++) {
+                    if (!isActive[slot] || isTrackMatched[slot]) {
+                        continue;
+                    }
+                    float overlap = intersectionOverUnion(boxes, face * 4, trackBoxes, slot * 4);
+                    if (overlap >= bestOverlap) {
+                        bestOverlap = overlap;
+                        bestFace = face;
+                        bestSlot = slot;
+                    }
+                }
+            }
+            if (bestFace < 0) {
+                break;
+            }
+            faceSlots[bestFace] = bestSlot;
+            isTrackMatched[bestSlot] = true;
+            System.arraycopy(boxes, bestFace * 4, trackBoxes, bestSlot * 4, 4);
+            trackAges[bestSlot]++;
+            missedFrames[bestSlot] = 0;
+        }
+
+        //age the tracks nobody matched, expiring the ones missing for too long
+        for (int slot = 0; slot < maxTracks; slot++) {
+            if (isActive[slot] && !isTrackMatched[slot] && ++missedFrames[slot] > maxMissedFrames) {
+                isActive[slot] = false;
+            }
+        }
+
+        //start new tracks for the remaining faces
+        for (int face = 0; face < faceCount; face++) {
+            if (faceSlots[face] != NO_TRACK) {
+                continue;
+            }
+            int slot = findFreeSlot();
+            if (slot < 0) {
+                continue; //more faces than slots, leave this one untracked
+            }
+            isActive[slot] = true;
+            isTrackMatched[slot] = true;
+            trackIds[slot] = nextTrackId++;
+            System.arraycopy(boxes, face * 4, trackBoxes, slot * 4, 4);
+            trackAges[slot] = 1;
+            missedFrames[slot] = 0;
+            faceSlots[face] = slot;
+            isFaceNew[face] = true;
+        }
+    }
+
+    // a free slot, or else the unmatched track that has been missing the longest
+    private int findFreeSlot() {
+        int stalest = -1;
+        for (int slot = 0; slot < maxTracks; slot++) {
+            if (!isActive[slot]) {
+                return slot;
+            }
+            if (!isTrackMatched[slot] && (stalest < 0 || missedFrames[slot] > missedFrames[stalest])) {
+                stalest = slot;
+            }
+        }
+        return stalest;
+    }
+
+    /**
+     * Forget every track.
+     */
+    public void reset() {
+        Arrays.fill(isActive, false);
+        faceCount = 0;
+    }
+
+    /**
+     * Slot of the track the given face of the last update belongs to, or NO_TRACK.
+     */
+    public int getTrackSlot(int face) {
+        return face < faceCount ? faceSlots[face] : NO_TRACK;
+    }
+
+    /**
+     * Identifier of the track the given face of the last update belongs to, or NO_TRACK. Identifiers are never reused.
+     */
+    public int getTrackId(int face) {
+        int slot = getTrackSlot(face);
+        return slot == NO_TRACK ? NO_TRACK : trackIds[slot];
+    }
+
+    /**
+     * True if the given face of the last update started a new track, so any state kept for its slot is stale.
+     */
+    public boolean isNewTrack(int face) {
+        return face < faceCount && isFaceNew[face];
+    }
+
+    /**
+     * Number of frames the track of the given face has been matched in, or 0 if the face is untracked.
+     */
+    public int getTrackAge(int face) {
+        int slot = getTrackSlot(face);
+        return slot == NO_TRACK ? 0 : trackAges[slot];
+    }
+
+    public int getActiveTrackCount() {
+        int count = 0;
+        for (int slot = 0; slot < maxTracks; slot++) {
+            if (isActive[slot]) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,202 @@
+/**
+ * Copyright (c) 2016 Affectiva Inc.
+ * See the file license.txt for copying permission.
+ */
+
+package com.affectiva.affdexme;
+
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Converts raw camera frames (NV21 or RGBA byte arrays) to ARGB_8888 pixels, rotating them in the same pass.
+ * <p>
+ * The image is split into horizontal strips of source rows which are converted in parallel on a small worker
+ * pool; each strip writes a disjoint set of destination pixels, so no synchronization is needed between them.
+ * The output array is reused between calls, so convert() must not be called concurrently (it is synchronized)
+ * and the returned array is only valid until the next call.
+ */
+public class FrameConverter {
+
+    public enum ColorFormat {NV21, RGBA}
+
+    private final ExecutorService workers;
+    private final int stripCount;
+    private int[] argbPixels = new int[0];
+    private int outputWidth;
+    private int outputHeight;
+
+    public FrameConverter() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public FrameConverter(int threadCount) {
+        stripCount = Math.max(1, threadCount);
+        // the calling thread converts the last strip itself, so one less worker is required
+        workers = stripCount > 1 ? Executors.newFixedThreadPool(stripCount - 1, new ThreadFactory() {
+            private int count = 0;
+
+            @Override
+            public synchronized Thread newThread(@NonNull Runnable runnable) {
+                Thread thread = new Thread(runnable, "FrameConverter-" + count++);
+                thread.setDaemon(true);
+                return thread;
+            }
+        }) : null;
+    }
+
+    /**
+     * Normalizes a rotation angle to 0, 90, 180 or 270 degrees clockwise.
+     */
+    static int normalizeRotation(double degrees) {
+        int rotation = (int) Math.round(degrees / 90.0) * 90;
+        rotation %= 360;
+        return rotation < 0 ? rotation + 360 : rotation;
+    }
+
+    /**
+     * Convert a frame to ARGB_8888 pixels, rotated clockwise by the given angle (a multiple of 90 degrees).
+     * NV21 frames must have an even width and height, as each chroma pair covers a 2x2 block of pixels.
+     *
+     * @return the converted pixels, valid until the next call; use getOutputWidth()/getOutputHeight() for the
+     * dimensions of the rotated image
+     */
+    public synchronized int[] convert(@NonNull final byte[] source, @NonNull final ColorFormat format,
+                                      final int width, final int height, final int rotationDegrees) {
+        final int rotation = normalizeRotation(rotationDegrees);
+        final int requiredBytes = (format == ColorFormat.NV21) ? width * height * 3 / 2 : width * height * 4;
+        if (width <= 0 || height <= 0 || source.length < requiredBytes) {
+            throw new IllegalArgumentException("Frame of " + source.length + " bytes is too small for " + width + "x" + height + " " + format);
+        }
+        if (format == ColorFormat.NV21 && ((width | height) & 1) != 0) {
+            throw new IllegalArgumentException("NV21 frames must have an even width and height, not " + width + "x" + height);
+        }
+
+        if (argbPixels.length < width * height) {
+            argbPixels = new int[width * height];
+        }
+        boolean isQuarterTurn = (rotation == 90 || rotation == 270);
+        outputWidth = isQuarterTurn ? height : width;
+        outputHeight = isQuarterTurn ? width : height;
+
+        final int[] destination = argbPixels;
+        // NV21 chroma is shared by pairs of rows, so keep strip boundaries on even rows
+        int rowsPerStrip = (height + stripCount - 1) / stripCount;
+        rowsPerStrip += rowsPerStrip & 1;
+        final int strips = (height + rowsPerStrip - 1) / rowsPerStrip;
+
+        final CountDownLatch remaining = new CountDownLatch(strips - 1);
+        for (int n = 0; n < strips - 1; n++) {
+            final int rowStart = n * rowsPerStrip;
+            final int rowEnd = Math.min(height, rowStart + rowsPerStrip);
+            workers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        convertRows(source, format, width, height, rotation, destination, rowStart, rowEnd);
+                    } finally {
+                        remaining.countDown();
+                    }
+                }
+            });
+        }
+        convertRows(source, format, width, height, rotation, destination, (strips - 1) * rowsPerStrip, height);
+
+        try {
+            remaining.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while converting frame", e);
+        }
+        return destination;
+    }
+
+    public synchronized int getOutputWidth() {
+        return outputWidth;
+    }
+
+    public synchronized int getOutputHeight() {
+        return outputHeight;
+    }
+
+    public void shutdown() {
+        if (workers != null) {
+            workers.shutdown();
+        }
+    }
+
+    static void convertRows(byte[] source, ColorFormat format, int width, int height, int rotation,
+                            int[] destination, int rowStart, int rowEnd) {
+        if (format == ColorFormat.NV21) {
+            convertNv21Rows(source, width, height, rotation, destination, rowStart, rowEnd);
+        } else {
+            convertRgbaRows(source, width, height, rotation, destination, rowStart, rowEnd);
+        }
+    }
+
+    /**
+     * Integer BT.601 conversion (video range), as used by the Android camera stack.
+     */
+    static void convertNv21Rows(byte[] nv21, int width, int height, int rotation,
+                                int[] destination, int rowStart, int rowEnd) {
+        final int frameSize = width * height;
+
+        for (int y = rowStart; y < rowEnd; y++) {
+            int yIndex = y * width;
+            int uvRowIndex = frameSize + (y >> 1) * width;
+            int v = 0;
+            int u = 0;
+
+            for (int x = 0; x < width; x++, yIndex++) {
+                if ((x & 1) == 0) {
+                    v = (0xff & nv21[uvRowIndex + x]) - 128;
+                    u = (0xff & nv21[uvRowIndex + x + 1]) - 128;
+                }
+
+                int y1192 = 1192 * Math.max(0, (0xff & nv21[yIndex]) - 16);
+                int r = clamp(y1192 + 1634 * v);
+                int g = clamp(y1192 - 833 * v - 400 * u);
+                int b = clamp(y1192 + 2066 * u);
+
+                destination[rotatedIndex(x, y, width, height, rotation)] =
+                        0xff000000 | ((r << 6) & 0xff0000) | ((g >> 2) & 0xff00) | ((b >> 10) & 0xff);
+            }
+        }
+    }
+
+    static void convertRgbaRows(byte[] rgba, int width, int height, int rotation,
+                                int[] destination, int rowStart, int rowEnd) {
+        for (int y = rowStart; y < rowEnd; y++) {
+            int index = y * width * 4;
+            for (int x = 0; x < width; x++, index += 4) {
+                destination[rotatedIndex(x, y, width, height, rotation)] =
+                        ((0xff & rgba[index + 3]) << 24)
+                                | ((0xff & rgba[index]) << 16)
+                                | ((0xff & rgba[index + 1]) << 8)
+                                | (0xff & rgba[index + 2]);
+            }
+        }
+    }
+
+    private static int clamp(int value) {
+        return value < 0 ? 0 : (value > 262143 ? 262143 : value);
+    }
+
+    // index of source pixel (x, y) in the destination image after a clockwise rotation
+    private static int rotatedIndex(int x, int y, int width, int height, int rotation) {
+        switch (rotation) {
+            case 90:
+                return x * height + (height - 1 - y);
+            case 180:
+                return (height - 1 - y) * width + (width - 1 - x);
+            case 270:
+                return (width - 1 - x) * height + y;
+            default:
+                return y * width + x;
+        }
+    }
+}
@@ -0,0 +1,230 @@
+/**
+ * Copyright (c) 2016 Affectiva Inc.
+ * See the file license.txt for copying permission.
+ */
+
+package com.affectiva.affdexme;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Extrapolates the landmarks of tracked faces between detector results, so the tracking dots keep up with a moving
+ * face at the display rate instead of jumping after it at the detector's rate.
+ * <p>
+ * Each track slot holds a constant-velocity model of every landmark, updated like an alpha-beta filter with
+ * alpha = 1: the model snaps to each detected position, and the velocity moves towards the one implied by the
+ * displacement since the previous result by VELOCITY_GAIN, which damps the jitter of the detected points.
+ * Between results, points are extrapolated over the time elapsed since the last result times the prediction
+ * factor, for at most MAX_RESULT_INTERVALS result intervals (see setResultInterval(), and never less than
+ * MAX_PREDICTION_NANOS): 0 turns prediction off, 1 extrapolates to the display time. A face whose next result
+ * comes later than that is reset rather than extrapolated, as the detector stalled or lost it.
+ * <p>
+ * Each result also measures how well the model did, as the mean distance between the detected points and the
+ * points predicted for that time (what the overlay showed), and between the detected points and the previous ones
+ * held in place (what the overlay shows without prediction). Both are in camera image pixels.
+ * <p>
+ * Nothing is allocated once the per-slot arrays have grown to the number of landmarks. An instance is not
+ * thread-safe.
+ */
+public class LandmarkPredictor {
+
+    static final long MAX_PREDICTION_NANOS = 250000000L; //the shortest gap after which the points are held
+    static final int MAX_RESULT_INTERVALS = 2; //result intervals after which the points are held, one result missed
+    static final float VELOCITY_GAIN = 0.5f;
+
+    private final Track[] tracks;
+    private final Prediction prediction = new Prediction();
+    private float predictionFactor = 0;
+    private long maxPredictionNanos = MAX_PREDICTION_NANOS;
+    private float lastPredictedError = Float.NaN;
+    private float lastHeldError = Float.NaN;
+
+    public LandmarkPredictor(int maxTracks) {
+        tracks = new Track[maxTracks];
+        for (int n = 0; n < maxTracks; n++) {
+            tracks[n] = new Track();
+        }
+    }
+
+    /**
+     * Set the share of the time elapsed since the last result that points are extrapolated over. 0 disables
+     * prediction.
+     */
+    public void setPredictionFactor(float factor) {
+        predictionFactor = Math.max(0, factor);
+    }
+
+    public float getPredictionFactor() {
+        return predictionFactor;
+    }
+
+    /**
+     * Set the expected interval between two results of a face, the period of the process rate, so that prediction
+     * also works at low process rates: points are extrapolated over at most MAX_RESULT_INTERVALS such intervals.
+     */
+    public void setResultInterval(long intervalNanos) {
+        maxPredictionNanos = Math.max(MAX_PREDICTION_NANOS, MAX_RESULT_INTERVALS * intervalNanos);
+    }
+
+    public long getMaxPredictionNanos() {
+        return maxPredictionNanos;
+    }
+
+    /**
+     * Feed the detected landmarks of the face tracked in the given slot.
+     *
+     * @param resultNanos System.nanoTime() when the result was received
+     * @param isNewTrack  true if the slot's track has just started, so its model belongs to another face
+     * @return true if the errors of the previous model were measured, see getLastPredictedError() and
+     * getLastHeldError()
+     */
+    public boolean update(int slot, @NonNull FaceLandmarks face, long resultNanos, boolean isNewTrack) {
+        Track track = tracks[slot];
+        int pointCount = face.getPointCount();
+        long interval = resultNanos - track.lastNanos;
+        if (isNewTrack || pointCount == 0 || pointCount != track.pointCount || interval <= 0) {
+            track.reset(face, resultNanos);
+            return false;
+        }
+        if (interval > maxPredictionNanos) {
+            //the velocity of a face found again after a while says little about where it is going
+            track.reset(face, resultNanos);
+            return false;
+        }
+
+        float lead = leadSeconds(track, resultNanos);
+        float seconds = interval / 1e9f;
+        float gain = track.hasVelocity ? VELOCITY_GAIN : 1;
+        float[] positions = track.positions;
+        float[] velocities = track.velocities;
+        double predictedErrorSum = 0;
+        double heldErrorSum = 0;
+        for (int n = 0; n < pointCount; n++) {
+            int ix = 2 * n;
+            int iy = ix + 1;
+            float x = face.getPointX(n);
+            float y = face.getPointY(n);
+            float dx = x - positions[ix];
+            float dy = y - positions[iy];
+            heldErrorSum += Math.sqrt(dx * dx + dy * dy);
+            float px = dx - velocities[ix] * lead;
+            float py = dy - velocities[iy] * lead;
+            predictedErrorSum += Math.sqrt(px * px + py * py);
+
+            velocities[ix] += gain * (dx / seconds - velocities[ix]);
+            velocities[iy] += gain * (dy / seconds - velocities[iy]);
+            positions[ix] = x;
+            positions[iy] = y;
+        }
+        track.hasVelocity = true;
+        track.lastNanos = resultNanos;
+        lastPredictedError = (float) (predictedErrorSum / pointCount);
+        lastHeldError = (float) (heldErrorSum / pointCount);
+        return true;
+    }
+
+    /**
+     * Mean distance between the points of the last update() and those the overlay showed for that time.
+     */
+    public float getLastPredictedError() {
+        return lastPredictedError;
+    }
+
+    /**
+     * Mean distance between the points of the last update() and the points of the update before it.
+     */
+    public float getLastHeldError() {
+        return lastHeldError;
+    }
+
+    /**
+     * Extrapolate the landmarks of the face tracked in the given slot to the given time.
+     *
+     * @param face the face last passed to update() for this slot, returned as is when there is nothing to
+     *             extrapolate
+     * @return the predicted landmarks, only valid until the next call
+     */
+    @NonNull
+    public FaceLandmarks predict(int slot, @NonNull FaceLandmarks face, long displayNanos) {
+        Track track = tracks[slot];
+        float lead = leadSeconds(track, displayNanos);
+        if (lead <= 0 || face.getPointCount() != track.pointCount) {
+            return face;
+        }
+        prediction.track = track;
+        prediction.lead = lead;
+        return prediction;
+    }
+
+    /**
+     * True if the points predicted for the face tracked in the given slot still move after the given time, so the
+     * overlay should be redrawn at the next display frame.
+     */
+    public boolean isMoving(int slot, long displayNanos) {
+        Track track = tracks[slot];
+        return predictionFactor > 0 && track.hasVelocity && displayNanos - track.lastNanos < maxPredictionNanos;
+    }
+
+    /**
+     * Forget every model.
+     */
+    public void reset() {
+        for (Track track : tracks) {
+            track.pointCount = 0;
+            track.hasVelocity = false;
+        }
+    }
+
+    private float leadSeconds(Track track, long nanos) {
+        if (predictionFactor <= 0 || !track.hasVelocity) {
+            return 0;
+        }
+        long elapsed = Math.min(Math.max(0, nanos - track.lastNanos), maxPredictionNanos);
+        return predictionFactor * elapsed / 1e9f;
+    }
+
+    private static class Track {
+        private float[] positions = new float[0]; //x,y pairs, as last detected
+        private float[] velocities = new float[0]; //x,y pairs, in pixels per second
+        private int pointCount;
+        private long lastNanos;
+        private boolean hasVelocity;
+
+        private void reset(FaceLandmarks face, long nanos) {
+            pointCount = face.getPointCount();
+            if (positions.length < 2 * pointCount) {
+                positions = new float[2 * pointCount];
+                velocities = new float[2 * pointCount];
+            }
+            for (int n = 0; n < pointCount; n++) {
+                positions[2 * n] = face.getPointX(n);
+                positions[2 * n + 1] = face.getPointY(n);
+                velocities[2 * n] = 0;
+                velocities[2 * n + 1] = 0;
+            }
+            lastNanos = nanos;
+            hasVelocity = false;
+        }
+    }
+
+    //extrapolates on the fly, so predicting copies nothing
+    private static class Prediction implements FaceLandmarks {
+        private Track track;
+        private float lead;
+
+        @Override
+        public int getPointCount() {
+            return track.pointCount;
+        }
+
+        @Override
+        public float getPointX(int n) {
+            return track.positions[2 * n] + track.velocities[2 * n] * lead;
+        }
+
+        @Override
+        public float getPointY(int n) {
+            return track.positions[2 * n + 1] + track.velocities[2 * n + 1] * lead;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/**
+ * Copyright (c) 2016 Affectiva Inc.
+ * See the file license.txt for copying permission.
+ */
+
+package com.affectiva.affdexme;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Transforms the landmarks of a face from camera image coordinates to screen coordinates, and computes their
+ * bounding box in the same pass.
+ * The transform is x' = scaleX * x + offsetX, y' = scale * y; the camera preview is displayed as a mirror,
+ * so when mirroring X pts are flipped back by a negative scaleX.
+ * <p>
+ * The projected points are kept in an array reused from face to face, so an instance must only be used by one
+ * thread (the DrawingThread).
+ */
+public class LandmarkProjector {
+
+    private float[] projectedPoints = new float[0];
+    private float left;
+    private float top;
+    private float right;
+    private float bottom;
+
+    /**
+     * Project the points of the given face into getProjectedPoints(), as x,y pairs.
+     * The bounding box starts 'inverted', where the absolute max and min values of the surface are inside-out,
+     * so a face without points yields an empty box.
+     *
+     * @param scale         ratio between screen and camera image sizes
+     * @param imageWidth    width of the camera image, used to flip the points back when mirroring
+     * @param surfaceWidth  width of the surface the points are drawn on
+     * @param surfaceHeight height of the surface the points are drawn on
+     * @return the number of points projected
+     */
+    public int project(@NonNull FaceLandmarks face, float scale, int imageWidth, boolean mirrorPoints,
+                       float surfaceWidth, float surfaceHeight) {
+        int pointCount = face.getPointCount();
+        if (projectedPoints.length < pointCount * 2) {
+            projectedPoints = new float[pointCount * 2];
+        }
+
+        float scaleX = mirrorPoints ? -scale : scale;
+        float offsetX = mirrorPoints ? imageWidth * scale : 0;
+
+        float minX = surfaceWidth;
+        float minY = surfaceHeight;
+        float maxX = 0;
+        float maxY = 0;
+
+        float[] projected = projectedPoints;
+        for (int n = 0; n < pointCount; n++) {
+            float x = scaleX * face.getPointX(n) + offsetX;
+            float y = scale * face.getPointY(n);
+            projected[2 * n] = x;
+            projected[2 * n + 1] = y;
+
+            if (x < minX) minX = x;
+            if (x > maxX) maxX = x;
+            if (y < minY) minY = y;
+            if (y > maxY) maxY = y;
+        }
+
+        left = minX;
+        top = minY;
+        right = maxX;
+        bottom = maxY;
+        return pointCount;
+    }
+
+    /**
+     * The points of the last face projected, as x,y pairs. Only valid until the next call to project().
+     */
+    public float[] getProjectedPoints() {
+        return projectedPoints;
+    }
+
+    public float getLeft() {
+        return left;
+    }
+
+    public float getTop() {
+        return top;
+    }
+
+    public float getRight() {
+        return right;
+    }
+
+    public float getBottom() {
+        return bottom;
+    }
+}
@@ -5,8 +5,6 @@
 
 package com.affectiva.affdexme;
 
-import com.affectiva.android.affdex.sdk.detector.Face;
-
 import java.util.Locale;
 
 /**
@@ -18,11 +16,15 @@ import java.util.Locale;
 public class MetricsManager {
 
     private static Metrics[] allMetrics;
+    private static int expressionIndexOffset;
+    private static int emojiIndexOffset;
 
     static {
         Emotions[] emotions = Emotions.values();
         Expressions[] expressions = Expressions.values();
         Emojis[] emojis = Emojis.values();
+        expressionIndexOffset = emotions.length;
+        emojiIndexOffset = emotions.length + expressions.length;
         allMetrics = new Metrics[emotions.length + expressions.length + emojis.length];
         System.arraycopy(emotions, 0, allMetrics, 0, emotions.length);
         System.arraycopy(expressions, 0, allMetrics, emotions.length, expressions.length);
@@ -33,6 +35,24 @@ public class MetricsManager {
         return allMetrics;
     }
 
+    static int getMetricCount() {
+        return allMetrics.length;
+    }
+
+    //Position of the metric within getAllMetrics(), usable as a dense index into per-metric tables
+    static int getMetricIndex(Metrics metric) {
+        switch (metric.getType()) {
+            case Emotion:
+                return ((Emotions) metric).ordinal();
+            case Expression:
+                return expressionIndexOffset + ((Expressions) metric).ordinal();
+            case Emoji:
+                return emojiIndexOffset + ((Emojis) metric).ordinal();
+            default:
+                throw new IllegalArgumentException("Unknown Metric Type: " + metric.getType());
+        }
+    }
+
     //Used for displays
     static String getUpperCaseName(Metrics metric) {
         if (metric == Expressions.LIP_CORNER_DEPRESSOR) {
@@ -178,37 +198,6 @@ public class MetricsManager {
         public String getDisplayName() {
             return displayName;
         }
-
-        public String getUnicodeForEmoji() {
-            switch (this) {
-                case RELAXED:
-                    return Face.EMOJI.RELAXED.getUnicode();
-                case SMILEY:
-                    return Face.EMOJI.SMILEY.getUnicode();
-                case LAUGHING:
-                    return Face.EMOJI.LAUGHING.getUnicode();
-                case KISSING:
-                    return Face.EMOJI.KISSING.getUnicode();
-                case DISAPPOINTED:
-                    return Face.EMOJI.DISAPPOINTED.getUnicode();
-                case RAGE:
-                    return Face.EMOJI.RAGE.getUnicode();
-                case SMIRK:
-                    return Face.EMOJI.SMIRK.getUnicode();
-                case WINK:
-                    return Face.EMOJI.WINK.getUnicode();
-                case STUCK_OUT_TONGUE_WINKING_EYE:
-                    return Face.EMOJI.STUCK_OUT_TONGUE_WINKING_EYE.getUnicode();
-                case STUCK_OUT_TONGUE:
-                    return Face.EMOJI.STUCK_OUT_TONGUE.getUnicode();
-                case FLUSHED:
-                    return Face.EMOJI.FLUSHED.getUnicode();
-                case SCREAM:
-                    return Face.EMOJI.SCREAM.getUnicode();
-                default:
-                    return "";
-            }
-        }
     }
 
     public interface Metrics {
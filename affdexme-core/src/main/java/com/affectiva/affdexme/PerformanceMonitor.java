@@ -0,0 +1,258 @@
+/**
+ * Copyright (c) 2016 Affectiva Inc.
+ * See the file license.txt for copying permission.
+ */
+
+package com.affectiva.affdexme;
+
+import android.support.annotation.NonNull;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects timestamped events from every stage of the pipeline, so their rates and latencies can be computed over a
+ * sliding window rather than averaged since some reset.
+ * <p>
+ * Each Series is written by a single thread (camera callbacks and results on the main thread, overlay draws and
+ * landmark residuals on the DrawingThread, UI frames in a Choreographer callback) into a ring buffer, and published
+ * with an ordered write of its event count; recording never locks, allocates or waits on a reader. A reader (the
+ * PerformanceHud) scans the ring backwards from the newest event and discards whatever the writer may have
+ * overwritten meanwhile.
+ * <p>
+ * Garbage collections are counted with a sentinel object whose finalizer runs once per collection that reclaims it
+ * and replaces it with a new one.
+ */
+public class PerformanceMonitor {
+
+    public static final long DEFAULT_WINDOW_NANOS = 1000000000L;
+    private static final int SERIES_CAPACITY = 512; //enough for a 120 Hz display over a few seconds
+
+    private final Series cameraFrames = new Series(SERIES_CAPACITY); //every onImageResults() callback
+    private final Series processedFrames = new Series(SERIES_CAPACITY); //callbacks with results
+    private final Series overlayDraws = new Series(SERIES_CAPACITY); //DrawingView frames posted
+    private final Series resultLatencies = new Series(SERIES_CAPACITY); //callback to posted overlay frame, in ms
+    private final Series uiFrames = new Series(SERIES_CAPACITY); //Choreographer frames, valued with their interval in ms
+    private final Series garbageCollections = new Series(SERIES_CAPACITY);
+    private final Series predictedErrors = new Series(SERIES_CAPACITY); //predicted landmarks vs next result, in pixels
+    private final Series heldErrors = new Series(SERIES_CAPACITY); //previous landmarks vs next result, in pixels
+    private volatile int gcWatchGeneration = 0; //odd while watching; a sentinel of an older generation retires
+
+    /**
+     * Report a camera frame, whether the detector processed it or not.
+     */
+    public void onCameraFrame(long nowNanos) {
+        cameraFrames.record(nowNanos, 0);
+    }
+
+    public void onFrameProcessed(long nowNanos) {
+        processedFrames.record(nowNanos, 0);
+    }
+
+    /**
+     * Report a frame posted by the overlay.
+     *
+     * @param resultNanos System.nanoTime() when the results drawn in this frame were received, or -1 if the frame
+     *                    redrew results already drawn
+     */
+    public void onOverlayDrawn(long nowNanos, long resultNanos) {
+        overlayDraws.record(nowNanos, 0);
+        if (resultNanos >= 0) {
+            resultLatencies.record(nowNanos, (nowNanos - resultNanos) / 1000000f);
+        }
+    }
+
+    /**
+     * Report how far the landmarks of a tracked face moved from one result to the next, as the mean point distance
+     * from the landmarks the overlay predicted for the new result, and from the previous landmarks held in place.
+     * Both series are written by the same thread, the DrawingThread.
+     */
+    public void onLandmarkResidual(long nowNanos, float predictedError, float heldError) {
+        predictedErrors.record(nowNanos, predictedError);
+        heldErrors.record(nowNanos, heldError);
+    }
+
+    /**
+     * Report a UI frame, with the frame time given by Choreographer and the interval since the previous UI frame.
+     */
+    public void onUiFrame(long frameTimeNanos, long intervalNanos) {
+        uiFrames.record(frameTimeNanos, intervalNanos / 1000000f);
+    }
+
+    /**
+     * Start or stop counting garbage collections.
+     */
+    public void setGcWatched(boolean isWatched) {
+        boolean isWatching = (gcWatchGeneration & 1) != 0;
+        if (isWatched != isWatching) {
+            gcWatchGeneration++;
+            if (isWatched) {
+                new GcSentinel(gcWatchGeneration);
+            }
+        }
+    }
+
+    /**
+     * Compute the statistics of the window ending at nowNanos into the given snapshot.
+     */
+    public void snapshot(long nowNanos, long windowNanos, @NonNull Snapshot out) {
+        long since = nowNanos - windowNanos;
+        float seconds = windowNanos / 1e9f;
+        out.cameraFps = cameraFrames.count(since) / seconds;
+        out.processedFps = processedFrames.count(since) / seconds;
+        out.overlayFps = overlayDraws.count(since) / seconds;
+        out.gcCount = garbageCollections.count(since);
+
+        int latencyCount = resultLatencies.values(since, out.latencyScratch);
+        Arrays.sort(out.latencyScratch, 0, latencyCount);
+        out.latencyCount = latencyCount;
+        out.latencyP50Millis = percentile(out.latencyScratch, latencyCount, 0.5f);
+        out.latencyP95Millis = percentile(out.latencyScratch, latencyCount, 0.95f);
+        out.latencyMaxMillis = latencyCount > 0 ? out.latencyScratch[latencyCount - 1] : Float.NaN;
+
+        int uiFrameCount = uiFrames.values(since, out.uiFrameScratch);
+        int longFrames = 0;
+        for (int n = 0; n < uiFrameCount; n++) {
+            if (out.uiFrameScratch[n] > out.longFrameMillis) {
+                longFrames++;
+            }
+        }
+        out.uiFrameCount = uiFrameCount;
+        out.longUiFrameCount = longFrames;
+
+        out.residualCount = predictedErrors.values(since, out.residualScratch);
+        out.predictedErrorMean = mean(out.residualScratch, out.residualCount);
+        out.heldErrorMean = mean(out.residualScratch, heldErrors.values(since, out.residualScratch));
+    }
+
+    private static float mean(float[] values, int count) {
+        if (count == 0) {
+            return Float.NaN;
+        }
+        double sum = 0;
+        for (int n = 0; n < count; n++) {
+            sum += values[n];
+        }
+        return (float) (sum / count);
+    }
+
+    private static float percentile(float[] sorted, int count, float fraction) {
+        if (count == 0) {
+            return Float.NaN;
+        }
+        return sorted[Math.min(count - 1, (int) (fraction * count))];
+    }
+
+    /**
+     * The statistics of one window. Reused from one snapshot to the next so the HUD does not allocate.
+     */
+    public static class Snapshot {
+        private final float[] latencyScratch = new float[SERIES_CAPACITY];
+        private final float[] uiFrameScratch = new float[SERIES_CAPACITY];
+        private final float[] residualScratch = new float[SERIES_CAPACITY];
+        float longFrameMillis = 1000f / 60 * 1.5f; //UI frames longer than this are counted as long frames
+
+        float cameraFps;
+        float processedFps;
+        float overlayFps;
+        int latencyCount;
+        float latencyP50Millis;
+        float latencyP95Millis;
+        float latencyMaxMillis;
+        int uiFrameCount;
+        int longUiFrameCount;
+        int gcCount;
+        int residualCount;
+        float predictedErrorMean;
+        float heldErrorMean;
+
+        /**
+         * Count UI frames as long when they last more than one and a half display refresh periods.
+         */
+        public void setUiFramePeriod(long periodNanos) {
+            if (periodNanos > 0) {
+                longFrameMillis = periodNanos * 1.5f / 1000000f;
+            }
+        }
+    }
+
+    /**
+     * A ring buffer of (timestamp, value) events with a single writer.
+     */
+    static class Series {
+        private final long[] timestamps;
+        private final float[] values;
+        private final int mask;
+        private final AtomicLong count = new AtomicLong();
+
+        Series(int capacity) {
+            if (Integer.bitCount(capacity) != 1) {
+                throw new IllegalArgumentException("capacity must be a power of two");
+            }
+            timestamps = new long[capacity];
+            values = new float[capacity];
+            mask = capacity - 1;
+        }
+
+        //only called by the writer thread
+        void record(long timestampNanos, float value) {
+            long n = count.get();
+            int index = (int) (n & mask);
+            timestamps[index] = timestampNanos;
+            values[index] = value;
+            count.lazySet(n + 1); //publishes the entry to readers of count
+        }
+
+        int count(long sinceNanos) {
+            return values(sinceNanos, null);
+        }
+
+        /**
+         * Copy the values of the events at or after the given time, newest first, into out (if not null).
+         *
+         * @return the number of such events
+         */
+        int values(long sinceNanos, float[] out) {
+            long end = count.get();
+            long oldest = Math.max(0, end - timestamps.length);
+            int found = 0;
+            for (long n = end - 1; n >= oldest; n--) {
+                int index = (int) (n & mask);
+                if (timestamps[index] < sinceNanos) {
+                    break;
+                }
+                if (out != null) {
+                    out[found] = values[index];
+                }
+                found++;
+            }
+            //entries the writer recorded while we were reading may have overwritten the oldest ones we read
+            long firstValid = count.get() - timestamps.length;
+            long firstRead = end - found;
+            if (firstRead < firstValid) {
+                found = (int) Math.max(0, found - (firstValid - firstRead));
+            }
+            return found;
+        }
+    }
+
+    private class GcSentinel {
+        private final int generation;
+
+        GcSentinel(int generation) {
+            this.generation = generation;
+        }
+
+        @Override
+        protected void finalize() throws Throwable {
+            try {
+                if (generation == gcWatchGeneration) {
+                    garbageCollections.record(System.nanoTime(), 0);
+                    new GcSentinel(generation);
+                }
+            } finally {
+                super.finalize();
+            }
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/**
+ * Copyright (c) 2016 Affectiva Inc.
+ * See the file license.txt for copying permission.
+ */
+
+package com.affectiva.affdexme;
+
+import android.support.annotation.Nullable;
+
+import java.util.Locale;
+
+/**
+ * Translates the strings held in preferences into values to be used by the application, and back.
+ * Reading and writing the preferences themselves is left to the application's PreferencesUtils.
+ */
+public class PreferenceParser {
+
+    static final int DEFAULT_FPS = 20;
+    static final int DEFAULT_MIN_FPS = 5;
+
+    private PreferenceParser() {
+    }
+
+    /**
+     * @return the integer held in the given string if it lies between min and max (inclusive), -1 otherwise
+     */
+    public static int parseInt(@Nullable String value, int min, int max) {
+        int parsed;
+        try {
+            parsed = Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+        return (parsed >= min && parsed <= max) ? parsed : -1;
+    }
+
+    /**
+     * @return the score smoothing filter named by the given string, or null if it is not recognized
+     */
+    @Nullable
+    public static ScoreSmoother.Mode parseSmoothingMode(@Nullable String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return ScoreSmoother.Mode.valueOf(value.toUpperCase(Locale.US));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * We attempt to parse the string as any known metric: the name of an emotion or expression, or the display name
+     * of an emoji.
+     */
+    static MetricsManager.Metrics parseSavedMetric(String metricString) throws IllegalArgumentException {
+        try {
+            return MetricsManager.Emotions.valueOf(metricString);
+        } catch (IllegalArgumentException emotionParseFailed) {
+            //not an emotion
+        }
+        try {
+            return MetricsManager.Expressions.valueOf(metricString);
+        } catch (IllegalArgumentException expressionParseFailed) {
+            //not an expression
+        }
+        try {
+            return MetricsManager.Emojis.getEnum(metricString);
+        } catch (IllegalArgumentException emojiParseFailed) {
+            //not an emoji
+        }
+        throw new IllegalArgumentException("String did not match any known metric");
+    }
+
+    /**
+     * The string saved for the given metric, which parseSavedMetric() turns back into the metric.
+     */
+    static String toSavedString(MetricsManager.Metrics metric) {
+        if (metric.getType().equals(MetricsManager.MetricType.Emoji)) {
+            return ((MetricsManager.Emojis) metric).getDisplayName();
+        }
+        return metric.toString();
+    }
+
+    /**
+     * The metric shown in the given slot of the metric panel until the user picks another one.
+     */
+    static MetricsManager.Metrics defaultMetric(int index) {
+        switch (index) {
+            case 0:
+                return MetricsManager.Emotions.ANGER;
+            case 1:
+                return MetricsManager.Emotions.DISGUST;
+            case 2:
+                return MetricsManager.Emotions.FEAR;
+            case 3:
+                return MetricsManager.Emotions.JOY;
+            case 4:
+                return MetricsManager.Emotions.SADNESS;
+            case 5:
+                return MetricsManager.Emotions.SURPRISE;
+        }
+
+        return MetricsManager.Emotions.ANGER;
+    }
+}
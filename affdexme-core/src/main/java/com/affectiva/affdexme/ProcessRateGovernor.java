@@ -0,0 +1,230 @@
+/**
+ * Copyright (c) 2016 Affectiva Inc.
+ * See the file license.txt for copying permission.
+ */
+
+package com.affectiva.affdexme;
+
+/**
+ * Adjusts the detector's maximum process rate to what the device can actually sustain, between bounds set by the user.
+ * <p>
+ * Every second (an evaluation window) the governor looks at three signals:
+ * <ul>
+ * <li>the processed frame rate actually achieved,</li>
+ * <li>the queueing delay of the results: the time between a frame's timestamp and its results reaching us, minus the
+ * lowest such delay seen since reset(). Subtracting the minimum removes the unknown offset between the SDK's clock
+ * and ours and the fixed pipeline latency, leaving only the delay that builds up when the detector falls behind,</li>
+ * <li>the share of UI frames that missed a vsync ('jank'), reported through onUiFrame().</li>
+ * </ul>
+ * The device is overloaded when the queueing delay or the jank is high, and has headroom when both are low and the
+ * achieved rate is close to the current cap (if it is not, something other than the cap limits the rate, such as
+ * a camera delivering fewer frames in low light, and raising the cap would not help).
+ * <p>
+ * To avoid oscillating, the rate only changes after several consecutive windows agree, it drops faster than it
+ * rises (multiplicative decrease, one frame per second increase), the signals have a dead band between
+ * the 'overloaded' and 'headroom' thresholds, and a rate that had to be abandoned right after an increase is
+ * retried after exponentially longer waits, while the rates below it are climbed back at the normal pace.
+ * An instance is not thread-safe; all methods are called on the main thread.
+ */
+public class ProcessRateGovernor {
+
+    static final long WINDOW_NANOS = 1000000000L;
+    static final float MAX_QUEUE_DELAY_MILLIS = 100; // more than this means results are falling behind
+    static final float LOW_QUEUE_DELAY_MILLIS = 40;
+    static final float MAX_JANK_RATIO = 0.1f;
+    static final float LOW_JANK_RATIO = 0.02f;
+    static final float CAPPED_RATIO = 0.9f; // achieved / cap above which the cap is what limits the rate
+    static final float DECREASE_FACTOR = 0.8f;
+    static final int WINDOWS_BEFORE_DECREASE = 2;
+    static final int WINDOWS_BEFORE_INCREASE = 4;
+    static final int MAX_WINDOWS_BEFORE_PROBE = 32;
+    private static final float JANK_INTERVAL_FACTOR = 1.5f; // a UI frame taking this many vsync periods missed one
+    private static final long DEFAULT_UI_FRAME_PERIOD_NANOS = 1000000000L / 60;
+
+    private boolean isEnabled = false;
+    private int minRate = 1;
+    private int maxRate = PreferenceParser.DEFAULT_FPS;
+    private int rate = PreferenceParser.DEFAULT_FPS;
+
+    // current window
+    private long windowStart = -1;
+    private int processedFrames;
+    private double queueDelaySum;
+    private int uiFrames;
+    private int jankFrames;
+    private long lastUiFrameNanos = -1;
+    private long uiFramePeriodNanos = DEFAULT_UI_FRAME_PERIOD_NANOS;
+    private double baselineDelayNanos = Double.MAX_VALUE;
+
+    // decision state
+    private int overloadedWindows;
+    private int headroomWindows;
+    private boolean wasLastChangeIncrease = false;
+    private int failedRate = Integer.MAX_VALUE; // lowest rate found to overload the device after an increase
+    private int windowsBeforeProbe = WINDOWS_BEFORE_INCREASE; // wait before trying failedRate again
+
+    // statistics of the last complete window
+    private float lastProcessedRate;
+    private float lastQueueDelayMillis;
+    private float lastJankRatio;
+
+    /**
+     * Set the bounds chosen by the user. When disabled, getRate() is always maxRate.
+     * The current rate is kept if it is still within the bounds, so a configuration change does not restart the search.
+     */
+    public void configure(boolean isEnabled, int minRate, int maxRate) {
+        maxRate = Math.max(1, maxRate);
+        minRate = Math.max(1, Math.min(minRate, maxRate));
+        if (isEnabled && !this.isEnabled) {
+            rate = maxRate; //start optimistic, an overloaded device is detected within a few seconds
+            failedRate = Integer.MAX_VALUE;
+            windowsBeforeProbe = WINDOWS_BEFORE_INCREASE;
+        }
+        this.isEnabled = isEnabled;
+        this.minRate = minRate;
+        this.maxRate = maxRate;
+        rate = Math.max(minRate, Math.min(rate, maxRate));
+    }
+
+    public boolean isEnabled() {
+        return isEnabled;
+    }
+
+    /**
+     * The process rate the detector should use.
+     */
+    public int getRate() {
+        return isEnabled ? rate : maxRate;
+    }
+
+    /**
+     * Set the display's vsync period, used to recognize UI frames that missed one.
+     */
+    public void setUiFramePeriod(long periodNanos) {
+        if (periodNanos > 0) {
+            uiFramePeriodNanos = periodNanos;
+        }
+    }
+
+    /**
+     * Start measuring afresh, e.g. because the detector was restarted and its timestamps start over.
+     * The rate reached so far is kept.
+     */
+    public void reset() {
+        windowStart = -1;
+        lastUiFrameNanos = -1;
+        baselineDelayNanos = Double.MAX_VALUE;
+        overloadedWindows = 0;
+        headroomWindows = 0;
+    }
+
+    /**
+     * Report a UI frame, with the frame time given by Choreographer.
+     */
+    public void onUiFrame(long frameTimeNanos) {
+        if (lastUiFrameNanos >= 0) {
+            uiFrames++;
+            if (frameTimeNanos - lastUiFrameNanos > JANK_INTERVAL_FACTOR * uiFramePeriodNanos) {
+                jankFrames++;
+            }
+        }
+        lastUiFrameNanos = frameTimeNanos;
+    }
+
+    /**
+     * Report the results of a processed frame.
+     *
+     * @param nowNanos         System.nanoTime() when the results were received
+     * @param timestampSeconds timestamp of the frame, as given with the results
+     * @return true if the rate changed and should be applied to the detector
+     */
+    public boolean onFrameProcessed(long nowNanos, float timestampSeconds) {
+        if (!isEnabled) {
+            return false;
+        }
+        double delayNanos = nowNanos - timestampSeconds * 1e9;
+        baselineDelayNanos = Math.min(baselineDelayNanos, delayNanos);
+
+        if (windowStart < 0) {
+            startWindow(nowNanos);
+            return false;
+        }
+        processedFrames++;
+        queueDelaySum += delayNanos - baselineDelayNanos;
+
+        long elapsed = nowNanos - windowStart;
+        if (elapsed < WINDOW_NANOS) {
+            return false;
+        }
+        lastProcessedRate = processedFrames * 1e9f / elapsed;
+        lastQueueDelayMillis = (float) (queueDelaySum / processedFrames / 1e6);
+        lastJankRatio = uiFrames > 0 ? jankFrames / (float) uiFrames : 0;
+        startWindow(nowNanos);
+        return evaluate();
+    }
+
+    private void startWindow(long nowNanos) {
+        windowStart = nowNanos;
+        processedFrames = 0;
+        queueDelaySum = 0;
+        uiFrames = 0;
+        jankFrames = 0;
+    }
+
+    private boolean evaluate() {
+        if (lastQueueDelayMillis > MAX_QUEUE_DELAY_MILLIS || lastJankRatio > MAX_JANK_RATIO) {
+            overloadedWindows++;
+            headroomWindows = 0;
+        } else if (lastQueueDelayMillis < LOW_QUEUE_DELAY_MILLIS && lastJankRatio < LOW_JANK_RATIO
+                && lastProcessedRate >= CAPPED_RATIO * rate) {
+            headroomWindows++;
+            overloadedWindows = 0;
+        } else {
+            //dead band: neither clearly overloaded nor clearly idle, keep the current rate
+            overloadedWindows = 0;
+            headroomWindows = 0;
+        }
+
+        //rates below one that failed are climbed back quickly, the failed rate itself is retried less and less often
+        int windowsBeforeIncrease = (rate + 1 >= failedRate) ? windowsBeforeProbe : WINDOWS_BEFORE_INCREASE;
+        int newRate = rate;
+        if (overloadedWindows >= WINDOWS_BEFORE_DECREASE && rate > minRate) {
+            newRate = Math.max(minRate, Math.min(rate - 1, (int) (rate * DECREASE_FACTOR)));
+            if (wasLastChangeIncrease) {
+                //the last increase was too much
+                if (rate <= failedRate) {
+                    windowsBeforeProbe = Math.min(MAX_WINDOWS_BEFORE_PROBE, windowsBeforeProbe * 2);
+                }
+                failedRate = rate;
+            }
+            wasLastChangeIncrease = false;
+        } else if (headroomWindows >= windowsBeforeIncrease && rate < maxRate) {
+            newRate = rate + 1;
+            if (rate >= failedRate) {
+                //the failed rate held up this time, the load must have changed
+                failedRate = Integer.MAX_VALUE;
+                windowsBeforeProbe = WINDOWS_BEFORE_INCREASE;
+            }
+            wasLastChangeIncrease = true;
+        }
+        if (newRate == rate) {
+            return false;
+        }
+        rate = newRate;
+        overloadedWindows = 0;
+        headroomWindows = 0;
+        return true;
+    }
+
+    public float getLastProcessedRate() {
+        return lastProcessedRate;
+    }
+
+    public float getLastQueueDelayMillis() {
+        return lastQueueDelayMillis;
+    }
+
+    public float getLastJankRatio() {
+        return lastJankRatio;
+    }
+}
@@ -0,0 +1,224 @@
+/**
+ * Copyright (c) 2016 Affectiva Inc.
+ * See the file license.txt for copying permission.
+ */
+
+package com.affectiva.affdexme;
+
+import java.util.Arrays;
+
+/**
+ * Smooths metric scores over time, independently for every (face, metric) pair, to take the frame-to-frame
+ * jitter out of the displayed values.
+ * <p>
+ * Three filters are available:
+ * -EMA: exponential moving average over roughly 'window' frames
+ * -ONE_EURO: the "one euro" filter (Casiez et al.), which smooths heavily while a score is steady but follows quick changes
+ * -MEDIAN: median of the last 'window' scores, which removes isolated spikes
+ * <p>
+ * All state lives in primitive arrays sized by configure(), so filtering a score allocates nothing.
+ * An instance is not thread-safe; each thread filtering scores should own its own instance.
+ */
+public class ScoreSmoother {
+
+    public static final int DEFAULT_WINDOW = 5;
+    static final int MAX_WINDOW = 30;
+
+    // one euro filter parameters, tuned for scores ranging over [0, 100]
+    private static final float ONE_EURO_MIN_CUTOFF = 1.0f; // Hz
+    private static final float ONE_EURO_BETA = 0.01f;
+    private static final float ONE_EURO_DERIVATIVE_CUTOFF = 1.0f; // Hz
+    private static final float DEFAULT_FRAME_INTERVAL = 1f / 20; // seconds, assumed when two scores share a timestamp
+
+    private final int maxFaces;
+    private final int metricCount;
+    private Mode mode = Mode.NONE;
+    private int window = DEFAULT_WINDOW;
+    private float emaAlpha;
+
+    // per (face, metric) slot
+    private float[] lastValues;
+    private float[] lastDerivatives;
+    private long[] lastTimes;
+    private boolean[] isInitialized;
+
+    // MEDIAN: ring buffer of 'window' samples per slot, plus a scratch array to sort a copy of one ring into
+    private float[] samples;
+    private int[] sampleCounts;
+    private int[] sampleHeads;
+    private float[] sortScratch;
+
+    public ScoreSmoother(int maxFaces, int metricCount) {
+        if (maxFaces <= 0 || metricCount <= 0) {
+            throw new IllegalArgumentException("Face and metric counts must be positive");
+        }
+        this.maxFaces = maxFaces;
+        this.metricCount = metricCount;
+        configure(Mode.NONE, DEFAULT_WINDOW);
+    }
+
+    public void configure(Mode mode, int window) {
+        if (window < 1 || window > MAX_WINDOW) {
+            throw new IllegalArgumentException("Window must be between 1 and " + MAX_WINDOW);
+        }
+        this.mode = mode;
+        this.window = window;
+        emaAlpha = 2f / (window + 1);
+
+        int slots = maxFaces * metricCount;
+        lastValues = new float[slots];
+        lastDerivatives = new float[slots];
+        lastTimes = new long[slots];
+        isInitialized = new boolean[slots];
+
+        if (mode == Mode.MEDIAN) {
+            samples = new float[slots * window];
+            sampleCounts = new int[slots];
+            sampleHeads = new int[slots];
+            sortScratch = new float[window];
+        } else {
+            samples = null;
+            sampleCounts = null;
+            sampleHeads = null;
+            sortScratch = null;
+        }
+    }
+
+    public boolean isConfiguredAs(Mode mode, int window) {
+        return this.mode == mode && this.window == window;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Forget the history of every face, e.g. when face detection stops.
+     */
+    public void reset() {
+        Arrays.fill(isInitialized, false);
+        if (sampleCounts != null) {
+            Arrays.fill(sampleCounts, 0);
+        }
+    }
+
+    /**
+     * Forget the history of one face, e.g. when the face it was tracking left the frame.
+     */
+    public void reset(int face) {
+        if (face < 0 || face >= maxFaces) {
+            return;
+        }
+        int first = face * metricCount;
+        Arrays.fill(isInitialized, first, first + metricCount, false);
+        if (sampleCounts != null) {
+            Arrays.fill(sampleCounts, first, first + metricCount, 0);
+        }
+    }
+
+    /**
+     * Filter a new score.
+     *
+     * @param face           index of the face, between 0 and maxFaces - 1; other faces are returned unfiltered
+     * @param metricIndex    index of the metric, as returned by MetricsManager.getMetricIndex()
+     * @param timestampNanos time the score was measured at, only used by ONE_EURO
+     * @return the smoothed score
+     */
+    public float filter(int face, int metricIndex, float value, long timestampNanos) {
+        if (mode == Mode.NONE || face < 0 || face >= maxFaces || Float.isNaN(value)) {
+            return value;
+        }
+
+        int slot = face * metricCount + metricIndex;
+        if (!isInitialized[slot]) {
+            isInitialized[slot] = true;
+            lastValues[slot] = value;
+            lastDerivatives[slot] = 0;
+            lastTimes[slot] = timestampNanos;
+            if (mode == Mode.MEDIAN) {
+                sampleCounts[slot] = 0;
+                sampleHeads[slot] = 0;
+                return median(slot, value);
+            }
+            return value;
+        }
+
+        float result;
+        switch (mode) {
+            case EMA:
+                result = lastValues[slot] + emaAlpha * (value - lastValues[slot]);
+                break;
+            case ONE_EURO:
+                result = oneEuro(slot, value, timestampNanos);
+                break;
+            case MEDIAN:
+                result = median(slot, value);
+                break;
+            default:
+                result = value;
+        }
+        lastValues[slot] = result;
+        lastTimes[slot] = timestampNanos;
+        return result;
+    }
+
+    /**
+     * The last value returned by filter() for this face and metric, or NaN if there is none.
+     */
+    public float getLastValue(int face, int metricIndex) {
+        if (face < 0 || face >= maxFaces) {
+            return Float.NaN;
+        }
+        int slot = face * metricCount + metricIndex;
+        return isInitialized[slot] ? lastValues[slot] : Float.NaN;
+    }
+
+    private float oneEuro(int slot, float value, long timestampNanos) {
+        float dt = (timestampNanos - lastTimes[slot]) / 1e9f;
+        if (dt <= 0) {
+            dt = DEFAULT_FRAME_INTERVAL;
+        }
+
+        float derivative = (value - lastValues[slot]) / dt;
+        float smoothedDerivative = lastDerivatives[slot]
+                + smoothingFactor(dt, ONE_EURO_DERIVATIVE_CUTOFF) * (derivative - lastDerivatives[slot]);
+        lastDerivatives[slot] = smoothedDerivative;
+
+        float cutoff = ONE_EURO_MIN_CUTOFF + ONE_EURO_BETA * Math.abs(smoothedDerivative);
+        return lastValues[slot] + smoothingFactor(dt, cutoff) * (value - lastValues[slot]);
+    }
+
+    private static float smoothingFactor(float dt, float cutoff) {
+        float tau = (float) (1.0 / (2 * Math.PI * cutoff));
+        return 1f / (1f + tau / dt);
+    }
+
+    private float median(int slot, float value) {
+        int base = slot * window;
+        samples[base + sampleHeads[slot]] = value;
+        sampleHeads[slot] = (sampleHeads[slot] + 1) % window;
+        if (sampleCounts[slot] < window) {
+            sampleCounts[slot]++;
+        }
+
+        // insertion sort of at most MAX_WINDOW values is cheaper than anything fancier
+        int count = sampleCounts[slot];
+        for (int n = 0; n < count; n++) {
+            float sample = samples[base + n];
+            int m = n - 1;
+            while (m >= 0 && sortScratch[m] > sample) {
+                sortScratch[m + 1] = sortScratch[m];
+                m--;
+            }
+            sortScratch[m + 1] = sample;
+        }
+
+        if ((count & 1) == 1) {
+            return sortScratch[count / 2];
+        } else {
+            return (sortScratch[count / 2 - 1] + sortScratch[count / 2]) / 2f;
+        }
+    }
+
+    public enum Mode {NONE, EMA, ONE_EURO, MEDIAN}
+}
@@ -0,0 +1,151 @@
+/**
+ * Copyright (c) 2016 Affectiva Inc.
+ * See the file license.txt for copying permission.
+ */
+
+package com.affectiva.affdexme;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FaceTrackerTest {
+
+    private static final float[] LEFT_FACE = {0, 0, 100, 100};
+    private static final float[] RIGHT_FACE = {200, 0, 300, 100};
+
+    private FaceTracker tracker;
+
+    @Before
+    public void setUp() {
+        tracker = new FaceTracker(2, 0.3f, 2);
+    }
+
+    @Test
+    public void intersectionOverUnionOfBoxes() {
+        assertEquals(1f, FaceTracker.intersectionOverUnion(LEFT_FACE, 0, LEFT_FACE, 0), 1e-6f);
+        assertEquals(0f, FaceTracker.intersectionOverUnion(LEFT_FACE, 0, RIGHT_FACE, 0), 1e-6f);
+        //half of each box overlaps: 5000 / (10000 + 10000 - 5000)
+        float[] shifted = {50, 0, 150, 100};
+        assertEquals(1f / 3, FaceTracker.intersectionOverUnion(LEFT_FACE, 0, shifted, 0), 1e-6f);
+    }
+
+    @Test
+    public void firstFacesStartNewTracks() {
+        tracker.update(boxes(LEFT_FACE, RIGHT_FACE), 2);
+
+        assertTrue(tracker.isNewTrack(0));
+        assertTrue(tracker.isNewTrack(1));
+        assertNotEquals(tracker.getTrackSlot(0), tracker.getTrackSlot(1));
+        assertNotEquals(tracker.getTrackId(0), tracker.getTrackId(1));
+        assertEquals(1, tracker.getTrackAge(0));
+        assertEquals(2, tracker.getActiveTrackCount());
+    }
+
+    @Test
+    public void tracksFollowFacesWhenTheSdkReordersThem() {
+        tracker.update(boxes(LEFT_FACE, RIGHT_FACE), 2);
+        int leftSlot = tracker.getTrackSlot(0);
+        int leftId = tracker.getTrackId(0);
+        int rightId = tracker.getTrackId(1);
+
+        //both faces moved a little, and the SDK lists them the other way round
+        tracker.update(boxes(new float[]{210, 5, 310, 105}, new float[]{10, 5, 110, 105}), 2);
+
+        assertEquals(leftSlot, tracker.getTrackSlot(1));
+        assertEquals(leftId, tracker.getTrackId(1));
+        assertEquals(rightId, tracker.getTrackId(0));
+        assertFalse(tracker.isNewTrack(0));
+        assertFalse(tracker.isNewTrack(1));
+        assertEquals(2, tracker.getTrackAge(1));
+    }
+
+    @Test
+    public void faceThatJumpsStartsANewTrack() {
+        tracker.update(boxes(LEFT_FACE), 1);
+        int id = tracker.getTrackId(0);
+
+        tracker.update(boxes(RIGHT_FACE), 1);
+
+        assertTrue(tracker.isNewTrack(0));
+        assertNotEquals(id, tracker.getTrackId(0));
+    }
+
+    @Test
+    public void trackSurvivesUpToMaxMissedFrames() {
+        tracker.update(boxes(LEFT_FACE), 1);
+        int id = tracker.getTrackId(0);
+
+        tracker.update(new float[0], 0);
+        tracker.update(new float[0], 0);
+        assertEquals(1, tracker.getActiveTrackCount());
+        tracker.update(boxes(LEFT_FACE), 1);
+
+        assertFalse(tracker.isNewTrack(0));
+        assertEquals(id, tracker.getTrackId(0));
+    }
+
+    @Test
+    public void trackExpiresAfterMaxMissedFrames() {
+        tracker.update(boxes(LEFT_FACE), 1);
+        int id = tracker.getTrackId(0);
+
+        for (int n = 0; n < 3; n++) {
+            tracker.update(new float[0], 0);
+        }
+        assertEquals(0, tracker.getActiveTrackCount());
+        tracker.update(boxes(LEFT_FACE), 1);
+
+        assertTrue(tracker.isNewTrack(0));
+        assertNotEquals(id, tracker.getTrackId(0));
+    }
+
+    @Test
+    public void newFaceTakesTheSlotOfTheStalestTrackWhenAllAreTaken() {
+        tracker.update(boxes(LEFT_FACE, RIGHT_FACE), 2);
+        int rightSlot = tracker.getTrackSlot(1);
+        tracker.update(boxes(LEFT_FACE), 1);
+
+        float[] thirdFace = {0, 200, 100, 300};
+        tracker.update(boxes(LEFT_FACE, thirdFace), 2);
+
+        assertTrue(tracker.isNewTrack(1));
+        assertEquals(rightSlot, tracker.getTrackSlot(1));
+    }
+
+    @Test
+    public void facesBeyondTheSlotsAreLeftUntracked() {
+        float[] thirdFace = {0, 200, 100, 300};
+        tracker.update(boxes(LEFT_FACE, RIGHT_FACE, thirdFace), 3);
+
+        assertEquals(FaceTracker.NO_TRACK, tracker.getTrackSlot(2));
+        assertEquals(FaceTracker.NO_TRACK, tracker.getTrackId(2));
+        assertEquals(0, tracker.getTrackAge(2));
+    }
+
+    @Test
+    public void resetForgetsEveryTrack() {
+        tracker.update(boxes(LEFT_FACE), 1);
+        int id = tracker.getTrackId(0);
+
+        tracker.reset();
+        assertEquals(0, tracker.getActiveTrackCount());
+        assertEquals(FaceTracker.NO_TRACK, tracker.getTrackSlot(0));
+        tracker.update(boxes(LEFT_FACE), 1);
+
+        assertTrue(tracker.isNewTrack(0));
+        assertNotEquals(id, tracker.getTrackId(0));
+    }
+
+    private static float[] boxes(float[]... faces) {
+        float[] packed = new float[faces.length * 4];
+        for (int n = 0; n < faces.length; n++) {
+            System.arraycopy(faces[n], 0, packed, n * 4, 4);
+        }
+        return packed;
+    }
+}
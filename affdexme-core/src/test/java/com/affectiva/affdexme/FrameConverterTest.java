@@ -0,0 +1,148 @@
+/**
+ * Copyright (c) 2016 Affectiva Inc.
+ * See the file license.txt for copying permission.
+ */
+
+package com.affectiva.affdexme;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class FrameConverterTest {
+
+    private static final int WIDTH = 3;
+    private static final int HEIGHT = 2;
+
+    private FrameConverter converter;
+
+    @Before
+    public void setUp() {
+        converter = new FrameConverter(1);
+    }
+
+    @After
+    public void tearDown() {
+        converter.shutdown();
+    }
+
+    @Test
+    public void rgbaIsPackedAsArgb() {
+        byte[] rgba = {(byte) 0x11, (byte) 0x22, (byte) 0x33, (byte) 0xff};
+
+        int[] argb = converter.convert(rgba, FrameConverter.ColorFormat.RGBA, 1, 1, 0);
+
+        assertEquals(0xff112233, argb[0]);
+    }
+
+    @Test
+    public void rotationsMovePixelsClockwise() {
+        byte[] rgba = numberedPixels(WIDTH, HEIGHT);
+
+        for (int rotation = 0; rotation < 360; rotation += 90) {
+            int[] argb = converter.convert(rgba, FrameConverter.ColorFormat.RGBA, WIDTH, HEIGHT, rotation);
+            int outputWidth = converter.getOutputWidth();
+            int outputHeight = converter.getOutputHeight();
+            boolean isQuarterTurn = (rotation == 90 || rotation == 270);
+            assertEquals(isQuarterTurn ? HEIGHT : WIDTH, outputWidth);
+            assertEquals(isQuarterTurn ? WIDTH : HEIGHT, outputHeight);
+
+            for (int y = 0; y < outputHeight; y++) {
+                for (int x = 0; x < outputWidth; x++) {
+                    assertEquals("pixel " + x + "," + y + " at " + rotation + " degrees",
+                            sourcePixelAt(x, y, rotation), argb[y * outputWidth + x] & 0xff);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void rotationIsNormalizedToAQuarterTurn() {
+        assertEquals(0, FrameConverter.normalizeRotation(360));
+        assertEquals(270, FrameConverter.normalizeRotation(-90));
+        assertEquals(90, FrameConverter.normalizeRotation(450));
+        assertEquals(90, FrameConverter.normalizeRotation(80));
+        assertEquals(180, FrameConverter.normalizeRotation(-170));
+    }
+
+    @Test
+    public void nv21WithNeutralChromaIsGray() {
+        byte[] nv21 = new byte[4 * 2 * 3 / 2];
+        Arrays.fill(nv21, 0, 8, (byte) 16);
+        Arrays.fill(nv21, 8, nv21.length, (byte) 128);
+        nv21[5] = (byte) 128;
+
+        int[] argb = converter.convert(nv21, FrameConverter.ColorFormat.NV21, 4, 2, 0);
+
+        assertEquals(0xff000000, argb[0]);
+        int gray = argb[5];
+        assertEquals(0xff, gray >>> 24);
+        assertEquals(gray & 0xff, (gray >> 8) & 0xff);
+        assertEquals(gray & 0xff, (gray >> 16) & 0xff);
+    }
+
+    @Test
+    public void stripsConvertLikeASingleThread() {
+        int width = 64;
+        int height = 46; //not a multiple of the strip count
+        byte[] nv21 = new byte[width * height * 3 / 2];
+        new Random(1).nextBytes(nv21);
+        FrameConverter parallelConverter = new FrameConverter(4);
+        try {
+            for (int rotation = 0; rotation < 360; rotation += 90) {
+                int[] expected = converter.convert(nv21, FrameConverter.ColorFormat.NV21, width, height, rotation)
+                        .clone();
+                int[] actual = parallelConverter.convert(nv21, FrameConverter.ColorFormat.NV21, width, height,
+                        rotation);
+                assertArrayEquals(Arrays.copyOf(expected, width * height), Arrays.copyOf(actual, width * height));
+            }
+        } finally {
+            parallelConverter.shutdown();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nv21WithAnOddWidthIsRejected() {
+        converter.convert(new byte[32], FrameConverter.ColorFormat.NV21, 3, 4, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nv21WithAnOddHeightIsRejected() {
+        converter.convert(new byte[32], FrameConverter.ColorFormat.NV21, 4, 3, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void truncatedFrameIsRejected() {
+        converter.convert(new byte[WIDTH * HEIGHT * 4 - 1], FrameConverter.ColorFormat.RGBA, WIDTH, HEIGHT, 0);
+    }
+
+    // opaque pixels whose blue channel holds their index in the source image
+    private static byte[] numberedPixels(int width, int height) {
+        byte[] rgba = new byte[width * height * 4];
+        for (int n = 0; n < width * height; n++) {
+            rgba[4 * n + 2] = (byte) n;
+            rgba[4 * n + 3] = (byte) 0xff;
+        }
+        return rgba;
+    }
+
+    // index of the source pixel shown at x,y of the image rotated clockwise
+    private static int sourcePixelAt(int x, int y, int rotation) {
+        switch (rotation) {
+            case 90:
+                return (HEIGHT - 1 - x) * WIDTH + y;
+            case 180:
+                return (HEIGHT - 1 - y) * WIDTH + (WIDTH - 1 - x);
+            case 270:
+                return x * WIDTH + (WIDTH - 1 - y);
+            default:
+                return y * WIDTH + x;
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/**
+ * Copyright (c) 2016 Affectiva Inc.
+ * See the file license.txt for copying permission.
+ */
+
+package com.affectiva.affdexme;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class LandmarkPredictorTest {
+
+    private static final long INTERVAL_NANOS = 50000000L; //20 results per second
+    private static final float SPEED = 200; //pixels per second, to the right
+
+    private LandmarkPredictor predictor;
+
+    @Before
+    public void setUp() {
+        predictor = new LandmarkPredictor(2);
+        predictor.setPredictionFactor(1);
+    }
+
+    @Test
+    public void firstResultOfATrackIsHeld() {
+        Points face = moving(0);
+
+        assertFalse(predictor.update(0, face, 0, true));
+        assertSame(face, predictor.predict(0, face, INTERVAL_NANOS / 2));
+        assertFalse(predictor.isMoving(0, INTERVAL_NANOS / 2));
+    }
+
+    @Test
+    public void constantVelocityIsExtrapolated() {
+        Points face = feed(0, 3);
+        long last = 2 * INTERVAL_NANOS;
+
+        FaceLandmarks predicted = predictor.predict(0, face, last + INTERVAL_NANOS / 2);
+
+        assertEquals(face.getPointX(0) + SPEED * INTERVAL_NANOS / 2 / 1e9f, predicted.getPointX(0), 1e-3f);
+        assertEquals(face.getPointY(0), predicted.getPointY(0), 1e-3f);
+        assertTrue(predictor.isMoving(0, last + INTERVAL_NANOS / 2));
+    }
+
+    @Test
+    public void predictionFactorScalesTheLead() {
+        predictor.setPredictionFactor(0.5f);
+        Points face = feed(0, 3);
+        long last = 2 * INTERVAL_NANOS;
+
+        FaceLandmarks predicted = predictor.predict(0, face, last + INTERVAL_NANOS);
+
+        assertEquals(face.getPointX(0) + SPEED * INTERVAL_NANOS / 2 / 1e9f, predicted.getPointX(0), 1e-3f);
+    }
+
+    @Test
+    public void zeroFactorDisablesPrediction() {
+        predictor.setPredictionFactor(0);
+        Points face = feed(0, 3);
+
+        assertSame(face, predictor.predict(0, face, 3 * INTERVAL_NANOS));
+        assertFalse(predictor.isMoving(0, 3 * INTERVAL_NANOS));
+    }
+
+    @Test
+    public void predictionStopsAtTheHorizon() {
+        Points face = feed(0, 3);
+        long last = 2 * INTERVAL_NANOS;
+        long horizon = last + LandmarkPredictor.MAX_PREDICTION_NANOS;
+
+        float atHorizon = predictor.predict(0, face, horizon).getPointX(0);
+        float later = predictor.predict(0, face, horizon + INTERVAL_NANOS).getPointX(0);
+
+        assertEquals(atHorizon, later, 1e-3f);
+        assertFalse(predictor.isMoving(0, horizon));
+    }
+
+    @Test
+    public void errorsOfTheModelAreMeasured() {
+        feed(0, 3);
+
+        assertTrue(predictor.update(0, moving(3), 3 * INTERVAL_NANOS, false));
+
+        assertEquals(0f, predictor.getLastPredictedError(), 1e-3f);
+        assertEquals(SPEED * INTERVAL_NANOS / 1e9f, predictor.getLastHeldError(), 1e-3f);
+    }
+
+    @Test
+    public void newTrackForgetsTheVelocity() {
+        feed(0, 3);
+        Points other = moving(0);
+
+        assertFalse(predictor.update(0, other, 3 * INTERVAL_NANOS, true));
+        assertSame(other, predictor.predict(0, other, 3 * INTERVAL_NANOS + INTERVAL_NANOS / 2));
+    }
+
+    @Test
+    public void slotsAreIndependent() {
+        Points face = feed(0, 3);
+        Points still = new Points(100, 100);
+        predictor.update(1, still, 0, true);
+        predictor.update(1, still, INTERVAL_NANOS, false);
+
+        assertEquals(100f, predictor.predict(1, still, 2 * INTERVAL_NANOS).getPointX(0), 1e-3f);
+        assertTrue(predictor.predict(0, face, 3 * INTERVAL_NANOS).getPointX(0) > face.getPointX(0));
+    }
+
+    @Test
+    public void resultsAfterALongGapAreHeld() {
+        long interval = LandmarkPredictor.MAX_PREDICTION_NANOS + INTERVAL_NANOS;
+        predictor.update(0, moving(0), 0, true);
+
+        assertFalse(predictor.update(0, moving(1), interval, false));
+        assertFalse(predictor.update(0, moving(2), 2 * interval, false));
+        assertFalse(predictor.isMoving(0, 2 * interval));
+    }
+
+    @Test
+    public void lowProcessRateExtendsTheHorizon() {
+        long interval = 300000000L; //about 3 results per second
+        predictor.setResultInterval(interval);
+        assertEquals(LandmarkPredictor.MAX_RESULT_INTERVALS * interval, predictor.getMaxPredictionNanos());
+
+        predictor.update(0, new Points(0, 0), 0, true);
+        assertTrue(predictor.update(0, new Points(60, 0), interval, false));
+        Points face = new Points(120, 0);
+        assertTrue(predictor.update(0, face, 2 * interval, false));
+
+        assertEquals(180f, predictor.predict(0, face, 3 * interval).getPointX(0), 1e-2f);
+        assertTrue(predictor.isMoving(0, 3 * interval));
+    }
+
+    @Test
+    public void highProcessRateKeepsTheShortestHorizon() {
+        predictor.setResultInterval(INTERVAL_NANOS);
+
+        assertEquals(LandmarkPredictor.MAX_PREDICTION_NANOS, predictor.getMaxPredictionNanos());
+    }
+
+    // feed a face moving at SPEED to the given slot, one result per INTERVAL_NANOS, and return the last one
+    private Points feed(int slot, int results) {
+        Points face = null;
+        for (int n = 0; n < results; n++) {
+            face = moving(n);
+            predictor.update(slot, face, n * INTERVAL_NANOS, n == 0);
+        }
+        return face;
+    }
+
+    private static Points moving(int result) {
+        float x = 10 + SPEED * result * INTERVAL_NANOS / 1e9f;
+        return new Points(x, 20, x + 30, 40);
+    }
+
+    private static class Points implements FaceLandmarks {
+        private final float[] xy;
+
+        Points(float... xy) {
+            this.xy = xy;
+        }
+
+        @Override
+        public int getPointCount() {
+            return xy.length / 2;
+        }
+
+        @Override
+        public float getPointX(int n) {
+            return xy[2 * n];
+        }
+
+        @Override
+        public float getPointY(int n) {
+            return xy[2 * n + 1];
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/**
+ * Copyright (c) 2016 Affectiva Inc.
+ * See the file license.txt for copying permission.
+ */
+
+package com.affectiva.affdexme;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class PreferenceParserTest {
+
+    @Test
+    public void intWithinBoundsIsParsed() {
+        assertEquals(5, PreferenceParser.parseInt("5", 1, 30));
+        assertEquals(1, PreferenceParser.parseInt("1", 1, 30));
+        assertEquals(30, PreferenceParser.parseInt("30", 1, 30));
+    }
+
+    @Test
+    public void invalidIntIsMinusOne() {
+        assertEquals(-1, PreferenceParser.parseInt("0", 1, 30));
+        assertEquals(-1, PreferenceParser.parseInt("31", 1, 30));
+        assertEquals(-1, PreferenceParser.parseInt("twenty", 1, 30));
+        assertEquals(-1, PreferenceParser.parseInt("", 1, 30));
+        assertEquals(-1, PreferenceParser.parseInt(null, 1, 30));
+    }
+
+    @Test
+    public void smoothingModeIgnoresCase() {
+        assertEquals(ScoreSmoother.Mode.EMA, PreferenceParser.parseSmoothingMode("ema"));
+        assertEquals(ScoreSmoother.Mode.ONE_EURO, PreferenceParser.parseSmoothingMode("One_Euro"));
+        assertEquals(ScoreSmoother.Mode.NONE, PreferenceParser.parseSmoothingMode("NONE"));
+    }
+
+    @Test
+    public void unknownSmoothingModeIsNull() {
+        assertNull(PreferenceParser.parseSmoothingMode("kalman"));
+        assertNull(PreferenceParser.parseSmoothingMode(null));
+    }
+
+    @Test
+    public void everyMetricSurvivesBeingSaved() {
+        for (MetricsManager.Metrics metric : MetricsManager.getAllMetrics()) {
+            assertSame(metric, PreferenceParser.parseSavedMetric(PreferenceParser.toSavedString(metric)));
+        }
+    }
+
+    @Test
+    public void emojisAreSavedByDisplayName() {
+        assertSame(MetricsManager.Emojis.SMIRK, PreferenceParser.parseSavedMetric("Smirk Emoji"));
+        assertSame(MetricsManager.Expressions.SMIRK, PreferenceParser.parseSavedMetric("SMIRK"));
+        assertSame(MetricsManager.Emotions.JOY, PreferenceParser.parseSavedMetric("JOY"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownMetricIsRejected() {
+        PreferenceParser.parseSavedMetric("BOREDOM");
+    }
+
+    @Test
+    public void defaultMetricsCoverTheBasicEmotions() {
+        assertSame(MetricsManager.Emotions.ANGER, PreferenceParser.defaultMetric(0));
+        assertSame(MetricsManager.Emotions.JOY, PreferenceParser.defaultMetric(3));
+        assertSame(MetricsManager.Emotions.SURPRISE, PreferenceParser.defaultMetric(5));
+        assertSame(MetricsManager.Emotions.ANGER, PreferenceParser.defaultMetric(6));
+    }
+}
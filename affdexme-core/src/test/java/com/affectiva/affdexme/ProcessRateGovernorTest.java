@@ -0,0 +1,224 @@
+/**
+ * Copyright (c) 2016 Affectiva Inc.
+ * See the file license.txt for copying permission.
+ */
+
+package com.affectiva.affdexme;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ProcessRateGovernorTest {
+
+    private static final long BASE_DELAY_NANOS = 10000000L; //delay of a result that did not queue
+    private static final float OVERLOADED_MILLIS = 2 * ProcessRateGovernor.MAX_QUEUE_DELAY_MILLIS;
+    private static final float DEAD_BAND_MILLIS =
+            (ProcessRateGovernor.MAX_QUEUE_DELAY_MILLIS + ProcessRateGovernor.LOW_QUEUE_DELAY_MILLIS) / 2;
+
+    private ProcessRateGovernor governor;
+    private long now;
+
+    @Before
+    public void setUp() {
+        governor = new ProcessRateGovernor();
+        governor.configure(true, 5, 20);
+        now = 0;
+        //the first result only starts a window
+        assertFalse(governor.onFrameProcessed(now, timestampFor(0)));
+    }
+
+    @Test
+    public void disabledGovernorKeepsTheMaximum() {
+        governor.configure(false, 5, 15);
+
+        assertEquals(15, governor.getRate());
+        for (int n = 0; n < 5; n++) {
+            assertFalse(runWindow(OVERLOADED_MILLIS, 0));
+        }
+        assertEquals(15, governor.getRate());
+    }
+
+    @Test
+    public void decreasesAfterTwoOverloadedWindows() {
+        assertFalse(runWindow(OVERLOADED_MILLIS, 0));
+        assertEquals(20, governor.getRate());
+
+        assertTrue(runWindow(OVERLOADED_MILLIS, 0));
+        assertEquals(16, governor.getRate()); //20 * DECREASE_FACTOR
+    }
+
+    @Test
+    public void decreasesWhenTheUiJanks() {
+        runWindow(0, 3);
+        assertTrue(runWindow(0, 3));
+
+        assertEquals(16, governor.getRate());
+        assertEquals(1f, governor.getLastJankRatio(), 1e-6f);
+    }
+
+    @Test
+    public void neverGoesBelowTheMinimum() {
+        governor.configure(true, 18, 20);
+
+        runWindow(OVERLOADED_MILLIS, 0);
+        runWindow(OVERLOADED_MILLIS, 0);
+        assertEquals(18, governor.getRate());
+        runWindow(OVERLOADED_MILLIS, 0);
+        assertFalse(runWindow(OVERLOADED_MILLIS, 0));
+        assertEquals(18, governor.getRate());
+    }
+
+    @Test
+    public void increasesAfterFourWindowsWithHeadroom() {
+        decrease();
+        assertEquals(16, governor.getRate());
+
+        for (int n = 1; n < ProcessRateGovernor.WINDOWS_BEFORE_INCREASE; n++) {
+            assertFalse(runWindow(0, 0));
+        }
+        assertTrue(runWindow(0, 0));
+        assertEquals(17, governor.getRate());
+    }
+
+    @Test
+    public void deadBandKeepsTheRate() {
+        decrease();
+
+        for (int n = 0; n < 3 * ProcessRateGovernor.WINDOWS_BEFORE_INCREASE; n++) {
+            assertFalse(runWindow(DEAD_BAND_MILLIS, 0));
+        }
+        assertEquals(16, governor.getRate());
+    }
+
+    @Test
+    public void deadBandInterruptsAnIncrease() {
+        decrease();
+
+        runWindow(0, 0);
+        runWindow(0, 0);
+        runWindow(DEAD_BAND_MILLIS, 0);
+        runWindow(0, 0);
+        runWindow(0, 0);
+        runWindow(0, 0);
+        assertEquals(16, governor.getRate());
+        assertTrue(runWindow(0, 0));
+    }
+
+    @Test
+    public void failedRateIsProbedLessAndLessOften() {
+        decrease();
+        assertEquals(17, increase());
+
+        //17 overloads the device: back down, and climb quickly up to the rate below it
+        decrease();
+        assertEquals(13, governor.getRate());
+        assertEquals(4, windowsToIncrease());
+        assertEquals(4, windowsToIncrease());
+        assertEquals(4, windowsToIncrease());
+        assertEquals(16, governor.getRate());
+
+        //17 itself is retried after twice as many windows, and fails again
+        assertEquals(2 * ProcessRateGovernor.WINDOWS_BEFORE_INCREASE, windowsToIncrease());
+        decrease();
+        assertEquals(13, governor.getRate());
+        windowsToIncrease();
+        windowsToIncrease();
+        windowsToIncrease();
+        assertEquals(4 * ProcessRateGovernor.WINDOWS_BEFORE_INCREASE, windowsToIncrease());
+
+        //this time 17 holds up through another probe wait, after which the failure is forgotten
+        assertEquals(4 * ProcessRateGovernor.WINDOWS_BEFORE_INCREASE, windowsToIncrease());
+        assertEquals(18, governor.getRate());
+        assertEquals(ProcessRateGovernor.WINDOWS_BEFORE_INCREASE, windowsToIncrease());
+    }
+
+    @Test
+    public void probeWaitIsCapped() {
+        decrease();
+        increase();
+        for (int n = 0; n < 8; n++) {
+            decrease();
+            while (governor.getRate() < 16) {
+                windowsToIncrease();
+            }
+            windowsToIncrease();
+        }
+
+        assertEquals(ProcessRateGovernor.MAX_WINDOWS_BEFORE_PROBE, countWindowsToIncreaseAfterFailure());
+    }
+
+    @Test
+    public void resetKeepsTheRateButRestartsTheWindows() {
+        decrease();
+
+        governor.reset();
+        runWindow(OVERLOADED_MILLIS, 0); //only starts a window and the baseline
+        runWindow(OVERLOADED_MILLIS, 0);
+        assertEquals(16, governor.getRate());
+    }
+
+    // drive the rate down once, by two overloaded windows
+    private void decrease() {
+        int rate = governor.getRate();
+        runWindow(OVERLOADED_MILLIS, 0);
+        assertTrue(runWindow(OVERLOADED_MILLIS, 0));
+        assertTrue(governor.getRate() < rate);
+    }
+
+    private int increase() {
+        windowsToIncrease();
+        return governor.getRate();
+    }
+
+    private int countWindowsToIncreaseAfterFailure() {
+        decrease();
+        while (governor.getRate() < 16) {
+            windowsToIncrease();
+        }
+        return windowsToIncrease();
+    }
+
+    // windows with headroom until the rate goes up
+    private int windowsToIncrease() {
+        int rate = governor.getRate();
+        for (int n = 1; n <= 2 * ProcessRateGovernor.MAX_WINDOWS_BEFORE_PROBE; n++) {
+            if (runWindow(0, 0)) {
+                assertEquals(rate + 1, governor.getRate());
+                return n;
+            }
+        }
+        throw new AssertionError("Rate " + rate + " never increased");
+    }
+
+    /**
+     * Feed one window of results at the current rate, each delayed by the given queueing delay, and UI frames
+     * taking the given number of vsync periods.
+     *
+     * @return true if the rate changed at the end of the window
+     */
+    private boolean runWindow(float queueDelayMillis, int uiFramePeriods) {
+        int rate = governor.getRate();
+        //round the interval up so that 'rate' results fill exactly one window
+        long interval = (ProcessRateGovernor.WINDOW_NANOS + rate - 1) / rate;
+        long uiInterval = uiFramePeriods * (1000000000L / 60);
+        boolean isChanged = false;
+        for (int n = 0; n < rate; n++) {
+            if (uiInterval > 0) {
+                for (long ui = now + uiInterval; ui <= now + interval; ui += uiInterval) {
+                    governor.onUiFrame(ui);
+                }
+            }
+            now += interval;
+            isChanged |= governor.onFrameProcessed(now, timestampFor(queueDelayMillis));
+        }
+        return isChanged;
+    }
+
+    private float timestampFor(float queueDelayMillis) {
+        return (float) ((now - BASE_DELAY_NANOS - queueDelayMillis * 1e6) / 1e9);
+    }
+}
@@ -0,0 +1,126 @@
+/**
+ * Copyright (c) 2016 Affectiva Inc.
+ * See the file license.txt for copying permission.
+ */
+
+package com.affectiva.affdexme;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ScoreSmootherTest {
+
+    private static final long FRAME_NANOS = 1000000000L / 20;
+
+    private ScoreSmoother smoother;
+
+    @Before
+    public void setUp() {
+        smoother = new ScoreSmoother(2, 3);
+    }
+
+    @Test
+    public void noneReturnsScoresUnchanged() {
+        assertEquals(10f, smoother.filter(0, 0, 10f, 0), 0);
+        assertEquals(90f, smoother.filter(0, 0, 90f, FRAME_NANOS), 0);
+    }
+
+    @Test
+    public void emaMovesTowardsEachScoreByAlpha() {
+        smoother.configure(ScoreSmoother.Mode.EMA, 3); //alpha = 2 / (3 + 1)
+
+        assertEquals(0f, smoother.filter(0, 0, 0f, 0), 1e-4f);
+        assertEquals(50f, smoother.filter(0, 0, 100f, FRAME_NANOS), 1e-4f);
+        assertEquals(75f, smoother.filter(0, 0, 100f, 2 * FRAME_NANOS), 1e-4f);
+        assertEquals(75f, smoother.getLastValue(0, 0), 1e-4f);
+    }
+
+    @Test
+    public void medianDropsASingleSpike() {
+        smoother.configure(ScoreSmoother.Mode.MEDIAN, 3);
+
+        assertEquals(10f, smoother.filter(0, 0, 10f, 0), 0);
+        assertEquals(55f, smoother.filter(0, 0, 100f, FRAME_NANOS), 1e-4f); //two samples: mean of both
+        assertEquals(10f, smoother.filter(0, 0, 10f, 2 * FRAME_NANOS), 0);
+        assertEquals(20f, smoother.filter(0, 0, 20f, 3 * FRAME_NANOS), 0); //the spike is still in the window
+        assertEquals(20f, smoother.filter(0, 0, 30f, 4 * FRAME_NANOS), 0); //10, 20, 30
+    }
+
+    @Test
+    public void oneEuroDampsJitterButFollowsAStep() {
+        smoother.configure(ScoreSmoother.Mode.ONE_EURO, ScoreSmoother.DEFAULT_WINDOW);
+
+        long nanos = 0;
+        float min = Float.MAX_VALUE;
+        float max = -Float.MAX_VALUE;
+        for (int n = 0; n < 40; n++, nanos += FRAME_NANOS) {
+            float value = smoother.filter(0, 0, (n % 2 == 0) ? 45f : 55f, nanos);
+            if (n >= 20) {
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+        }
+        assertTrue("jitter of " + (max - min) + " passed through", max - min < 5f);
+
+        float value = Float.NaN;
+        for (int n = 0; n < 40; n++, nanos += FRAME_NANOS) {
+            value = smoother.filter(0, 0, 100f, nanos);
+        }
+        assertTrue("stuck at " + value + " two seconds after a step", value > 95f);
+    }
+
+    @Test
+    public void oneEuroAcceptsScoresSharingATimestamp() {
+        smoother.configure(ScoreSmoother.Mode.ONE_EURO, ScoreSmoother.DEFAULT_WINDOW);
+
+        smoother.filter(0, 0, 0f, 0);
+        float value = smoother.filter(0, 0, 100f, 0);
+
+        assertTrue(value > 0f && value < 100f);
+    }
+
+    @Test
+    public void facesAndMetricsAreSmoothedSeparately() {
+        smoother.configure(ScoreSmoother.Mode.EMA, 3);
+
+        smoother.filter(0, 0, 0f, 0);
+        smoother.filter(0, 1, 100f, 0);
+        smoother.filter(1, 0, 100f, 0);
+
+        assertEquals(50f, smoother.filter(0, 0, 100f, FRAME_NANOS), 1e-4f);
+        assertEquals(100f, smoother.filter(0, 1, 100f, FRAME_NANOS), 1e-4f);
+        assertEquals(100f, smoother.filter(1, 0, 100f, FRAME_NANOS), 1e-4f);
+    }
+
+    @Test
+    public void resetOfOneFaceKeepsTheOthers() {
+        smoother.configure(ScoreSmoother.Mode.EMA, 3);
+        smoother.filter(0, 0, 0f, 0);
+        smoother.filter(1, 0, 0f, 0);
+
+        smoother.reset(0);
+
+        assertEquals(Float.NaN, smoother.getLastValue(0, 0), 0);
+        assertEquals(100f, smoother.filter(0, 0, 100f, FRAME_NANOS), 0);
+        assertEquals(50f, smoother.filter(1, 0, 100f, FRAME_NANOS), 1e-4f);
+    }
+
+    @Test
+    public void missingScoresAndUntrackedFacesPassThrough() {
+        smoother.configure(ScoreSmoother.Mode.EMA, 3);
+        smoother.filter(0, 0, 0f, 0);
+
+        assertEquals(Float.NaN, smoother.filter(0, 0, Float.NaN, FRAME_NANOS), 0);
+        assertEquals(50f, smoother.filter(0, 0, 100f, 2 * FRAME_NANOS), 1e-4f);
+        assertEquals(100f, smoother.filter(2, 0, 100f, FRAME_NANOS), 0);
+        assertEquals(100f, smoother.filter(-1, 0, 100f, FRAME_NANOS), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void windowAboveTheMaximumIsRejected() {
+        smoother.configure(ScoreSmoother.Mode.MEDIAN, ScoreSmoother.MAX_WINDOW + 1);
+    }
+}
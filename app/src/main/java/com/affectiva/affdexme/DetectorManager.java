@@ -0,0 +1,209 @@
+/**
+ * Copyright (c) 2016 Affectiva Inc.
+ * See the file license.txt for copying permission.
+ */
+
+package com.affectiva.affdexme;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.util.Log;
+import android.view.SurfaceView;
+
+import com.affectiva.android.affdex.sdk.detector.CameraDetector;
+import com.affectiva.android.affdex.sdk.detector.Detector;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.BitSet;
+
+/**
+ * Owns the CameraDetector and keeps it configured as requested, changing only what differs from the configuration
+ * already applied.
+ * <p>
+ * The classifiers to enable are normally the union kept by a ClassifierRegistry.
+ * Camera type, process rate and classifiers can all be changed on a live detector, so applying a new Configuration
+ * only calls the setters for what changed. The maximum number of faces can only be given to the CameraDetector
+ * constructor, so changing it is the one case where the detector is rebuilt; the rest of the configuration is
+ * then replayed onto the new instance, and it is restarted if the old one was running.
+ * How long each reconfiguration took is logged and available from getLastReconfigurationMillis().
+ * <p>
+ * All methods must be called on the main thread.
+ */
+public class DetectorManager {
+
+    private static final String LOG_TAG = "AffdexMe";
+
+    private final Context context;
+    private final SurfaceView cameraView;
+    private final Detector.ImageListener imageListener;
+    private final Detector.FaceListener faceListener;
+    private final CameraDetector.CameraEventListener cameraEventListener;
+
+    private CameraDetector detector = null;
+    private final Configuration applied = new Configuration(); //what the current detector has been told
+    private float lastReconfigurationMillis = 0;
+
+    public DetectorManager(@NonNull Context context, @NonNull SurfaceView cameraView, @NonNull Detector.ImageListener imageListener,
+                           @NonNull Detector.FaceListener faceListener, @NonNull CameraDetector.CameraEventListener cameraEventListener) {
+        this.context = context;
+        this.cameraView = cameraView;
+        this.imageListener = imageListener;
+        this.faceListener = faceListener;
+        this.cameraEventListener = cameraEventListener;
+    }
+
+    /**
+     * Bring the detector in line with the given configuration.
+     *
+     * @return true if the detector had to be rebuilt
+     */
+    public boolean apply(@NonNull Configuration configuration) {
+        long startTime = System.nanoTime();
+        boolean isRebuilt = false;
+        boolean wasRunning = false;
+
+        if (detector == null || configuration.maxFaces != applied.maxFaces) {
+            if (detector != null) {
+                wasRunning = detector.isRunning();
+                stop();
+            }
+
+            /* Put the SDK in camera mode by using this constructor. The SDK will be in control of
+             * the camera. If a SurfaceView is passed in as the last argument to the constructor,
+             * that view will be painted with what the camera sees.
+             */
+            detector = new CameraDetector(context, configuration.cameraType, cameraView, configuration.maxFaces,
+                    Detector.FaceDetectorMode.LARGE_FACES);
+            detector.setImageListener(imageListener);
+            detector.setFaceListener(faceListener);
+            detector.setOnCameraEventListener(cameraEventListener);
+
+            //a new detector has nothing enabled
+            applied.classifiers.clear();
+            applied.cameraType = configuration.cameraType;
+            applied.maxFaces = configuration.maxFaces;
+            applied.processRate = -1;
+            isRebuilt = true;
+        }
+
+        int changeCount = 0;
+        if (configuration.cameraType != applied.cameraType) {
+            detector.setCameraType(configuration.cameraType);
+            applied.cameraType = configuration.cameraType;
+            changeCount++;
+        }
+        if (configuration.processRate != applied.processRate) {
+            detector.setMaxProcessRate(configuration.processRate);
+            applied.processRate = configuration.processRate;
+            changeCount++;
+        }
+        BitSet changed = (BitSet) configuration.classifiers.clone();
+        changed.xor(applied.classifiers);
+        for (int n = changed.nextSetBit(0); n >= 0; n = changed.nextSetBit(n + 1)) {
+            boolean isEnabled = configuration.classifiers.get(n);
+            if (setDetect(n, isEnabled)) {
+                applied.classifiers.set(n, isEnabled);
+                changeCount++;
+            }
+        }
+
+        if (wasRunning) {
+            start();
+        }
+
+        lastReconfigurationMillis = (System.nanoTime() - startTime) / 1000000f;
+        if (isRebuilt || changeCount > 0) {
+            Log.d(LOG_TAG, String.format("Detector reconfigured in %.1f ms (%s, %d changes)", lastReconfigurationMillis,
+                    isRebuilt ? "rebuilt" : "in place", changeCount));
+        }
+        return isRebuilt;
+    }
+
+    /**
+     * Enable or disable a classifier, indexed as in ClassifierRegistry. For metrics, uses reflection to call
+     * Detector.setDetect<MetricName>().
+     */
+    private boolean setDetect(int classifier, boolean isEnabled) {
+        if (classifier == ClassifierRegistry.GENDER) {
+            detector.setDetectGender(isEnabled);
+            return true;
+        } else if (classifier == ClassifierRegistry.GLASSES) {
+            detector.setDetectGlasses(isEnabled);
+            return true;
+        }
+        MetricsManager.Metrics metric = MetricsManager.getAllMetrics()[classifier];
+        try {
+            Detector.class.getMethod("setDetect" + MetricsManager.getCamelCase(metric), boolean.class).invoke(detector, isEnabled);
+            return true;
+        } catch (NoSuchMethodException e) {
+            Log.e(LOG_TAG, String.format("No such method while using reflection to generate methods for %s", metric.toString()), e);
+        } catch (InvocationTargetException e) {
+            Log.e(LOG_TAG, String.format("Invocation error while using reflection to generate methods for %s", metric.toString()), e);
+        } catch (IllegalAccessException e) {
+            Log.e(LOG_TAG, String.format("Illegal access error while using reflection to generate methods for %s", metric.toString()), e);
+        }
+        return false;
+    }
+
+    public void start() {
+        if (detector != null && !detector.isRunning()) {
+            try {
+                detector.start();
+            } catch (Exception e) {
+                Log.e(LOG_TAG, e.getMessage());
+            }
+        }
+    }
+
+    public void stop() {
+        if (detector != null && detector.isRunning()) {
+            try {
+                detector.stop();
+            } catch (Exception e) {
+                Log.e(LOG_TAG, e.getMessage());
+            }
+        }
+    }
+
+    public boolean isRunning() {
+        return detector != null && detector.isRunning();
+    }
+
+    /**
+     * Duration of the last call to apply(), including any rebuild and restart.
+     */
+    public float getLastReconfigurationMillis() {
+        return lastReconfigurationMillis;
+    }
+
+    /**
+     * The detector settings wanted by the application. Mutable, so one instance can be refilled from the preferences
+     * and applied again; apply() copies what it needs.
+     */
+    public static class Configuration {
+        private CameraDetector.CameraType cameraType = CameraDetector.CameraType.CAMERA_FRONT;
+        private int maxFaces = 1;
+        private int processRate = PreferenceParser.DEFAULT_FPS;
+        private final BitSet classifiers = new BitSet(ClassifierRegistry.CLASSIFIER_COUNT);
+
+        public void setCameraType(@NonNull CameraDetector.CameraType cameraType) {
+            this.cameraType = cameraType;
+        }
+
+        public void setMaxFaces(int maxFaces) {
+            this.maxFaces = maxFaces;
+        }
+
+        public void setProcessRate(int processRate) {
+            this.processRate = processRate;
+        }
+
+        /**
+         * Enable exactly the given classifiers, indexed as in ClassifierRegistry.
+         */
+        public void setClassifiers(@NonNull BitSet classifiers) {
+            this.classifiers.clear();
+            this.classifiers.or(classifiers);
+        }
+    }
+}
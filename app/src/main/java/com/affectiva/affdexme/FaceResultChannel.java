@@ -0,0 +1,164 @@
+/**
+ * Copyright (c) 2016 Affectiva Inc.
+ * See the file license.txt for copying permission.
+ */
+
+package com.affectiva.affdexme;
+
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A lock-free, single-producer/single-consumer channel that hands the faces found in each processed frame
+ * from the ResultProcessor to the DrawingThread.
+ * <p>
+ * The channel is a triple buffer: the producer fills the back buffer and swaps it with the middle buffer,
+ * the consumer swaps the middle buffer with its front buffer whenever the middle one holds a newer frame.
+ * Each buffer holds its own FaceSnapshot copies, so the consumer never reads an object the producer or the SDK
+ * may change. Neither side ever blocks, the consumer always sees the newest complete frame, and no objects are
+ * allocated once the buffers have grown to the largest number of faces seen.
+ * <p>
+ * Frames the consumer never saw are counted: a frame replaced by a newer result is 'overwritten', a frame
+ * discarded by clear() is 'dropped'.
+ */
+public class FaceResultChannel {
+
+    private static final int INDEX_MASK = 0x3;
+    private static final int FRESH_BIT = 0x4; //set when the middle buffer holds a frame the consumer has not taken yet
+
+    private final Result[] buffers = {new Result(), new Result(), new Result()};
+    private final AtomicInteger middle = new AtomicInteger(1);
+    private final AtomicLong publishedFrameCount = new AtomicLong();
+    private final AtomicLong overwrittenFrameCount = new AtomicLong();
+    private final AtomicLong droppedFrameCount = new AtomicLong();
+
+    private int back = 0;  //only touched by the producer
+    private int front = 2; //only touched by the consumer
+    private long nextSequence = 1; //only touched by the producer
+
+    /**
+     * Producer side: publish the faces found in the latest processed frame.
+     * The first faceCount snapshots are copied, so the caller is free to reuse them after this call returns.
+     *
+     * @param receivedNanos System.nanoTime() when the faces were received from the detector
+     */
+    public void publish(@NonNull FaceSnapshot[] faces, int faceCount, boolean isPointsMirrored, long receivedNanos) {
+        Result result = buffers[back];
+        result.fill(faces, faceCount, isPointsMirrored, nextSequence++, receivedNanos);
+        publishedFrameCount.incrementAndGet();
+
+        if ((swapBack() & FRESH_BIT) != 0) {
+            overwrittenFrameCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Producer side: publish an empty frame, discarding any frame the consumer has not taken yet.
+     */
+    public void clear() {
+        Result result = buffers[back];
+        result.fill(null, 0, false, nextSequence++, -1);
+
+        if ((swapBack() & FRESH_BIT) != 0) {
+            droppedFrameCount.incrementAndGet();
+        }
+    }
+
+    private int swapBack() {
+        int previous = middle.getAndSet(back | FRESH_BIT);
+        back = previous & INDEX_MASK;
+        return previous;
+    }
+
+    /**
+     * Consumer side: returns true if a frame newer than the one last returned by acquireLatest() is available.
+     */
+    public boolean hasNewFrame() {
+        return (middle.get() & FRESH_BIT) != 0;
+    }
+
+    /**
+     * Consumer side: returns the newest complete frame. The returned Result stays valid and unchanged until
+     * the next call to acquireLatest().
+     */
+    @NonNull
+    public Result acquireLatest() {
+        if ((middle.get() & FRESH_BIT) != 0) {
+            front = middle.getAndSet(front) & INDEX_MASK;
+        }
+        return buffers[front];
+    }
+
+    public long getPublishedFrameCount() {
+        return publishedFrameCount.get();
+    }
+
+    public long getOverwrittenFrameCount() {
+        return overwrittenFrameCount.get();
+    }
+
+    public long getDroppedFrameCount() {
+        return droppedFrameCount.get();
+    }
+
+    /**
+     * The faces of a single processed frame, as seen by the consumer.
+     */
+    public static class Result {
+        private FaceSnapshot[] faces = new FaceSnapshot[0];
+        private int faceCount;
+        private boolean isPointsMirrored;
+        private long sequence;
+        private long receivedNanos;
+
+        private void fill(FaceSnapshot[] source, int sourceCount, boolean isPointsMirrored, long sequence, long receivedNanos) {
+            if (faces.length < sourceCount) {
+                FaceSnapshot[] grown = new FaceSnapshot[sourceCount];
+                System.arraycopy(faces, 0, grown, 0, faces.length);
+                for (int n = faces.length; n < sourceCount; n++) {
+                    grown[n] = new FaceSnapshot();
+                }
+                faces = grown;
+            }
+            for (int n = 0; n < sourceCount; n++) {
+                faces[n].copyFrom(source[n]);
+            }
+            faceCount = sourceCount;
+            this.isPointsMirrored = isPointsMirrored;
+            this.sequence = sequence;
+            this.receivedNanos = receivedNanos;
+        }
+
+        public int getFaceCount() {
+            return faceCount;
+        }
+
+        @NonNull
+        public FaceSnapshot getFace(int n) {
+            if (n >= faceCount) {
+                throw new IndexOutOfBoundsException("Face " + n + " requested, result holds " + faceCount);
+            }
+            return faces[n];
+        }
+
+        public boolean isPointsMirrored() {
+            return isPointsMirrored;
+        }
+
+        /**
+         * Increases by one for every frame published, 0 if nothing was published yet.
+         */
+        public long getSequence() {
+            return sequence;
+        }
+
+        /**
+         * System.nanoTime() when the faces were received from the detector, -1 for a cleared frame.
+         */
+        public long getReceivedNanos() {
+            return receivedNanos;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/**
+ * Copyright (c) 2016 Affectiva Inc.
+ * See the file license.txt for copying permission.
+ */
+
+package com.affectiva.affdexme;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Replays a directory of images (sorted by file name) as a sequence of frames taken at a fixed rate.
+ * The images are not decoded: the faces of each frame come from a SyntheticFaceDetector seeded with the
+ * directory name, so replaying the same sequence always yields the same results.
+ */
+public class ImageSequenceInput implements ReplayFrameSource.Input {
+
+    private final File[] images;
+    private final long frameIntervalNanos;
+    private final int facesPerFrame;
+    private final SyntheticFaceDetector detector;
+    private final int imageWidth;
+    private final int imageHeight;
+    private int nextImage = 0;
+
+    public ImageSequenceInput(File directory, float framesPerSecond, int facesPerFrame, int imageWidth, int imageHeight) throws IOException {
+        File[] files = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                String lowerCaseName = name.toLowerCase(Locale.US);
+                return lowerCaseName.endsWith(".png") || lowerCaseName.endsWith(".jpg") || lowerCaseName.endsWith(".jpeg");
+            }
+        });
+        if (files == null) {
+            throw new IOException("Unable to list images in: " + directory);
+        }
+        Arrays.sort(files);
+
+        if (framesPerSecond <= 0 || facesPerFrame < 0) {
+            throw new IllegalArgumentException("Frame rate must be positive and face count must not be negative");
+        }
+        this.images = files;
+        this.frameIntervalNanos = (long) (1000000000L / framesPerSecond);
+        this.facesPerFrame = facesPerFrame;
+        this.detector = new SyntheticFaceDetector(directory.getName().hashCode(), imageWidth, imageHeight);
+        this.imageWidth = imageWidth;
+        this.imageHeight = imageHeight;
+    }
+
+    @Override
+    public int getImageWidth() {
+        return imageWidth;
+    }
+
+    @Override
+    public int getImageHeight() {
+        return imageHeight;
+    }
+
+    @Override
+    public boolean next(ReplayFrame frame) {
+        if (nextImage >= images.length) {
+            return false;
+        }
+
+        long elapsedNanos = nextImage * frameIntervalNanos;
+        frame.reset(elapsedNanos, elapsedNanos / 1e9f);
+
+        for (int n = 0; n < facesPerFrame; n++) {
+            detector.detect(nextImage, n, frame.addFace());
+        }
+
+        nextImage++;
+        return true;
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -12,12 +12,10 @@ import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.graphics.Bitmap;
-import android.graphics.Canvas;
-import android.graphics.Paint;
-import android.graphics.Rect;
 import android.graphics.Typeface;
 import android.os.Bundle;
-import android.os.Environment;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.support.annotation.NonNull;
@@ -28,6 +26,7 @@ import android.support.v7.app.AppCompatActivity;
 import android.text.format.DateFormat;
 import android.util.DisplayMetrics;
 import android.util.Log;
+import android.view.Choreographer;
 import android.view.KeyEvent;
 import android.view.MotionEvent;
 import android.view.SurfaceView;
@@ -50,11 +49,11 @@ import com.affectiva.android.affdex.sdk.detector.Face;
 
 import java.io.File;
 import java.io.IOException;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.Executor;
 
 /*
  * AffdexMe is an app that demonstrates the use of the Affectiva Android SDK.  It uses the
@@ -88,7 +87,8 @@ import java.util.Locale;
 
 public class MainActivity extends AppCompatActivity
         implements Detector.FaceListener, Detector.ImageListener, CameraDetector.CameraEventListener,
-        View.OnTouchListener, ActivityCompat.OnRequestPermissionsResultCallback, DrawingView.DrawingThreadEventListener {
+        View.OnTouchListener, ActivityCompat.OnRequestPermissionsResultCallback, DrawingView.DrawingThreadEventListener,
+        ScreenshotPipeline.Listener, FrameSource.Listener, ResultProcessor.Listener {
 
     public static final int MAX_SUPPORTED_FACES = 3;
     public static final boolean STORE_RAW_SCREENSHOTS = false; // setting to enable saving the raw images when taking screenshots
@@ -96,20 +96,24 @@ public class MainActivity extends AppCompatActivity
     private static final String LOG_TAG = "AffdexMe";
     private static final int CAMERA_PERMISSIONS_REQUEST = 42;  //value is arbitrary (between 0 and 255)
     private static final int EXTERNAL_STORAGE_PERMISSIONS_REQUEST = 73;
+    // Intent extras that replace the camera with a replay, e.g. adb shell am start -n <package>/com.affectiva.affdexme.MainActivity --es replay_session <file>
+    static final String EXTRA_REPLAY_SESSION = "replay_session"; // path of a session file written by SessionRecorder
+    static final String EXTRA_REPLAY_IMAGES = "replay_images"; // path of a directory of images, faces are synthesized
+    static final String EXTRA_REPLAY_AS_FAST_AS_POSSIBLE = "replay_fast"; // boolean, default is to replay at recorded speed
     int cameraPreviewWidth = 0;
     int cameraPreviewHeight = 0;
     CameraDetector.CameraType cameraType;
     boolean mirrorPoints = false;
     private boolean cameraPermissionsAvailable = false;
     private boolean storagePermissionsAvailable = false;
-    private CameraDetector detector = null;
+    private DetectorManager detectorManager = null;
+    private final DetectorManager.Configuration detectorConfiguration = new DetectorManager.Configuration();
+    private final ClassifierRegistry classifierRegistry = new ClassifierRegistry(); //what the consumers of results read
     private RelativeLayout metricViewLayout;
-    private LinearLayout leftMetricsLayout;
-    private LinearLayout rightMetricsLayout;
-    private MetricDisplay[] metricDisplays;
-    private TextView[] metricNames;
-    private TextView fpsName;
-    private TextView fpsPct;
+    private MetricPanelView metricPanelView;
+    private MetricPanelController metricPanel; //applies scores to the panel once per display frame
+    private PerformanceHud performanceHud; //replaces the FPS counter, shown with the "fps" preference
+    private TextView classifierDebugTextView;
     private TextView pleaseWaitTextView;
     private ProgressBar progressBar;
     private RelativeLayout mainLayout; //layout, to be resized, containing all UI elements
@@ -120,13 +124,38 @@ public class MainActivity extends AppCompatActivity
     private ImageButton settingsButton;
     private ImageButton cameraButton;
     private ImageButton screenshotButton;
-    private Frame mostRecentFrame;
+    private ScreenshotPipeline screenshotPipeline;
+    private boolean isScreenshotPending = false; //the next camera frame is copied for the requested screenshot
+    private ImageHelper.FrameCopy screenshotFrame; //copied for the screenshot in progress
+    private Bitmap screenshotViewBitmap; //of the drawing view, waiting for screenshotFrame
+    private long screenshotRequestedAt = 0;
+    private ResultProcessor resultProcessor; //scores, smoothing and recording, off the main thread
+    private FaceSnapshot[] faceSnapshots = new FaceSnapshot[0]; //the faces of the last results, grown as needed
+    private boolean isSessionRecordingEnabled = false;
+    private StartupOrchestrator startup;
+    private final ProcessRateGovernor rateGovernor = new ProcessRateGovernor();
+    private final PerformanceMonitor performanceMonitor = new PerformanceMonitor();
+    private boolean isJankMonitorRunning = false;
+    private long lastUiFrameNanos = -1;
+    private final Choreographer.FrameCallback jankMonitor = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            rateGovernor.onUiFrame(frameTimeNanos);
+            if (lastUiFrameNanos >= 0) {
+                performanceMonitor.onUiFrame(frameTimeNanos, frameTimeNanos - lastUiFrameNanos);
+            }
+            lastUiFrameNanos = frameTimeNanos;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    };
+    private Typeface applicationTypeface; //loaded by the "fonts" startup task
+    private MarkerAtlas markerAtlas; //loaded by the "markers" startup task, null if it could not be built
+    private FrameSource replayFrameSource = null; //when set, frames are replayed from disk instead of coming from the camera
     private boolean isMenuVisible = false;
     private boolean isFPSVisible = false;
     private boolean isMenuShowingForFirstTime = true;
-    private long firstSystemTime = 0;
-    private float numberOfFrames = 0;
-    private long timeToUpdate = 0;
+    private long replayStartTime = 0;
+    private int replayedFrameCount = 0;
     private boolean isFrontFacingCameraDetected = true;
     private boolean isBackFacingCameraDetected = true;
     private boolean multiFaceModeEnabled = false;
@@ -135,35 +164,77 @@ public class MainActivity extends AppCompatActivity
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         getWindow().addFlags(WindowManager.LayoutParams.FLAG_FULLSCREEN); //To maximize UI space, we declare our app to be full-screen
-        preproccessMetricImages();
-        setContentView(R.layout.activity_main);
-        initializeUI();
-        checkForCameraPermissions();
-        determineCameraAvailability();
-        initializeCameraDetector();
-    }
 
-    /**
-     * Only load the files onto disk the first time the app opens
-     */
-    private void preproccessMetricImages() {
-        Context context = getBaseContext();
-
-        for (Face.EMOJI emoji : Face.EMOJI.values()) {
-            if (emoji.equals(Face.EMOJI.UNKNOWN)) {
-                continue;
+        /*
+         * Initialization runs as a graph of tasks: whatever does not touch views runs in parallel on background threads
+         * while the layout is inflated, and each task starts as soon as the tasks it depends on are done.
+         */
+        final Intent intent = getIntent();
+        resultProcessor = new ResultProcessor(this);
+        startup = new StartupOrchestrator(this);
+        startup.addTask("markers", false, new Runnable() {
+            @Override
+            public void run() {
+                //only decodes the images on first launch, or after an update or density change
+                markerAtlas = MarkerAtlas.load(MainActivity.this);
             }
-            String emojiResourceName = emoji.name().trim().replace(' ', '_').toLowerCase(Locale.US).concat("_emoji");
-            String emojiFileName = emojiResourceName + ".png";
-            ImageHelper.preproccessImageIfNecessary(context, emojiFileName, emojiResourceName);
-        }
+        }).addTask("fonts", false, new Runnable() {
+            @Override
+            public void run() {
+                applicationTypeface = Typeface.createFromAsset(getAssets(), "fonts/Square.ttf");
+            }
+        }).addTask("camera_probe", false, new Runnable() {
+            @Override
+            public void run() {
+                determineCameraAvailability();
+            }
+        }).addTask("replay", false, new Runnable() {
+            @Override
+            public void run() {
+                replayFrameSource = createReplayFrameSource(intent);
+            }
+        }).addTask("screenshots", false, new Runnable() {
+            @Override
+            public void run() {
+                screenshotPipeline = new ScreenshotPipeline(MainActivity.this, MainActivity.this);
+            }
+        }).addTask("ui", true, new Runnable() {
+            @Override
+            public void run() {
+                setContentView(R.layout.activity_main);
+                initializeUI();
+            }
+        }).addTask("apply_fonts", true, new Runnable() {
+            @Override
+            public void run() {
+                applyTypeface(applicationTypeface);
+            }
+        }, "fonts", "ui").addTask("apply_markers", true, new Runnable() {
+            @Override
+            public void run() {
+                drawingView.setMarkerAtlas(markerAtlas);
+            }
+        }, "markers", "ui").addTask("permissions", true, new Runnable() {
+            @Override
+            public void run() {
+                checkForCameraPermissions();
+            }
+        }, "ui").addTask("camera_notice", true, new Runnable() {
+            @Override
+            public void run() {
+                showCameraNotFoundIfNecessary();
+            }
+        }, "ui", "camera_probe").addTask("detector", true, new Runnable() {
+            @Override
+            public void run() {
+                //CameraDetector needs the camera preview view and delivers its callbacks on this thread
+                initializeCameraDetector();
+            }
+        }, "ui", "camera_probe");
+        startup.start();
 
-        ImageHelper.preproccessImageIfNecessary(context, "female_glasses.png", "female_glasses");
-        ImageHelper.preproccessImageIfNecessary(context, "female_noglasses.png", "female_noglasses");
-        ImageHelper.preproccessImageIfNecessary(context, "male_glasses.png", "male_glasses");
-        ImageHelper.preproccessImageIfNecessary(context, "male_noglasses.png", "male_noglasses");
-        ImageHelper.preproccessImageIfNecessary(context, "unknown_glasses.png", "unknown_glasses");
-        ImageHelper.preproccessImageIfNecessary(context, "unknown_noglasses.png", "unknown_noglasses");
+        //onResume() needs all of these; fonts and marker bitmaps are applied whenever they are ready
+        startup.await("ui", "permissions", "camera_notice", "detector", "replay", "screenshots");
     }
 
     private void checkForCameraPermissions() {
@@ -313,22 +384,14 @@ public class MainActivity extends AppCompatActivity
     }
 
     /**
-     * We check to make sure the device has a front-facing camera.
-     * If it does not, we obscure the app with a notice informing the user they cannot
-     * use the app.
+     * We check to make sure the device has a front-facing camera, and restore the camera type.
+     * Does not touch any view, so it can run on a background thread during startup.
      */
     void determineCameraAvailability() {
         PackageManager manager = getPackageManager();
         isFrontFacingCameraDetected = manager.hasSystemFeature(PackageManager.FEATURE_CAMERA_FRONT);
         isBackFacingCameraDetected = manager.hasSystemFeature(PackageManager.FEATURE_CAMERA);
 
-        if (!isFrontFacingCameraDetected && !isBackFacingCameraDetected) {
-            progressBar.setVisibility(View.INVISIBLE);
-            pleaseWaitTextView.setVisibility(View.INVISIBLE);
-            TextView notFoundTextView = (TextView) findViewById(R.id.not_found_textview);
-            notFoundTextView.setVisibility(View.VISIBLE);
-        }
-
         //set default camera settings
         SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(this);
 
@@ -343,6 +406,19 @@ public class MainActivity extends AppCompatActivity
         }
     }
 
+    /**
+     * If the device has no camera, we obscure the app with a notice informing the user they cannot
+     * use the app.
+     */
+    void showCameraNotFoundIfNecessary() {
+        if (!isFrontFacingCameraDetected && !isBackFacingCameraDetected) {
+            progressBar.setVisibility(View.INVISIBLE);
+            pleaseWaitTextView.setVisibility(View.INVISIBLE);
+            TextView notFoundTextView = (TextView) findViewById(R.id.not_found_textview);
+            notFoundTextView.setVisibility(View.VISIBLE);
+        }
+    }
+
     void initializeUI() {
 
         //Get handles to UI objects
@@ -350,11 +426,9 @@ public class MainActivity extends AppCompatActivity
         progressBarLayout = (RelativeLayout) findViewById(R.id.progress_bar_cover);
         permissionsUnavailableLayout = (LinearLayout) findViewById(R.id.permissionsUnavialableLayout);
         metricViewLayout = (RelativeLayout) findViewById(R.id.metric_view_group);
-        leftMetricsLayout = (LinearLayout) findViewById(R.id.left_metrics);
-        rightMetricsLayout = (LinearLayout) findViewById(R.id.right_metrics);
+        metricPanelView = (MetricPanelView) findViewById(R.id.metric_panel);
         mainLayout = (RelativeLayout) findViewById(R.id.main_layout);
-        fpsPct = (TextView) findViewById(R.id.fps_value);
-        fpsName = (TextView) findViewById(R.id.fps_name);
+        classifierDebugTextView = (TextView) findViewById(R.id.classifier_debug_textview);
         cameraView = (SurfaceView) findViewById(R.id.camera_preview);
         drawingView = (DrawingView) findViewById(R.id.drawing_view);
         settingsButton = (ImageButton) findViewById(R.id.settings_button);
@@ -365,37 +439,11 @@ public class MainActivity extends AppCompatActivity
         Button retryPermissionsButton = (Button) findViewById(R.id.retryPermissionsButton);
 
         //Initialize views to display metrics
-        metricNames = new TextView[NUM_METRICS_DISPLAYED];
-        metricNames[0] = (TextView) findViewById(R.id.metric_name_0);
-        metricNames[1] = (TextView) findViewById(R.id.metric_name_1);
-        metricNames[2] = (TextView) findViewById(R.id.metric_name_2);
-        metricNames[3] = (TextView) findViewById(R.id.metric_name_3);
-        metricNames[4] = (TextView) findViewById(R.id.metric_name_4);
-        metricNames[5] = (TextView) findViewById(R.id.metric_name_5);
-        metricDisplays = new MetricDisplay[NUM_METRICS_DISPLAYED];
-        metricDisplays[0] = (MetricDisplay) findViewById(R.id.metric_pct_0);
-        metricDisplays[1] = (MetricDisplay) findViewById(R.id.metric_pct_1);
-        metricDisplays[2] = (MetricDisplay) findViewById(R.id.metric_pct_2);
-        metricDisplays[3] = (MetricDisplay) findViewById(R.id.metric_pct_3);
-        metricDisplays[4] = (MetricDisplay) findViewById(R.id.metric_pct_4);
-        metricDisplays[5] = (MetricDisplay) findViewById(R.id.metric_pct_5);
-
-        //Load Application Font and set UI Elements to use it
-        Typeface face = Typeface.createFromAsset(getAssets(), "fonts/Square.ttf");
-        for (TextView textView : metricNames) {
-            textView.setTypeface(face);
-        }
-        for (MetricDisplay metricDisplay : metricDisplays) {
-            metricDisplay.setTypeface(face);
-        }
-        fpsPct.setTypeface(face);
-        fpsName.setTypeface(face);
-        drawingView.setTypeface(face);
-        pleaseWaitTextView.setTypeface(face);
+        metricPanelView.setSlotCount(NUM_METRICS_DISPLAYED);
+        metricPanel = new MetricPanelController(metricPanelView);
 
         //Hide left and right metrics by default (will be made visible when face detection starts)
-        leftMetricsLayout.setAlpha(0);
-        rightMetricsLayout.setAlpha(0);
+        metricPanelView.setAlpha(0);
 
         /**
          * This app uses two SurfaceView objects: one to display the camera image and the other to draw facial tracking dots.
@@ -411,6 +459,8 @@ public class MainActivity extends AppCompatActivity
 
         //Attach event listerner to drawing view
         drawingView.setEventListener(this);
+        drawingView.setPerformanceMonitor(performanceMonitor);
+        resultProcessor.setOverlay(drawingView); //the overlay is fed from the result processor's thread
 
         /*
          * This app sets the View.SYSTEM_UI_FLAG_HIDE_NAVIGATION flag. Unfortunately, this flag causes
@@ -437,15 +487,22 @@ public class MainActivity extends AppCompatActivity
         });
     }
 
+    /**
+     * Set UI Elements to use the Application Font
+     */
+    void applyTypeface(Typeface face) {
+        metricPanelView.setTypeface(face);
+        drawingView.setTypeface(face);
+        pleaseWaitTextView.setTypeface(face);
+    }
+
     void initializeCameraDetector() {
-        /* Put the SDK in camera mode by using this constructor. The SDK will be in control of
-         * the camera. If a SurfaceView is passed in as the last argument to the constructor,
-         * that view will be painted with what the camera sees.
-         */
-        detector = new CameraDetector(this, cameraType, cameraView, (multiFaceModeEnabled ? MAX_SUPPORTED_FACES : 1), Detector.FaceDetectorMode.LARGE_FACES);
-        detector.setImageListener(this);
-        detector.setFaceListener(this);
-        detector.setOnCameraEventListener(this);
+        detectorManager = new DetectorManager(this, cameraView, this, this, this);
+        detectorConfiguration.setCameraType(cameraType);
+        detectorConfiguration.setMaxFaces(multiFaceModeEnabled ? MAX_SUPPORTED_FACES : 1);
+        detectorManager.apply(detectorConfiguration);
+        performanceHud = new PerformanceHud((TextView) findViewById(R.id.performance_hud_textview), performanceMonitor,
+                rateGovernor, detectorManager, resultProcessor);
     }
 
     /*
@@ -458,17 +515,34 @@ public class MainActivity extends AppCompatActivity
         restoreApplicationSettings();
         setMenuVisible(true);
         isMenuShowingForFirstTime = true;
+
+        if (isSessionRecordingEnabled) {
+            startSessionRecording();
+        }
+    }
+
+    /**
+     * Record every processed face to a new session file in the app's external files directory.
+     */
+    void startSessionRecording() {
+        File sessionFolder = getExternalFilesDir("sessions");
+        if (sessionFolder == null) {
+            sessionFolder = getDir("sessions", Context.MODE_PRIVATE); // external storage is unavailable
+        }
+        if (!sessionFolder.exists() && !sessionFolder.mkdirs()) {
+            Log.e(LOG_TAG, "Unable to create directory: " + sessionFolder.getAbsolutePath());
+            return;
+        }
+
+        String sessionFileName = DateFormat.format("yyyy-MM-dd_hh-mm-ss", new Date()).toString() + ".afds";
+        resultProcessor.startRecording(new File(sessionFolder, sessionFileName));
     }
 
     private void setMultiFaceModeEnabled(boolean isEnabled) {
 
-        //if setting change is necessary
-        if (isEnabled != multiFaceModeEnabled) {
-            // change the setting, stop the detector, and reinitialize it to change the setting
-            multiFaceModeEnabled = isEnabled;
-            stopDetector();
-            initializeCameraDetector();
-        }
+        //the detector manager rebuilds the detector when the configuration is applied, as the face count requires it
+        multiFaceModeEnabled = isEnabled;
+        detectorConfiguration.setMaxFaces(isEnabled ? MAX_SUPPORTED_FACES : 1);
     }
 
     /*
@@ -485,19 +559,39 @@ public class MainActivity extends AppCompatActivity
             setCameraType(CameraDetector.CameraType.CAMERA_BACK);
         }
 
-        //restore the multiface mode setting to reset the detector if necessary
+        //restore the multiface mode setting
         if (sharedPreferences.getBoolean("multiface", false)) { // default to false
             setMultiFaceModeEnabled(true);
         } else {
             setMultiFaceModeEnabled(false);
         }
 
-        //restore camera processing rate
+        //restore camera processing rate; with adaptive FPS, the user's rate is the maximum the governor may choose
         int detectorProcessRate = PreferencesUtils.getFrameProcessingRate(sharedPreferences);
-        detector.setMaxProcessRate(detectorProcessRate);
+        boolean isAdaptiveRateEnabled = sharedPreferences.getBoolean("adaptive_rate", false);
+        rateGovernor.configure(isAdaptiveRateEnabled, isAdaptiveRateEnabled
+                ? PreferencesUtils.getMinFrameProcessingRate(sharedPreferences, detectorProcessRate) : detectorProcessRate, detectorProcessRate);
+        long uiFramePeriod = (long) (1e9 / getWindowManager().getDefaultDisplay().getRefreshRate());
+        rateGovernor.setUiFramePeriod(uiFramePeriod);
+        performanceHud.setUiFramePeriod(uiFramePeriod);
+        detectorConfiguration.setProcessRate(rateGovernor.getRate());
+        drawingView.setProcessRate(rateGovernor.getRate());
         drawingView.invalidateDimensions();
 
-        if (sharedPreferences.getBoolean("fps", isFPSVisible)) {    //restore isFPSMetricVisible
+        //restore score smoothing, which lets the process rate be lowered without the displayed scores becoming jumpy
+        ScoreSmoother.Mode smoothingMode = PreferencesUtils.getSmoothingMode(sharedPreferences);
+        int smoothingWindow = PreferencesUtils.getSmoothingWindow(sharedPreferences);
+        resultProcessor.setSmoothing(smoothingMode, smoothingWindow); //the metric panel and the bounding box valence
+        drawingView.setLandmarkPrediction(PreferencesUtils.getLandmarkPrediction(sharedPreferences));
+
+        isSessionRecordingEnabled = sharedPreferences.getBoolean("record", false);
+        if (isSessionRecordingEnabled) {
+            classifierRegistry.setDemand("session_recorder", new ClassifierRegistry.Demand().addAll(MetricsManager.getAllMetrics()));
+        } else {
+            classifierRegistry.clearDemand("session_recorder");
+        }
+
+        if (sharedPreferences.getBoolean("fps", isFPSVisible)) {    //restore isFPSVisible, which shows the performance HUD
             setFPSVisible(true);
         } else {
             setFPSVisible(false);
@@ -510,18 +604,14 @@ public class MainActivity extends AppCompatActivity
         }
 
         if (sharedPreferences.getBoolean("appearance", drawingView.getDrawAppearanceMarkersEnabled())) {
-            detector.setDetectAllAppearances(true);
             setShowAppearance(true);
         } else {
-            detector.setDetectAllAppearances(false);
             setShowAppearance(false);
         }
 
         if (sharedPreferences.getBoolean("emoji", drawingView.getDrawEmojiMarkersEnabled())) {
-            detector.setDetectAllEmojis(true);
             setShowEmoji(true);
         } else {
-            detector.setDetectAllEmojis(false);
             setShowEmoji(false);
         }
 
@@ -530,74 +620,64 @@ public class MainActivity extends AppCompatActivity
             activateMetric(n, PreferencesUtils.getMetricFromPrefs(sharedPreferences, n));
         }
 
-        //if we are in multiface mode, we need to enable the detection of all emotions
+        //the box around each face is colored by valence, and in multiface mode the dominant emotion is shown next to it
+        classifierRegistry.setDemand("valence_box", new ClassifierRegistry.Demand().add(MetricsManager.Emotions.VALENCE));
         if (multiFaceModeEnabled) {
-            detector.setDetectAllEmotions(true);
+            classifierRegistry.setDemand("dominant_emotion", new ClassifierRegistry.Demand().addAll(DominantEmotion.CANDIDATES));
+        } else {
+            classifierRegistry.clearDemand("dominant_emotion");
         }
+
+        setClassifierDebugVisible(sharedPreferences.getBoolean("classifier_debug", false));
+        applyDetectorConfiguration();
     }
 
     /**
-     * Populates a TextView to display a metric name and readies a MetricDisplay to display the value.
-     * Uses reflection to:
-     * -enable the corresponding metric in the Detector object by calling Detector.setDetect<MetricName>()
-     * -save the Method object that will be invoked on the Face object received in onImageResults() to get the metric score
+     * Enable exactly the classifiers demanded in the registry, along with the rest of the detector configuration.
      */
-    void activateMetric(int index, MetricsManager.Metrics metric) {
-
-        Method getFaceScoreMethod = null; //The method that will be used to get a metric score
-
-        try {
-            switch (metric.getType()) {
-                case Emotion:
-                    Detector.class.getMethod("setDetect" + MetricsManager.getCamelCase(metric), boolean.class).invoke(detector, true);
-                    metricNames[index].setText(MetricsManager.getUpperCaseName(metric));
-                    getFaceScoreMethod = Face.Emotions.class.getMethod("get" + MetricsManager.getCamelCase(metric));
-
-                    //The MetricDisplay for Valence is unique; it shades it color depending on the metric value
-                    if (metric == MetricsManager.Emotions.VALENCE) {
-                        metricDisplays[index].setIsShadedMetricView(true);
-                    } else {
-                        metricDisplays[index].setIsShadedMetricView(false);
-                    }
-                    break;
-                case Expression:
-                    Detector.class.getMethod("setDetect" + MetricsManager.getCamelCase(metric), boolean.class).invoke(detector, true);
-                    metricNames[index].setText(MetricsManager.getUpperCaseName(metric));
-                    getFaceScoreMethod = Face.Expressions.class.getMethod("get" + MetricsManager.getCamelCase(metric));
-                    break;
-                case Emoji:
-                    detector.setDetectAllEmojis(true);
-                    MetricsManager.Emojis emoji = ((MetricsManager.Emojis) metric);
-                    String metricTitle = emoji.getDisplayName(); // + " " + emoji.getUnicodeForEmoji();
-                    metricNames[index].setText(metricTitle);
-                    Log.d(LOG_TAG, "Getter Method: " + "get" + MetricsManager.getCamelCase(metric));
-                    getFaceScoreMethod = Face.Emojis.class.getMethod("get" + MetricsManager.getCamelCase(metric));
-                    break;
-            }
-        } catch (NoSuchMethodException e) {
-            Log.e(LOG_TAG, String.format("No such method while using reflection to generate methods for %s", metric.toString()), e);
-        } catch (InvocationTargetException e) {
-            Log.e(LOG_TAG, String.format("Invocation error while using reflection to generate methods for %s", metric.toString()), e);
-        } catch (IllegalAccessException e) {
-            Log.e(LOG_TAG, String.format("Illegal access error while using reflection to generate methods for %s", metric.toString()), e);
+    void applyDetectorConfiguration() {
+        detectorConfiguration.setClassifiers(classifierRegistry.getClassifiers());
+        detectorManager.apply(detectorConfiguration);
+        if (classifierDebugTextView.getVisibility() == View.VISIBLE) {
+            classifierDebugTextView.setText(classifierRegistry.describe());
         }
+    }
 
-        metricDisplays[index].setMetricToDisplay(metric, getFaceScoreMethod);
+    void setClassifierDebugVisible(boolean isVisible) {
+        classifierDebugTextView.setVisibility(isVisible ? View.VISIBLE : View.GONE);
     }
 
     /**
-     * Reset the variables used to calculate processed frames per second.
-     **/
-    public void resetFPSCalculations() {
-        firstSystemTime = SystemClock.elapsedRealtime();
-        timeToUpdate = firstSystemTime + 1000L;
-        numberOfFrames = 0;
+     * Sets the name of a slot of the metric panel and readies it to display the value.
+     * Declares the metric as the demand of the display in the classifier registry, which is applied at the end of
+     * restoreApplicationSettings().
+     * The score itself is read and smoothed by the ResultProcessor, through the MetricAccessor for the metric, which
+     * calls the Face getter directly.
+     */
+    void activateMetric(int index, MetricsManager.Metrics metric) {
+
+        classifierRegistry.setDemand("metric_display_" + index, new ClassifierRegistry.Demand().add(metric));
+        switch (metric.getType()) {
+            case Emotion:
+            case Expression:
+                metricPanelView.setMetricName(index, MetricsManager.getUpperCaseName(metric));
+                break;
+            case Emoji:
+                MetricsManager.Emojis emoji = ((MetricsManager.Emojis) metric);
+                String metricTitle = emoji.getDisplayName();
+                metricPanelView.setMetricName(index, metricTitle);
+                break;
+        }
+
+        //The slot for Valence is unique; it shades its color depending on the metric value
+        metricPanelView.setIsShadedMetricView(index, metric == MetricsManager.Emotions.VALENCE);
+        metricPanelView.setMetricToDisplay(index, metric);
+        resultProcessor.setSlotMetric(index, metric);
     }
 
     /**
      * We want to start the camera as late as possible, so it does not freeze the application before it has been visually resumed.
      * We thus post a runnable that will take care of starting the camera.
-     * We also reset variables used to calculate the Processed Frames Per Second.
      */
     @Override
     public void onWindowFocusChanged(boolean hasFocus) {
@@ -612,6 +692,12 @@ public class MainActivity extends AppCompatActivity
     }
 
     void mainWindowResumedTasks() {
+        startup.finish(); //the trace is written once the remaining startup tasks are done too
+
+        if (replayFrameSource != null) {
+            startReplay();
+            return;
+        }
 
         //Notify the user that they can't use the app without authorizing these permissions.
         if (!cameraPermissionsAvailable) {
@@ -624,7 +710,6 @@ public class MainActivity extends AppCompatActivity
         if (!drawingView.isDimensionsNeeded()) {
             progressBarLayout.setVisibility(View.GONE);
         }
-        resetFPSCalculations();
         cameraView.postDelayed(new Runnable() {
             @Override
             public void run() {
@@ -639,22 +724,36 @@ public class MainActivity extends AppCompatActivity
         if (!isBackFacingCameraDetected && !isFrontFacingCameraDetected)
             return; //without any cameras detected, we cannot proceed
 
-        detector.setDetectValence(true); //this app will always detect valence
-        if (!detector.isRunning()) {
-            try {
-                detector.start();
-            } catch (Exception e) {
-                Log.e(LOG_TAG, e.getMessage());
-            }
+        detectorManager.start();
+        rateGovernor.reset(); //frame timestamps start over with the detector
+        updateJankMonitor();
+    }
+
+    /**
+     * While adaptive FPS is enabled or the performance HUD is shown, a frame callback is posted on every vsync to
+     * count the UI frames that miss one. This keeps vsync signals coming, so for the governor it only runs while the
+     * detector does.
+     */
+    void updateJankMonitor() {
+        setJankMonitorRunning((rateGovernor.isEnabled() && detectorManager.isRunning()) || isFPSVisible);
+    }
+
+    void setJankMonitorRunning(boolean isRunning) {
+        if (isRunning == isJankMonitorRunning) {
+            return;
+        }
+        isJankMonitorRunning = isRunning;
+        lastUiFrameNanos = -1;
+        if (isRunning) {
+            Choreographer.getInstance().postFrameCallback(jankMonitor);
+        } else {
+            Choreographer.getInstance().removeFrameCallback(jankMonitor);
         }
     }
 
     @Override
     public void onFaceDetectionStarted() {
-        leftMetricsLayout.animate().alpha(1); //make left and right metrics appear
-        rightMetricsLayout.animate().alpha(1);
-
-        resetFPSCalculations(); //Since the FPS may be different whether a face is being tracked or not, reset variables.
+        metricPanelView.animate().alpha(1); //make left and right metrics appear
     }
 
     @Override
@@ -663,9 +762,8 @@ public class MainActivity extends AppCompatActivity
     }
 
     void performFaceDetectionStoppedTasks() {
-        leftMetricsLayout.animate().alpha(0); //make left and right metrics disappear
-        rightMetricsLayout.animate().alpha(0);
-        resetFPSCalculations(); //Since the FPS may be different whether a face is being tracked or not, reset variables.
+        metricPanelView.animate().alpha(0); //make left and right metrics disappear
+        resultProcessor.resetSmoothing(); //the next face found may be someone else, don't blend their scores with the last ones
     }
 
     /**
@@ -673,43 +771,170 @@ public class MainActivity extends AppCompatActivity
      */
     @Override
     public void onImageResults(List<Face> faces, Frame image, float timeStamp) {
-        mostRecentFrame = image;
+        long now = System.nanoTime();
+        performanceMonitor.onCameraFrame(now); //every camera frame comes through here, processed or not
+        if (isScreenshotPending) {
+            //the SDK reuses the frame once this callback returns, so the screenshot gets a copy taken now
+            isScreenshotPending = false;
+            screenshotFrame = ImageHelper.copyFrame(image);
+            if (screenshotViewBitmap != null) {
+                Bitmap drawingViewBitmap = screenshotViewBitmap;
+                screenshotViewBitmap = null;
+                processScreenshot(drawingViewBitmap, STORE_RAW_SCREENSHOTS);
+            }
+        }
 
         //If the faces object is null, we received an unprocessed frame
         if (faces == null) {
             return;
         }
 
-        //At this point, we know the frame received was processed, so we perform our processed frames per second calculations
-        performFPSCalculations();
+        //At this point, we know the frame received was processed
+        performanceMonitor.onFrameProcessed(now);
+        int faceCount = takeFaceSnapshots(faces);
+        if (rateGovernor.onFrameProcessed(now, timeStamp)) {
+            Log.d(LOG_TAG, String.format(Locale.US, "Process rate set to %d (achieved %.1f fps, queueing delay %.0f ms, jank %.0f%%)",
+                    rateGovernor.getRate(), rateGovernor.getLastProcessedRate(), rateGovernor.getLastQueueDelayMillis(),
+                    rateGovernor.getLastJankRatio() * 100));
+            detectorConfiguration.setProcessRate(rateGovernor.getRate());
+            detectorManager.apply(detectorConfiguration);
+            drawingView.setProcessRate(rateGovernor.getRate());
+        }
+
+        /**
+         * If the user has selected to have any facial attributes drawn, or in multi face mode, the snapshots are drawn.
+         * Scores, smoothing, the valence coloring the bounding boxes, the dominant emotions and recording are derived
+         * on the result processor's thread, which hands the faces to the drawing thread, see onDisplayState().
+         */
+        boolean isDrawn = faceCount > 1 || drawingView.getDrawPointsEnabled()
+                || drawingView.getDrawAppearanceMarkersEnabled() || drawingView.getDrawEmojiMarkersEnabled();
+        resultProcessor.submit(faceSnapshots, faceCount, now, timeStamp, mirrorPoints, isDrawn);
 
-        //If faces.size() is 0, we received a frame in which no face was detected
-        if (faces.size() <= 0) {
-            drawingView.invalidatePoints();
-        } else if (faces.size() == 1) {
+        //If faceCount is 0, we received a frame in which no face was detected
+        if (faceCount == 1) {
             metricViewLayout.setVisibility(View.VISIBLE);
+        } else if (faceCount > 1) {
+            // metrics overlay is hidden in multi face mode
+            metricViewLayout.setVisibility(View.GONE);
+        }
+    }
 
-            //update metrics with latest face information. The metrics are displayed on a MetricView, a custom view with a .setScore() method.
-            for (MetricDisplay metricDisplay : metricDisplays) {
-                updateMetricScore(metricDisplay, faces.get(0));
+    /**
+     * Copy the given faces into faceSnapshots, the only form in which they are handed to other threads: the SDK's
+     * Face objects are not kept past this callback.
+     *
+     * @return the number of faces
+     */
+    private int takeFaceSnapshots(List<Face> faces) {
+        int faceCount = faces.size();
+        if (faceCount > faceSnapshots.length) {
+            int oldLength = faceSnapshots.length;
+            faceSnapshots = Arrays.copyOf(faceSnapshots, faceCount);
+            for (int n = oldLength; n < faceCount; n++) {
+                faceSnapshots[n] = new FaceSnapshot();
             }
+        }
+        for (int n = 0; n < faceCount; n++) {
+            faceSnapshots[n].fill(n, faces.get(n));
+        }
+        return faceCount;
+    }
 
-            /**
-             * If the user has selected to have any facial attributes drawn, we use face.getFacePoints() to send those points
-             * to our drawing thread and also inform the thread what the valence score was, as that will determine the color
-             * of the bounding box.
-             */
-            if (drawingView.getDrawPointsEnabled() || drawingView.getDrawAppearanceMarkersEnabled() || drawingView.getDrawEmojiMarkersEnabled()) {
-                drawingView.updatePoints(faces, mirrorPoints);
+    /**
+     * Build the FrameSource requested by the launching Intent, or return null to use the camera.
+     */
+    private FrameSource createReplayFrameSource(Intent intent) {
+        String sessionPath = intent.getStringExtra(EXTRA_REPLAY_SESSION);
+        String imagesPath = intent.getStringExtra(EXTRA_REPLAY_IMAGES);
+        if (sessionPath == null && imagesPath == null) {
+            return null;
+        }
+
+        final Handler mainHandler = new Handler(Looper.getMainLooper());
+        Executor mainThreadExecutor = new Executor() {
+            @Override
+            public void execute(@NonNull Runnable command) {
+                mainHandler.post(command);
             }
+        };
+        boolean isRealTime = !intent.getBooleanExtra(EXTRA_REPLAY_AS_FAST_AS_POSSIBLE, false);
 
+        try {
+            ReplayFrameSource.Input input;
+            if (sessionPath != null) {
+                input = new SessionReader(new File(sessionPath));
+            } else {
+                DisplayMetrics displayMetrics = getResources().getDisplayMetrics();
+                input = new ImageSequenceInput(new File(imagesPath), PreferenceParser.DEFAULT_FPS,
+                        PreferenceManager.getDefaultSharedPreferences(this).getBoolean("multiface", false) ? MAX_SUPPORTED_FACES : 1,
+                        displayMetrics.widthPixels, displayMetrics.heightPixels);
+            }
+            Log.d(LOG_TAG, "Replaying frames from " + (sessionPath != null ? sessionPath : imagesPath));
+            return new ReplayFrameSource(input, isRealTime, mainThreadExecutor);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Unable to open replay, using the camera", e);
+            runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    Toast.makeText(MainActivity.this, "Unable to open replay", Toast.LENGTH_LONG).show();
+                }
+            });
+            return null;
+        }
+    }
+
+    void startReplay() {
+        if (replayFrameSource.isRunning()) {
+            return;
+        }
+        progressBarLayout.setVisibility(View.GONE);
+        if (replayFrameSource.getImageWidth() > 0 && replayFrameSource.getImageHeight() > 0) {
+            cameraPreviewWidth = replayFrameSource.getImageWidth();
+            cameraPreviewHeight = replayFrameSource.getImageHeight();
+            fitLayoutToImage();
+        } else {
+            Log.w(LOG_TAG, "Replay does not tell its image size, its faces are not drawn");
+        }
+        onFaceDetectionStarted();
+        replayStartTime = SystemClock.elapsedRealtime();
+        replayedFrameCount = 0;
+        try {
+            replayFrameSource.start(this);
+        } catch (IllegalStateException e) {
+            Log.e(LOG_TAG, "Replays can only be played once", e);
+        }
+    }
+
+    /**
+     * The replay counterpart of onImageResults(): drives the metric displays, the overlay and the performance
+     * monitor. Replayed faces are drawn unmirrored, as they were recorded.
+     */
+    @Override
+    public void onFrameResults(ReplayFrame frame) {
+        long now = System.nanoTime();
+        performanceMonitor.onFrameProcessed(now);
+        replayedFrameCount++;
+        resultProcessor.submitReplay(frame, now, !drawingView.isDimensionsNeeded());
+
+        if (frame.getFaceCount() <= 0) {
+            return;
+        }
+        if (frame.getFaceCount() == 1) {
+            metricViewLayout.setVisibility(View.VISIBLE);
         } else {
             // metrics overlay is hidden in multi face mode
             metricViewLayout.setVisibility(View.GONE);
+        }
+    }
 
-            // always update points in multi face mode
-            drawingView.updatePoints(faces, mirrorPoints);
+    @Override
+    public void onFrameSourceFinished(Exception error) {
+        if (error != null) {
+            Log.e(LOG_TAG, "Replay failed", error);
         }
+        long replayMillis = Math.max(1, SystemClock.elapsedRealtime() - replayStartTime);
+        Log.d(LOG_TAG, String.format(Locale.US, "Replay finished, processed FPS: %.1f", replayedFrameCount * 1000f / replayMillis));
+        performFaceDetectionStoppedTasks();
     }
 
     public void takeScreenshot(View view) {
@@ -719,139 +944,97 @@ public class MainActivity extends AppCompatActivity
             return;
         }
 
+        // Refuse the request rather than queueing up screenshots while the user keeps tapping
+        if (isScreenshotPending || screenshotViewBitmap != null || !screenshotPipeline.isAcceptingRequests()) {
+            Toast.makeText(getApplicationContext(), "Still saving previous screenshot", Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        if (!detectorManager.isRunning()) {
+            Toast.makeText(getApplicationContext(), "No frame detected, aborting screenshot", Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        screenshotRequestedAt = SystemClock.elapsedRealtime();
+        isScreenshotPending = true;
         drawingView.requestBitmap();
 
         /**
-         * A screenshot of the drawing view is generated and processing continues via the callback
-         * onBitmapGenerated() which calls processScreenshot().
+         * The next camera frame is copied in onImageResults(), and a screenshot of the drawing view is generated.
+         * Processing continues via processScreenshot() once both are available.
          */
     }
 
+    /**
+     * Drop the screenshot in progress, if any, when frames stop coming.
+     */
+    private void cancelScreenshot() {
+        isScreenshotPending = false;
+        if (screenshotFrame != null) {
+            screenshotFrame.recycle();
+            screenshotFrame = null;
+        }
+        if (screenshotViewBitmap != null) {
+            screenshotViewBitmap.recycle();
+            screenshotViewBitmap = null;
+        }
+    }
+
+    /**
+     * Snapshot the state that must be read on the UI thread, and hand everything else to the screenshot
+     * pipeline, which composites, encodes and saves the screenshot on a background thread.
+     */
     private void processScreenshot(Bitmap drawingViewBitmap, boolean alsoSaveRaw) {
-        if (mostRecentFrame == null) {
+        ImageHelper.FrameCopy frame = screenshotFrame;
+        screenshotFrame = null;
+        if (frame == null) {
             Toast.makeText(getApplicationContext(), "No frame detected, aborting screenshot", Toast.LENGTH_SHORT).show();
+            drawingViewBitmap.recycle();
             return;
         }
 
         if (!storagePermissionsAvailable) {
+            frame.recycle();
+            drawingViewBitmap.recycle();
             checkForStoragePermissions();
             return;
         }
 
-        Bitmap faceBitmap = ImageHelper.getBitmapFromFrame(mostRecentFrame);
-
-        if (faceBitmap == null) {
-            Log.e(LOG_TAG, "Unable to generate bitmap for frame, aborting screenshot");
-            return;
-        }
-
         metricViewLayout.setDrawingCacheEnabled(true);
         Bitmap metricsBitmap = Bitmap.createBitmap(metricViewLayout.getDrawingCache());
         metricViewLayout.setDrawingCacheEnabled(false);
 
-        Bitmap finalScreenshot = Bitmap.createBitmap(faceBitmap.getWidth(), faceBitmap.getHeight(), Bitmap.Config.ARGB_8888);
-        Canvas canvas = new Canvas(finalScreenshot);
-        Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
-
-        canvas.drawBitmap(faceBitmap, 0, 0, paint);
-
-        float scaleFactor = ((float) faceBitmap.getWidth()) / ((float) drawingViewBitmap.getWidth());
-        int scaledHeight = Math.round(drawingViewBitmap.getHeight() * scaleFactor);
-        canvas.drawBitmap(drawingViewBitmap, null, new Rect(0, 0, faceBitmap.getWidth(), scaledHeight), paint);
-
-        scaleFactor = ((float) faceBitmap.getWidth()) / ((float) metricsBitmap.getWidth());
-        scaledHeight = Math.round(metricsBitmap.getHeight() * scaleFactor);
-        canvas.drawBitmap(metricsBitmap, null, new Rect(0, 0, faceBitmap.getWidth(), scaledHeight), paint);
-
-        metricsBitmap.recycle();
-        drawingViewBitmap.recycle();
-
-        Date now = new Date();
-        String timestamp = DateFormat.format("yyyy-MM-dd_hh-mm-ss", now).toString();
-        File pictureFolder = new File(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_PICTURES), "AffdexMe");
-        if (!pictureFolder.exists()) {
-            if (!pictureFolder.mkdir()) {
-                Log.e(LOG_TAG, "Unable to create directory: " + pictureFolder.getAbsolutePath());
-                return;
-            }
-        }
-
-        String screenshotFileName = timestamp + ".png";
-        File screenshotFile = new File(pictureFolder, screenshotFileName);
-
-        try {
-            ImageHelper.saveBitmapToFileAsPng(finalScreenshot, screenshotFile);
-        } catch (IOException e) {
-            String msg = "Unable to save screenshot";
-            Toast.makeText(getApplicationContext(), msg, Toast.LENGTH_SHORT).show();
-            Log.e(LOG_TAG, msg, e);
-            return;
-        }
-        ImageHelper.addPngToGallery(getApplicationContext(), screenshotFile);
-
-        if (alsoSaveRaw) {
-            String rawScreenshotFileName = timestamp + "_raw.png";
-            File rawScreenshotFile = new File(pictureFolder, rawScreenshotFileName);
-
-            try {
-                ImageHelper.saveBitmapToFileAsPng(faceBitmap, rawScreenshotFile);
-            } catch (IOException e) {
-                String msg = "Unable to save screenshot";
-                Log.e(LOG_TAG, msg, e);
-            }
-            ImageHelper.addPngToGallery(getApplicationContext(), rawScreenshotFile);
+        ScreenshotPipeline.Request request = new ScreenshotPipeline.Request(
+                frame, drawingViewBitmap, metricsBitmap, alsoSaveRaw, screenshotRequestedAt);
+        if (!screenshotPipeline.submit(request)) {
+            Toast.makeText(getApplicationContext(), "Still saving previous screenshot", Toast.LENGTH_SHORT).show();
         }
+    }
 
-        faceBitmap.recycle();
-        finalScreenshot.recycle();
-
+    @Override
+    public void onScreenshotSaved(File screenshotFile, long[] stageTimes) {
         String fileSavedMessage = "Screenshot saved to: " + screenshotFile.getPath();
         Toast.makeText(getApplicationContext(), fileSavedMessage, Toast.LENGTH_SHORT).show();
         Log.d(LOG_TAG, fileSavedMessage);
     }
 
-    /**
-     * Use the method that we saved in activateMetric() to get the metric score and display it
-     */
-    void updateMetricScore(MetricDisplay metricDisplay, Face face) {
-
-        MetricsManager.Metrics metric = metricDisplay.getMetricToDisplay();
-        float score = Float.NaN;
-
-        try {
-            switch (metric.getType()) {
-                case Emotion:
-                    score = (Float) metricDisplay.getFaceScoreMethod().invoke(face.emotions);
-                    break;
-                case Expression:
-                    score = (Float) metricDisplay.getFaceScoreMethod().invoke(face.expressions);
-                    break;
-                case Emoji:
-                    score = (Float) metricDisplay.getFaceScoreMethod().invoke(face.emojis);
-                    break;
-                default:
-                    throw new Exception("Unknown Metric Type: " + metric.getType().toString());
-            }
-        } catch (Exception e) {
-            Log.e(LOG_TAG, String.format("Error using reflecting to get %s score from face.", metric.toString()));
-        }
-        metricDisplay.setScore(score);
+    @Override
+    public void onScreenshotFailed(Exception e) {
+        Toast.makeText(getApplicationContext(), "Unable to save screenshot", Toast.LENGTH_SHORT).show();
     }
 
     /**
-     * FPS measurement simply uses SystemClock to measure how many frames were processed since
-     * the FPS variables were last reset.
-     * The constants 1000L and 1000f appear because .elapsedRealtime() measures time in milliseconds.
-     * Note that if 20 frames per second are processed, this method could run for 1.5 years without being reset
-     * before numberOfFrames overflows.
+     * Show the scores the result processor derived from the latest single-face frame. The metric panel applies them
+     * with the next display frame.
      */
-    void performFPSCalculations() {
-        numberOfFrames += 1;
-        long currentTime = SystemClock.elapsedRealtime();
-        if (currentTime > timeToUpdate) {
-            float framesPerSecond = (numberOfFrames / (float) (currentTime - firstSystemTime)) * 1000f;
-            fpsPct.setText(String.format(" %.1f", framesPerSecond));
-            timeToUpdate = currentTime + 1000L;
+    @Override
+    public void onDisplayState(@NonNull ResultProcessor.DisplayState state) {
+        int slotCount = Math.min(state.getSlotCount(), metricPanelView.getSlotCount());
+        for (int n = 0; n < slotCount; n++) {
+            float score = state.getScore(n);
+            if (!Float.isNaN(score)) {
+                metricPanel.setScore(n, score);
+            }
         }
     }
 
@@ -866,23 +1049,31 @@ public class MainActivity extends AppCompatActivity
         progressBarLayout.setVisibility(View.VISIBLE);
 
         performFaceDetectionStoppedTasks();
+        metricPanel.cancel();
+        performanceHud.setVisible(false); //shown again by restoreApplicationSettings() if it is enabled
 
         stopDetector();
+        cancelScreenshot();
+        resultProcessor.stopRecording();
+        if (replayFrameSource != null) {
+            replayFrameSource.stop();
+        }
     }
 
-    void stopDetector() {
-        if (detector.isRunning()) {
-            try {
-                detector.stop();
-            } catch (Exception e) {
-                Log.e(LOG_TAG, e.getMessage());
-            }
+    @Override
+    protected void onDestroy() {
+        if (markerAtlas != null) {
+            drawingView.setMarkerAtlas(null);
+            markerAtlas.recycle(); //the drawing thread stopped when the surface was destroyed
         }
+        screenshotPipeline.shutdown();
+        resultProcessor.quit();
+        super.onDestroy();
+    }
 
-        detector.setDetectAllEmotions(false);
-        detector.setDetectAllExpressions(false);
-        detector.setDetectAllAppearances(false);
-        detector.setDetectAllEmojis(false);
+    void stopDetector() {
+        detectorManager.stop(); //the detector and its classifiers are kept, to be resumed as configured
+        setJankMonitorRunning(false);
     }
 
 
@@ -937,22 +1128,28 @@ public class MainActivity extends AppCompatActivity
 
     void setShowAppearance(boolean b) {
         drawingView.setDrawAppearanceMarkersEnabled(b);
+        if (b) {
+            classifierRegistry.setDemand("appearance_marker", new ClassifierRegistry.Demand().addAppearance());
+        } else {
+            classifierRegistry.clearDemand("appearance_marker");
+        }
     }
 
     void setShowEmoji(boolean b) {
         drawingView.setDrawEmojiMarkersEnabled(b);
+        if (b) {
+            //the dominant emoji is only meaningful when every emoji is scored
+            classifierRegistry.setDemand("emoji_marker", new ClassifierRegistry.Demand().addAll(MetricsManager.Emojis.values()));
+        } else {
+            classifierRegistry.clearDemand("emoji_marker");
+        }
     }
 
 
     void setFPSVisible(boolean b) {
         isFPSVisible = b;
-        if (b) {
-            fpsName.setVisibility(View.VISIBLE);
-            fpsPct.setVisibility(View.VISIBLE);
-        } else {
-            fpsName.setVisibility(View.INVISIBLE);
-            fpsPct.setVisibility(View.INVISIBLE);
-        }
+        performanceHud.setVisible(b);
+        updateJankMonitor();
     }
 
     @Override
@@ -977,6 +1174,15 @@ public class MainActivity extends AppCompatActivity
             cameraPreviewWidth = cameraWidth;
             cameraPreviewHeight = cameraHeight;
         }
+        resultProcessor.setImageSize(cameraPreviewWidth, cameraPreviewHeight);
+        fitLayoutToImage();
+    }
+
+    /**
+     * Resize the main layout and the overlay to the aspect ratio of the images whose faces are drawn, the camera
+     * preview or a replay, whose size is in cameraPreviewWidth and cameraPreviewHeight.
+     */
+    private void fitLayoutToImage() {
         drawingView.setThickness((int) (cameraPreviewWidth / 100f));
 
         mainLayout.post(new Runnable() {
@@ -1054,7 +1260,8 @@ public class MainActivity extends AppCompatActivity
 
             performFaceDetectionStoppedTasks();
 
-            detector.setCameraType(cameraType);
+            detectorConfiguration.setCameraType(cameraType);
+            detectorManager.apply(detectorConfiguration);
             preferencesEditor.putString("cameraType", cameraType.name());
             preferencesEditor.apply();
         }
@@ -1065,7 +1272,11 @@ public class MainActivity extends AppCompatActivity
         runOnUiThread(new Runnable() {
             @Override
             public void run() {
-                processScreenshot(bitmap, STORE_RAW_SCREENSHOTS);
+                if (isScreenshotPending) {
+                    screenshotViewBitmap = bitmap; //processed by onImageResults() once the camera frame is copied
+                } else {
+                    processScreenshot(bitmap, STORE_RAW_SCREENSHOTS);
+                }
             }
         });
     }
@@ -0,0 +1,279 @@
+/**
+ * Copyright (c) 2016 Affectiva Inc.
+ * See the file license.txt for copying permission.
+ */
+
+package com.affectiva.affdexme;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.affectiva.android.affdex.sdk.detector.Face;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * All the emoji and appearance (gender / glasses) marker images, packed into a single bitmap.
+ * <p>
+ * The atlas is built once, then every marker is a sub-rectangle of it found by indexing a table with enum
+ * ordinals, so drawing a marker involves no string building, map lookup or bitmap switch.
+ * The images are packed left to right in rows ('shelves') no wider than MAX_WIDTH.
+ * <p>
+ * Packing requires decoding and scaling every image, so the result is kept in a MarkerAtlasCache and
+ * rebuilt only when the cache is stale. The cache is only ever read and written by a single background thread, so
+ * two rebuilds never write the cache file at the same time, and no image is decoded on the main thread.
+ */
+public class MarkerAtlas {
+
+    private static final String LOG_TAG = "AffdexMe";
+    private static final int MAX_WIDTH = 1024;
+    private static final int PADDING = 1; // keeps neighbouring images apart
+    private static final Face.GLASSES[] GLASSES_VALUES = {Face.GLASSES.NO, Face.GLASSES.YES};
+
+    private static final ExecutorService cacheBuilder = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(@NonNull Runnable runnable) {
+            Thread thread = new Thread(runnable, "MarkerAtlasCache");
+            thread.setPriority(Thread.MIN_PRIORITY);
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final Bitmap atlas;
+    private final String[] names; // resource name of each packed image
+    private final Rect[] rects; // area of each packed image
+    private final Rect[] emojiRects = new Rect[Face.EMOJI.values().length]; // indexed by Face.EMOJI ordinal, null if the image is missing
+    private final Rect[] appearanceRects = new Rect[Face.GENDER.values().length * 2]; // indexed by appearanceIndex(), null if the image is missing
+    private final RectF destination = new RectF(); // reused by draw(), which is only called from the drawing thread
+
+    MarkerAtlas(@NonNull Bitmap atlas, @NonNull String[] names, @NonNull Rect[] rects) {
+        this.atlas = atlas;
+        this.names = names;
+        this.rects = rects;
+
+        for (Face.EMOJI emoji : Face.EMOJI.values()) {
+            emojiRects[emoji.ordinal()] = findRect(getEmojiResourceName(emoji));
+        }
+        for (Face.GENDER gender : Face.GENDER.values()) {
+            for (Face.GLASSES glasses : GLASSES_VALUES) {
+                appearanceRects[appearanceIndex(gender, glasses)] = findRect(getAppearanceResourceName(gender, glasses));
+            }
+        }
+    }
+
+    /**
+     * The name of the drawable resource of the given emoji, or null for Face.EMOJI.UNKNOWN.
+     */
+    @Nullable
+    static String getEmojiResourceName(@NonNull Face.EMOJI emoji) {
+        if (emoji == Face.EMOJI.UNKNOWN) {
+            return null;
+        }
+        return emoji.name().trim().replace(' ', '_').toLowerCase(Locale.US).concat("_emoji");
+    }
+
+    /**
+     * The name of the drawable resource of the given appearance.
+     */
+    @NonNull
+    static String getAppearanceResourceName(@NonNull Face.GENDER gender, @NonNull Face.GLASSES glasses) {
+        return gender.name().toLowerCase(Locale.US) + (glasses == Face.GLASSES.YES ? "_glasses" : "_noglasses");
+    }
+
+    private static int appearanceIndex(Face.GENDER gender, Face.GLASSES glasses) {
+        return gender.ordinal() * 2 + (glasses == Face.GLASSES.YES ? 1 : 0);
+    }
+
+    private static List<String> getResourceNames() {
+        List<String> resourceNames = new ArrayList<>();
+        for (Face.EMOJI emoji : Face.EMOJI.values()) {
+            String resourceName = getEmojiResourceName(emoji);
+            if (resourceName != null) {
+                resourceNames.add(resourceName);
+            }
+        }
+        for (Face.GENDER gender : Face.GENDER.values()) {
+            for (Face.GLASSES glasses : GLASSES_VALUES) {
+                resourceNames.add(getAppearanceResourceName(gender, glasses));
+            }
+        }
+        return resourceNames;
+    }
+
+    //only called on the cacheBuilder thread
+    private static MarkerAtlas rebuildCache(Context applicationContext) {
+        long startTime = System.nanoTime();
+        MarkerAtlas atlas = pack(applicationContext);
+        MarkerAtlasCache.save(applicationContext, atlas.atlas, atlas.names, atlas.rects);
+        deleteLegacyImages(applicationContext);
+        Log.d(LOG_TAG, "Rebuilt marker cache in " + (System.nanoTime() - startTime) / 1000000 + " ms");
+        return atlas;
+    }
+
+    /**
+     * Load the atlas from the cache, or pack it from the drawable resources (and cache it) if the cache is stale.
+     * The work is done on the cache builder thread, after any load already queued there; this blocks until it is
+     * done, so it must not be called on the main thread.
+     *
+     * @return null if the atlas could not be built
+     */
+    @Nullable
+    public static MarkerAtlas load(@NonNull Context context) {
+        final Context applicationContext = context.getApplicationContext();
+        Future<MarkerAtlas> loading = cacheBuilder.submit(new Callable<MarkerAtlas>() {
+            @Override
+            public MarkerAtlas call() {
+                MarkerAtlas atlas = MarkerAtlasCache.load(applicationContext);
+                return atlas != null ? atlas : rebuildCache(applicationContext);
+            }
+        });
+        try {
+            return loading.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            Log.e(LOG_TAG, "Unable to build the marker atlas", e.getCause());
+        }
+        return null;
+    }
+
+    /**
+     * Decode, scale to the screen density and pack every marker image.
+     */
+    @NonNull
+    static MarkerAtlas pack(@NonNull Context context) {
+        List<String> resourceNames = getResourceNames();
+        List<String> names = new ArrayList<>();
+        List<Bitmap> bitmaps = new ArrayList<>();
+        for (String resourceName : resourceNames) {
+            Bitmap bitmap = loadMarker(context, resourceName);
+            if (bitmap != null) {
+                names.add(resourceName);
+                bitmaps.add(bitmap);
+            }
+        }
+
+        //shelf packing: lay the images out left to right, starting a new row when the current one is full
+        Rect[] rects = new Rect[bitmaps.size()];
+        int x = 0;
+        int y = 0;
+        int rowHeight = 0;
+        int atlasWidth = 1;
+        for (int n = 0; n < bitmaps.size(); n++) {
+            Bitmap bitmap = bitmaps.get(n);
+            if (x > 0 && x + bitmap.getWidth() > MAX_WIDTH) {
+                x = 0;
+                y += rowHeight + PADDING;
+                rowHeight = 0;
+            }
+            rects[n] = new Rect(x, y, x + bitmap.getWidth(), y + bitmap.getHeight());
+            x += bitmap.getWidth() + PADDING;
+            rowHeight = Math.max(rowHeight, bitmap.getHeight());
+            atlasWidth = Math.max(atlasWidth, rects[n].right);
+        }
+        int atlasHeight = Math.max(1, y + rowHeight);
+
+        Bitmap atlas = Bitmap.createBitmap(atlasWidth, atlasHeight, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(atlas);
+        for (int n = 0; n < bitmaps.size(); n++) {
+            canvas.drawBitmap(bitmaps.get(n), rects[n].left, rects[n].top, null);
+            bitmaps.get(n).recycle();
+        }
+
+        Log.d(LOG_TAG, "Packed marker atlas of " + atlasWidth + "x" + atlasHeight);
+        return new MarkerAtlas(atlas, names.toArray(new String[names.size()]), rects);
+    }
+
+    @Nullable
+    private static Bitmap loadMarker(Context context, String resourceName) {
+        int resourceId = context.getResources().getIdentifier(resourceName, "drawable", context.getPackageName());
+        if (resourceId == 0) {
+            Log.e(LOG_TAG, "Marker resource not found: " + resourceName);
+            return null;
+        }
+        Bitmap source = BitmapFactory.decodeResource(context.getResources(), resourceId);
+        if (source == null) {
+            Log.e(LOG_TAG, "Unable to decode marker resource: " + resourceName);
+            return null;
+        }
+        Bitmap bitmap = ImageHelper.resizeBitmapForDeviceDensity(context, source);
+        if (bitmap != source) {
+            source.recycle();
+        }
+        return bitmap;
+    }
+
+    // earlier versions kept every scaled marker as a separate PNG next to the cache
+    private static void deleteLegacyImages(Context context) {
+        File[] files = context.getDir("images", Context.MODE_PRIVATE).listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.getName().endsWith(".png") && !file.delete()) {
+                Log.w(LOG_TAG, "Unable to delete " + file);
+            }
+        }
+    }
+
+    @Nullable
+    private Rect findRect(@Nullable String name) {
+        if (name == null) {
+            return null;
+        }
+        for (int n = 0; n < names.length; n++) {
+            if (names[n].equals(name)) {
+                return rects[n];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The area of the atlas holding the given emoji, or null if there is none (e.g. Face.EMOJI.UNKNOWN).
+     */
+    @Nullable
+    public Rect getEmojiRect(@NonNull Face.EMOJI emoji) {
+        return emojiRects[emoji.ordinal()];
+    }
+
+    /**
+     * The area of the atlas holding the given appearance marker, or null if there is none.
+     */
+    @Nullable
+    public Rect getAppearanceRect(@NonNull Face.GENDER gender, @Nullable Face.GLASSES glasses) {
+        return appearanceRects[appearanceIndex(gender, glasses)];
+    }
+
+    /**
+     * Draw the given area of the atlas with its top left corner at (x, y).
+     */
+    public void draw(@NonNull Canvas canvas, @NonNull Rect source, float x, float y) {
+        if (atlas.isRecycled()) {
+            return;
+        }
+        destination.set(x, y, x + source.width(), y + source.height());
+        canvas.drawBitmap(atlas, source, destination, null);
+    }
+
+    public void recycle() {
+        atlas.recycle();
+    }
+}
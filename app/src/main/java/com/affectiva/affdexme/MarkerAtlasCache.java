@@ -0,0 +1,201 @@
+/**
+ * Copyright (c) 2016 Affectiva Inc.
+ * See the file license.txt for copying permission.
+ */
+
+package com.affectiva.affdexme;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Keeps the packed, density-scaled pixels of the MarkerAtlas in a single binary file, so that later launches
+ * map the file and copy the pixels straight into a Bitmap instead of decoding and scaling every image.
+ * <p>
+ * The cache is only valid for the app version and screen density it was built with; when either changes it
+ * is rebuilt. File layout (little endian, except for the pixels which are in Bitmap memory order):
+ * <pre>
+ * header:   int MAGIC, int FORMAT_VERSION, int app version code, float density,
+ *           int atlas width, int atlas height, int entry count, int offset of the pixels
+ * manifest: for each entry: short name length, UTF-8 name, int left, int top, int right, int bottom
+ * pixels:   width * height ARGB_8888 pixels, as written by Bitmap.copyPixelsToBuffer()
+ * </pre>
+ */
+class MarkerAtlasCache {
+
+    static final int MAGIC = 0x41464d43; // "AFMC"
+    static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 8 * 4;
+    private static final String FILE_NAME = "markers.cache";
+    private static final String LOG_TAG = "AffdexMe";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private MarkerAtlasCache() {
+    }
+
+    static File getCacheFile(@NonNull Context context) {
+        return new File(context.getDir("images", Context.MODE_PRIVATE), FILE_NAME);
+    }
+
+    private static int getAppVersionCode(Context context) {
+        try {
+            return context.getPackageManager().getPackageInfo(context.getPackageName(), 0).versionCode;
+        } catch (PackageManager.NameNotFoundException e) {
+            return 0;
+        }
+    }
+
+    private static float getDensity(Context context) {
+        return context.getResources().getDisplayMetrics().density;
+    }
+
+    private static boolean isHeaderValid(Context context, MappedByteBuffer buffer, long fileLength) {
+        if (buffer.remaining() < HEADER_SIZE
+                || buffer.getInt(0) != MAGIC
+                || buffer.getInt(4) != FORMAT_VERSION
+                || buffer.getInt(8) != getAppVersionCode(context)
+                || buffer.getFloat(12) != getDensity(context)) {
+            return false;
+        }
+        long pixelBytes = 4L * buffer.getInt(16) * buffer.getInt(20);
+        return buffer.getInt(28) + pixelBytes == fileLength;
+    }
+
+    /**
+     * Load the atlas from the cache.
+     *
+     * @return null if the cache is missing, stale or unreadable
+     */
+    @Nullable
+    static MarkerAtlas load(@NonNull Context context) {
+        File file = getCacheFile(context);
+        if (!file.exists()) {
+            return null;
+        }
+
+        RandomAccessFile input = null;
+        Bitmap atlasBitmap = null;
+        try {
+            input = new RandomAccessFile(file, "r");
+            MappedByteBuffer buffer = input.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, input.length());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (!isHeaderValid(context, buffer, input.length())) {
+                Log.d(LOG_TAG, "Marker cache is stale");
+                return null;
+            }
+
+            buffer.position(HEADER_SIZE - 4 * 4);
+            int width = buffer.getInt();
+            int height = buffer.getInt();
+            int entryCount = buffer.getInt();
+            int pixelOffset = buffer.getInt();
+
+            String[] names = new String[entryCount];
+            Rect[] rects = new Rect[entryCount];
+            for (int n = 0; n < entryCount; n++) {
+                byte[] nameBytes = new byte[buffer.getShort()];
+                buffer.get(nameBytes);
+                names[n] = new String(nameBytes, UTF_8);
+                rects[n] = new Rect(buffer.getInt(), buffer.getInt(), buffer.getInt(), buffer.getInt());
+            }
+
+            atlasBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            buffer.position(pixelOffset);
+            atlasBitmap.copyPixelsFromBuffer(buffer);
+            return new MarkerAtlas(atlasBitmap, names, rects);
+        } catch (IOException | RuntimeException e) {
+            Log.e(LOG_TAG, "Unable to load marker cache, it will be rebuilt", e);
+            if (atlasBitmap != null) {
+                atlasBitmap.recycle();
+            }
+            return null;
+        } finally {
+            close(input);
+        }
+    }
+
+    /**
+     * Write the atlas to the cache. The file is written under a temporary name and renamed once complete, so a
+     * process killed mid-write leaves no half-written cache behind.
+     */
+    static void save(@NonNull Context context, @NonNull Bitmap atlasBitmap, @NonNull String[] names, @NonNull Rect[] rects) {
+        byte[][] nameBytes = new byte[names.length][];
+        int manifestSize = 0;
+        for (int n = 0; n < names.length; n++) {
+            nameBytes[n] = names[n].getBytes(UTF_8);
+            manifestSize += 2 + nameBytes[n].length + 4 * 4;
+        }
+        int pixelOffset = HEADER_SIZE + manifestSize;
+        long length = pixelOffset + (long) atlasBitmap.getByteCount();
+
+        File file = getCacheFile(context);
+        File temporaryFile = new File(file.getPath() + ".tmp");
+        RandomAccessFile output = null;
+        try {
+            output = new RandomAccessFile(temporaryFile, "rw");
+            output.setLength(length);
+            MappedByteBuffer buffer = output.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+            buffer.putInt(MAGIC);
+            buffer.putInt(FORMAT_VERSION);
+            buffer.putInt(getAppVersionCode(context));
+            buffer.putFloat(getDensity(context));
+            buffer.putInt(atlasBitmap.getWidth());
+            buffer.putInt(atlasBitmap.getHeight());
+            buffer.putInt(names.length);
+            buffer.putInt(pixelOffset);
+
+            for (int n = 0; n < names.length; n++) {
+                buffer.putShort((short) nameBytes[n].length);
+                buffer.put(nameBytes[n]);
+                buffer.putInt(rects[n].left);
+                buffer.putInt(rects[n].top);
+                buffer.putInt(rects[n].right);
+                buffer.putInt(rects[n].bottom);
+            }
+
+            atlasBitmap.copyPixelsToBuffer(buffer);
+            buffer.force();
+        } catch (IOException | RuntimeException e) {
+            Log.e(LOG_TAG, "Unable to write marker cache", e);
+            close(output);
+            output = null;
+            if (!temporaryFile.delete()) {
+                Log.w(LOG_TAG, "Unable to delete " + temporaryFile);
+            }
+            return;
+        } finally {
+            close(output);
+        }
+
+        if (!temporaryFile.renameTo(file)) {
+            Log.e(LOG_TAG, "Unable to move marker cache into place: " + file);
+        } else {
+            Log.d(LOG_TAG, "Wrote marker cache: " + file + " (" + length + " bytes)");
+        }
+    }
+
+    private static void close(@Nullable RandomAccessFile file) {
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Exception while closing marker cache", e);
+            }
+        }
+    }
+}
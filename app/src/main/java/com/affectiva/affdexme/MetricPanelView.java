@@ -0,0 +1,276 @@
+/**
+ * Copyright (c) 2016 Affectiva Inc.
+ * See the file license.txt for copying permission.
+ */
+
+package com.affectiva.affdexme;
+
+import android.content.Context;
+import android.content.res.TypedArray;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.Typeface;
+import android.util.AttributeSet;
+import android.view.View;
+
+import java.util.Arrays;
+
+/**
+ * Draws every metric slot of the metric panel, each a name above a score on a colored bar, in a single view.
+ * <p>
+ * The slots are split into a left and a right column, the first half of the slots on the left. Where every row is
+ * drawn is computed once per size, slot count or name change (layoutSlots()), not on every draw. Showing a new score
+ * only invalidates the bar of that slot, and only if the rounded score changed. Any number of slots can be shown
+ * without adding views to the hierarchy.
+ */
+public class MetricPanelView extends View {
+
+    private static final int MAX_PERCENT = 100;
+    private static final int NAME_SHADOW_COLOR = Color.BLACK;
+    private static final float NAME_SHADOW_DY = 2;
+    private static final float NAME_SHADOW_RADIUS = 1;
+    //"-100%" to "100%", indexed by percent + MAX_PERCENT, so that showing a score allocates nothing
+    private static final char[][] PERCENT_TEXTS = new char[2 * MAX_PERCENT + 1][];
+
+    static {
+        for (int n = -MAX_PERCENT; n <= MAX_PERCENT; n++) {
+            PERCENT_TEXTS[n + MAX_PERCENT] = (n + "%").toCharArray();
+        }
+    }
+
+    private Paint namePaint;
+    private Paint valuePaint;
+    private Paint barPaint;
+    private float barLength = 100;
+    private int valueHeight = 15; //height of the bar, as large as the value text
+
+    // per slot
+    private int slotCount = 0;
+    private MetricsManager.Metrics[] metrics = new MetricsManager.Metrics[0];
+    private String[] names = new String[0];
+    private boolean[] isShaded = new boolean[0]; //shaded slots (valence) color their bar according to the score
+    private int[] shownPercents = new int[0]; //rounded score shown, Integer.MIN_VALUE if none
+    private int[] barColors = new int[0];
+
+    // layout cache, per slot
+    private Rect[] barBounds = new Rect[0]; //area invalidated when the score changes
+    private float[] centerXs = new float[0];
+    private float[] nameBaselines = new float[0];
+    private float[] valueBaselines = new float[0];
+    private boolean isLayoutNeeded = true;
+
+    public MetricPanelView(Context context) {
+        super(context);
+        initResources(context, null);
+    }
+
+    public MetricPanelView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        initResources(context, attrs);
+    }
+
+    public MetricPanelView(Context context, AttributeSet attrs, int styleID) {
+        super(context, attrs, styleID);
+        initResources(context, attrs);
+    }
+
+    void initResources(Context context, AttributeSet attrs) {
+        namePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        namePaint.setTextAlign(Paint.Align.CENTER);
+        namePaint.setTypeface(Typeface.DEFAULT_BOLD);
+        namePaint.setShadowLayer(NAME_SHADOW_RADIUS, 0, NAME_SHADOW_DY, NAME_SHADOW_COLOR);
+
+        valuePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        valuePaint.setStyle(Paint.Style.FILL);
+        valuePaint.setTextAlign(Paint.Align.CENTER);
+
+        barPaint = new Paint();
+        barPaint.setStyle(Paint.Style.FILL);
+
+        int slots = MainActivity.NUM_METRICS_DISPLAYED;
+        int nameTextSize = 14;
+        int valueTextSize = 15;
+
+        //load and parse XML attributes
+        if (attrs != null) {
+            TypedArray a = context.obtainStyledAttributes(attrs, R.styleable.metric_panel_attributes, 0, 0);
+            slots = a.getInt(R.styleable.metric_panel_attributes_slotCount, slots);
+            namePaint.setColor(a.getColor(R.styleable.metric_panel_attributes_nameTextColor, Color.BLACK));
+            nameTextSize = a.getDimensionPixelSize(R.styleable.metric_panel_attributes_nameTextSize, nameTextSize);
+            valuePaint.setColor(a.getColor(R.styleable.metric_panel_attributes_textColor, Color.BLACK));
+            valueTextSize = a.getDimensionPixelSize(R.styleable.metric_panel_attributes_textSize, valueTextSize);
+            barLength = a.getDimensionPixelSize(R.styleable.metric_panel_attributes_metricBarLength, 100);
+            a.recycle();
+        } else {
+            namePaint.setColor(Color.BLACK);
+            valuePaint.setColor(Color.BLACK);
+        }
+        namePaint.setTextSize(nameTextSize);
+        valuePaint.setTextSize(valueTextSize);
+        valueHeight = valueTextSize;
+
+        setSlotCount(slots);
+    }
+
+    /**
+     * Change the number of slots, keeping the metrics of the slots that remain.
+     */
+    public void setSlotCount(int count) {
+        if (count == slotCount) {
+            return;
+        }
+        metrics = Arrays.copyOf(metrics, count);
+        names = Arrays.copyOf(names, count);
+        isShaded = Arrays.copyOf(isShaded, count);
+        shownPercents = Arrays.copyOf(shownPercents, count);
+        barColors = Arrays.copyOf(barColors, count);
+        barBounds = Arrays.copyOf(barBounds, count);
+        centerXs = Arrays.copyOf(centerXs, count);
+        nameBaselines = Arrays.copyOf(nameBaselines, count);
+        valueBaselines = Arrays.copyOf(valueBaselines, count);
+        for (int n = slotCount; n < count; n++) {
+            names[n] = "";
+            shownPercents[n] = Integer.MIN_VALUE;
+            barColors[n] = Color.GREEN;
+            barBounds[n] = new Rect();
+        }
+        slotCount = count;
+        requestSlotLayout();
+    }
+
+    public int getSlotCount() {
+        return slotCount;
+    }
+
+    public void setMetricToDisplay(int slot, MetricsManager.Metrics metric) {
+        metrics[slot] = metric;
+    }
+
+    public MetricsManager.Metrics getMetricToDisplay(int slot) {
+        return metrics[slot];
+    }
+
+    public void setMetricName(int slot, String name) {
+        if (!name.equals(names[slot])) {
+            names[slot] = name;
+            requestSlotLayout(); //the column may have to widen
+        }
+    }
+
+    void setIsShadedMetricView(int slot, boolean b) {
+        isShaded[slot] = b;
+        if (!b) {
+            barColors[slot] = Color.GREEN;
+        }
+        shownPercents[slot] = Integer.MIN_VALUE; //the bar color has to be recomputed
+    }
+
+    public void setTypeface(Typeface face) {
+        namePaint.setTypeface(Typeface.create(face, Typeface.BOLD));
+        valuePaint.setTypeface(face);
+        requestSlotLayout();
+    }
+
+    /**
+     * Show the given score in the given slot, rounded to the nearest percent. Only the bar of that slot is redrawn,
+     * and only if the rounded score changed.
+     */
+    public void setScore(int slot, float score) {
+        int percent = Math.max(-MAX_PERCENT, Math.min(MAX_PERCENT, Math.round(score)));
+        if (percent == shownPercents[slot]) {
+            return;
+        }
+        shownPercents[slot] = percent;
+
+        //shading mode is turned on for Valence, which causes the bar to shade its color according to the score
+        if (isShaded[slot]) {
+            if (percent > 0) {
+                int colorScore = (int) (((100f - percent) / 100f) * 255);
+                barColors[slot] = Color.rgb(colorScore, 255, colorScore);
+            } else {
+                int colorScore = (int) (((100f + percent) / 100f) * 255);
+                barColors[slot] = Color.rgb(255, colorScore, colorScore);
+            }
+        }
+
+        if (isLayoutNeeded) {
+            invalidate();
+        } else {
+            invalidate(barBounds[slot]);
+        }
+    }
+
+    private void requestSlotLayout() {
+        isLayoutNeeded = true;
+        invalidate();
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldW, int oldH) {
+        super.onSizeChanged(w, h, oldW, oldH);
+        isLayoutNeeded = true;
+    }
+
+    /**
+     * Compute where every slot is drawn. As in a vertical LinearLayout, each row is a name taking an equal share of
+     * the column's height above a bar as tall as the value text.
+     */
+    private void layoutSlots() {
+        isLayoutNeeded = false;
+        int rowsPerColumn = (slotCount + 1) / 2;
+        if (rowsPerColumn == 0) {
+            return;
+        }
+        float columnHeight = getHeight() - getPaddingTop() - getPaddingBottom();
+        float rowHeight = columnHeight / rowsPerColumn;
+        float nameHeight = Math.max(0, rowHeight - valueHeight);
+        Paint.FontMetrics nameMetrics = namePaint.getFontMetrics();
+
+        float leftWidth = getColumnWidth(0, rowsPerColumn);
+        float rightWidth = getColumnWidth(rowsPerColumn, slotCount);
+        for (int n = 0; n < slotCount; n++) {
+            boolean isLeft = n < rowsPerColumn;
+            int row = isLeft ? n : n - rowsPerColumn;
+            centerXs[n] = isLeft ? getPaddingLeft() + leftWidth / 2 : getWidth() - getPaddingRight() - rightWidth / 2;
+            float rowTop = getPaddingTop() + row * rowHeight;
+            nameBaselines[n] = rowTop + (nameHeight - nameMetrics.ascent - nameMetrics.descent) / 2;
+            float barTop = rowTop + nameHeight;
+            valueBaselines[n] = barTop + valueHeight - valuePaint.descent();
+            barBounds[n].set((int) (centerXs[n] - barLength / 2) - 1, (int) barTop,
+                    (int) Math.ceil(centerXs[n] + barLength / 2) + 1, (int) Math.ceil(barTop + valueHeight));
+        }
+    }
+
+    private float getColumnWidth(int firstSlot, int endSlot) {
+        float width = barLength;
+        for (int n = firstSlot; n < endSlot; n++) {
+            width = Math.max(width, namePaint.measureText(names[n]));
+        }
+        return width;
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        if (isLayoutNeeded) {
+            layoutSlots();
+        }
+        for (int n = 0; n < slotCount; n++) {
+            canvas.drawText(names[n], centerXs[n], nameBaselines[n], namePaint);
+            int percent = shownPercents[n];
+            if (percent == Integer.MIN_VALUE) {
+                continue;
+            }
+
+            //draws the colored bar that appears behind the score; it grows from the center with the magnitude of the score
+            float halfBar = barLength / 2 * Math.abs(percent) / 100f;
+            barPaint.setColor(barColors[n]);
+            canvas.drawRect(centerXs[n] - halfBar, barBounds[n].top, centerXs[n] + halfBar, barBounds[n].top + valueHeight, barPaint);
+            //draws the score
+            char[] text = PERCENT_TEXTS[percent + MAX_PERCENT];
+            canvas.drawText(text, 0, text.length, centerXs[n], valueBaselines[n], valuePaint);
+        }
+    }
+}
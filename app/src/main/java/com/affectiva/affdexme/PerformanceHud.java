@@ -0,0 +1,123 @@
+/**
+ * Copyright (c) 2016 Affectiva Inc.
+ * See the file license.txt for copying permission.
+ */
+
+package com.affectiva.affdexme;
+
+import android.support.annotation.NonNull;
+import android.view.View;
+import android.widget.TextView;
+
+/**
+ * Shows the statistics of a PerformanceMonitor over the last second, refreshed twice a second while visible:
+ * camera and processed frame rates, the overlay's draw rate, the latency from results to the overlay frame showing
+ * them, how far the predicted tracking dots were from the next result (and how far they would have been without
+ * prediction), long UI frames and garbage collections, along with the process rate chosen by the
+ * ProcessRateGovernor, the queue of the ResultProcessor and the duration of the last detector reconfiguration.
+ * <p>
+ * All methods must be called on the main thread.
+ */
+public class PerformanceHud {
+
+    private static final long REFRESH_PERIOD_MILLIS = 500;
+
+    private final TextView textView;
+    private final PerformanceMonitor monitor;
+    private final ProcessRateGovernor governor;
+    private final DetectorManager detectorManager;
+    private final ResultProcessor resultProcessor;
+    private final PerformanceMonitor.Snapshot snapshot = new PerformanceMonitor.Snapshot();
+    private final StringBuilder text = new StringBuilder();
+    private boolean isVisible = false;
+    private final Runnable refresher = new Runnable() {
+        @Override
+        public void run() {
+            refresh();
+            textView.postDelayed(this, REFRESH_PERIOD_MILLIS);
+        }
+    };
+
+    public PerformanceHud(@NonNull TextView textView, @NonNull PerformanceMonitor monitor, @NonNull ProcessRateGovernor governor,
+                          @NonNull DetectorManager detectorManager, @NonNull ResultProcessor resultProcessor) {
+        this.textView = textView;
+        this.monitor = monitor;
+        this.governor = governor;
+        this.detectorManager = detectorManager;
+        this.resultProcessor = resultProcessor;
+    }
+
+    /**
+     * Show or hide the HUD. While hidden, nothing is computed.
+     */
+    public void setVisible(boolean isVisible) {
+        if (isVisible == this.isVisible) {
+            return;
+        }
+        this.isVisible = isVisible;
+        monitor.setGcWatched(isVisible);
+        textView.removeCallbacks(refresher);
+        if (isVisible) {
+            textView.setVisibility(View.VISIBLE);
+            refresher.run();
+        } else {
+            textView.setVisibility(View.GONE);
+        }
+    }
+
+    public boolean isVisible() {
+        return isVisible;
+    }
+
+    /**
+     * Set the display's vsync period, used to recognize long UI frames.
+     */
+    public void setUiFramePeriod(long periodNanos) {
+        snapshot.setUiFramePeriod(periodNanos);
+    }
+
+    void refresh() {
+        monitor.snapshot(System.nanoTime(), PerformanceMonitor.DEFAULT_WINDOW_NANOS, snapshot);
+
+        text.setLength(0);
+        text.append("camera   ");
+        appendTenths(snapshot.cameraFps).append(" fps\n");
+        text.append("detector ");
+        appendTenths(snapshot.processedFps).append(" fps, rate ").append(governor.getRate());
+        if (governor.isEnabled()) {
+            text.append(" (adaptive, queue ").append(Math.round(governor.getLastQueueDelayMillis())).append(" ms)");
+        }
+        text.append('\n');
+        text.append("results  queue ").append(resultProcessor.getQueueDepth())
+                .append(", peak ").append(resultProcessor.getAndResetPeakQueueDepth()).append('\n');
+        text.append("overlay  ");
+        appendTenths(snapshot.overlayFps).append(" fps\n");
+        text.append("latency  ");
+        if (snapshot.latencyCount > 0) {
+            text.append("p50 ").append(Math.round(snapshot.latencyP50Millis))
+                    .append(" p95 ").append(Math.round(snapshot.latencyP95Millis))
+                    .append(" max ").append(Math.round(snapshot.latencyMaxMillis)).append(" ms\n");
+        } else {
+            text.append("-\n");
+        }
+        text.append("predict  ");
+        if (snapshot.residualCount > 0) {
+            appendTenths(snapshot.predictedErrorMean).append(" px off, ");
+            appendTenths(snapshot.heldErrorMean).append(" held\n");
+        } else {
+            text.append("-\n");
+        }
+        text.append("ui       ").append(snapshot.longUiFrameCount).append(" long of ")
+                .append(snapshot.uiFrameCount).append(" frames\n");
+        text.append("gc       ").append(snapshot.gcCount).append('\n');
+        text.append("reconfig ");
+        appendTenths(detectorManager.getLastReconfigurationMillis()).append(" ms");
+        textView.setText(text);
+    }
+
+    //appends a non-negative value with one decimal, without going through String.format()
+    private StringBuilder appendTenths(float value) {
+        int tenths = Math.max(0, Math.round(value * 10));
+        return text.append(tenths / 10).append('.').append(tenths % 10);
+    }
+}
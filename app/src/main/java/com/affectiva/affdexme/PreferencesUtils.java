@@ -8,31 +8,45 @@ package com.affectiva.affdexme;
 import android.content.SharedPreferences;
 import android.util.Log;
 
+import java.util.Locale;
+
 /**
  * A helper class to translate strings held in preferences into values to be used by the application.
+ * The strings themselves are parsed by PreferenceParser; invalid values are replaced by their defaults here.
  */
 public class PreferencesUtils {
 
-    static final int DEFAULT_FPS = 20;
     private final static String LOG_TAG = "AffdexMe";
 
     /**
      * Attempt to parse and return FPS set by user. If the FPS is invalid, we set it to be the default FPS.
      */
     public static int getFrameProcessingRate(SharedPreferences pref) {
-        String rateString = pref.getString("rate", String.valueOf(DEFAULT_FPS));
-        int toReturn;
-        try {
-            toReturn = Integer.parseInt(rateString);
-        } catch (Exception e) {
-            saveFrameProcessingRate(pref, DEFAULT_FPS);
-            return DEFAULT_FPS;
+        String rateString = pref.getString("rate", String.valueOf(PreferenceParser.DEFAULT_FPS));
+        int toReturn = PreferenceParser.parseInt(rateString, 1, Integer.MAX_VALUE);
+        if (toReturn > 0) {
+            return toReturn;
+        } else {
+            saveFrameProcessingRate(pref, PreferenceParser.DEFAULT_FPS);
+            return PreferenceParser.DEFAULT_FPS;
         }
+    }
+
+    /**
+     * Attempt to parse and return the lowest FPS the adaptive rate governor may use. If it is invalid, or above
+     * the maximum, we set it to be the default (clamped to the maximum).
+     */
+    public static int getMinFrameProcessingRate(SharedPreferences pref, int maxRate) {
+        String rateString = pref.getString("min_rate", String.valueOf(PreferenceParser.DEFAULT_MIN_FPS));
+        int toReturn = PreferenceParser.parseInt(rateString, 1, maxRate);
         if (toReturn > 0) {
             return toReturn;
         } else {
-            saveFrameProcessingRate(pref, DEFAULT_FPS);
-            return DEFAULT_FPS;
+            toReturn = Math.min(PreferenceParser.DEFAULT_MIN_FPS, maxRate);
+            SharedPreferences.Editor editor = pref.edit();
+            editor.putString("min_rate", String.valueOf(toReturn));
+            editor.commit();
+            return toReturn;
         }
     }
 
@@ -42,73 +56,68 @@ public class PreferencesUtils {
         editor.commit();
     }
 
-    public static MetricsManager.Metrics getMetricFromPrefs(SharedPreferences pref, int index) {
-        MetricsManager.Metrics metric;
-        try {
-            String stringFromPref = pref.getString(String.format("metric_display_%d", index), defaultMetric(index).toString());
-            metric = parseSavedMetric(stringFromPref);
-        } catch (IllegalArgumentException e) {
-            metric = defaultMetric(index);
-            SharedPreferences.Editor editor = pref.edit();
-            editor.putString(String.format("metric_display_%d", index), defaultMetric(index).toString());
-            editor.commit();
+    /**
+     * Return the score smoothing filter chosen by the user, or NONE if the saved value is not recognized.
+     */
+    public static ScoreSmoother.Mode getSmoothingMode(SharedPreferences pref) {
+        String modeString = pref.getString("smoothing", "none");
+        ScoreSmoother.Mode mode = PreferenceParser.parseSmoothingMode(modeString);
+        if (mode == null) {
+            Log.w(LOG_TAG, "Unknown smoothing mode: " + modeString);
+            return ScoreSmoother.Mode.NONE;
         }
-        return metric;
+        return mode;
     }
 
-    public static void saveMetricToPrefs(SharedPreferences.Editor editor, int index, MetricsManager.Metrics metric) {
-        if (metric.getType().equals(MetricsManager.MetricType.Emoji)) {
-            MetricsManager.Emojis emoji = (MetricsManager.Emojis) metric;
-            editor.putString(String.format("metric_display_%d", index), emoji.getDisplayName());
+    /**
+     * Attempt to parse and return the smoothing window set by user. If it is invalid, we set it to be the default.
+     */
+    public static int getSmoothingWindow(SharedPreferences pref) {
+        String windowString = pref.getString("smoothing_window", String.valueOf(ScoreSmoother.DEFAULT_WINDOW));
+        int toReturn = PreferenceParser.parseInt(windowString, 1, ScoreSmoother.MAX_WINDOW);
+        if (toReturn > 0) {
+            return toReturn;
         } else {
-            editor.putString(String.format("metric_display_%d", index), metric.toString());
-        }
-    }
-
-    static private MetricsManager.Metrics defaultMetric(int index) {
-        switch (index) {
-            case 0:
-                return MetricsManager.Emotions.ANGER;
-            case 1:
-                return MetricsManager.Emotions.DISGUST;
-            case 2:
-                return MetricsManager.Emotions.FEAR;
-            case 3:
-                return MetricsManager.Emotions.JOY;
-            case 4:
-                return MetricsManager.Emotions.SADNESS;
-            case 5:
-                return MetricsManager.Emotions.SURPRISE;
+            SharedPreferences.Editor editor = pref.edit();
+            editor.putString("smoothing_window", String.valueOf(ScoreSmoother.DEFAULT_WINDOW));
+            editor.commit();
+            return ScoreSmoother.DEFAULT_WINDOW;
         }
-
-        return MetricsManager.Emotions.ANGER;
     }
 
     /**
-     * We attempt to parse the string as any known metric.
+     * Return the share of the time since the last processed frame over which tracking dots are extrapolated, from
+     * the percentage set by user. If it is invalid, we turn prediction off.
      */
-    static MetricsManager.Metrics parseSavedMetric(String metricString) throws IllegalArgumentException {
-        try {
-            MetricsManager.Emotions emotion;
-            emotion = MetricsManager.Emotions.valueOf(metricString);
-            return emotion;
-        } catch (IllegalArgumentException emotionParseFailed) {
-            Log.v(LOG_TAG, "Not an Emotion...");
-        }
-        try {
-            MetricsManager.Expressions expression;
-            expression = MetricsManager.Expressions.valueOf(metricString);
-            return expression;
-        } catch (IllegalArgumentException expressionParseFailed) {
-            Log.v(LOG_TAG, "Not an Expression...");
+    public static float getLandmarkPrediction(SharedPreferences pref) {
+        String percentString = pref.getString("landmark_prediction", "0");
+        int percent = PreferenceParser.parseInt(percentString, 0, 100);
+        if (percent < 0) {
+            SharedPreferences.Editor editor = pref.edit();
+            editor.putString("landmark_prediction", "0");
+            editor.commit();
+            percent = 0;
         }
+        return percent / 100f;
+    }
+
+    public static MetricsManager.Metrics getMetricFromPrefs(SharedPreferences pref, int index) {
+        MetricsManager.Metrics metric;
+        String key = String.format(Locale.US, "metric_display_%d", index);
         try {
-            MetricsManager.Emojis emoji;
-            emoji = MetricsManager.Emojis.getEnum(metricString);
-            return emoji;
-        } catch (IllegalArgumentException expressionParseFailed) {
-            Log.v(LOG_TAG, "Not an Emoji...");
+            String stringFromPref = pref.getString(key, PreferenceParser.toSavedString(PreferenceParser.defaultMetric(index)));
+            metric = PreferenceParser.parseSavedMetric(stringFromPref);
+        } catch (IllegalArgumentException e) {
+            Log.v(LOG_TAG, "Saved metric not recognized, using the default one", e);
+            metric = PreferenceParser.defaultMetric(index);
+            SharedPreferences.Editor editor = pref.edit();
+            editor.putString(key, PreferenceParser.toSavedString(metric));
+            editor.commit();
         }
-        throw new IllegalArgumentException("String did not match any known metric");
+        return metric;
+    }
+
+    public static void saveMetricToPrefs(SharedPreferences.Editor editor, int index, MetricsManager.Metrics metric) {
+        editor.putString(String.format(Locale.US, "metric_display_%d", index), PreferenceParser.toSavedString(metric));
     }
 }
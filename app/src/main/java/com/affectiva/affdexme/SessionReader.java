@@ -0,0 +1,124 @@
+/**
+ * Copyright (c) 2016 Affectiva Inc.
+ * See the file license.txt for copying permission.
+ */
+
+package com.affectiva.affdexme;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads back a session file written by SessionRecorder, one frame at a time.
+ * Consecutive records with the same elapsed time belong to the same frame. Frames in which no face was found
+ * were not recorded, so they are not replayed either.
+ * <p>
+ * Only the records counted in the header are read: the file of a session that was not stopped cleanly ends with
+ * zero-filled space that was mapped but never written.
+ */
+public class SessionReader implements ReplayFrameSource.Input {
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer buffer;
+    private final int metricCount;
+    private final int maxLandmarks;
+    private final int recordSize;
+    private final int imageWidth;
+    private final int imageHeight;
+
+    public SessionReader(File sessionFile) throws IOException {
+        file = new RandomAccessFile(sessionFile, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+            if (buffer.remaining() < SessionRecorder.HEADER_SIZE || buffer.getInt() != SessionRecorder.MAGIC) {
+                throw new IOException("Not a session file: " + sessionFile);
+            }
+            int version = buffer.getInt();
+            if (version != SessionRecorder.VERSION) {
+                throw new IOException("Unsupported session file version " + version + ": " + sessionFile);
+            }
+            metricCount = buffer.getInt();
+            maxLandmarks = buffer.getInt();
+            recordSize = buffer.getInt();
+            imageWidth = buffer.getInt();
+            imageHeight = buffer.getInt();
+            int recordCount = buffer.getInt();
+            if (recordSize != 20 + 4 * (metricCount + 2 * maxLandmarks) || imageWidth < 0 || imageHeight < 0
+                    || recordCount < 0) {
+                throw new IOException("Corrupt session file header: " + sessionFile);
+            }
+
+            //never read past the end of the file, even if it was cut short after it was recorded
+            int storedCount = (buffer.limit() - SessionRecorder.HEADER_SIZE) / recordSize;
+            buffer.limit(SessionRecorder.HEADER_SIZE + Math.min(recordCount, storedCount) * recordSize);
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public int getImageWidth() {
+        return imageWidth;
+    }
+
+    @Override
+    public int getImageHeight() {
+        return imageHeight;
+    }
+
+    public int getRecordCount() {
+        return (buffer.limit() - SessionRecorder.HEADER_SIZE) / recordSize;
+    }
+
+    @Override
+    public boolean next(ReplayFrame frame) {
+        if (buffer.remaining() < recordSize) {
+            return false;
+        }
+
+        long elapsedNanos = buffer.getLong(buffer.position());
+        frame.reset(elapsedNanos, buffer.getFloat(buffer.position() + 8));
+
+        while (buffer.remaining() >= recordSize && buffer.getLong(buffer.position()) == elapsedNanos) {
+            readRecord(frame.addFace());
+        }
+        return true;
+    }
+
+    private void readRecord(FaceSnapshot face) {
+        int start = buffer.position();
+        buffer.position(start + 12); // elapsed time and timestamp were read by next()
+        face.faceIndex = buffer.getInt();
+        int pointCount = buffer.getInt();
+
+        // files written with a different metric or landmark count are read as far as both sides agree
+        for (int n = 0; n < metricCount; n++) {
+            float score = buffer.getFloat();
+            if (n < face.scores.length) {
+                face.scores[n] = score;
+            }
+        }
+        for (int n = 0; n < 2 * maxLandmarks; n++) {
+            float coordinate = buffer.getFloat();
+            if (n < face.points.length) {
+                face.points[n] = coordinate;
+            }
+        }
+        face.pointCount = Math.min(pointCount, face.points.length / 2);
+
+        buffer.position(start + recordSize);
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+}
@@ -0,0 +1,62 @@
+/**
+ * Copyright (c) 2016 Affectiva Inc.
+ * See the file license.txt for copying permission.
+ */
+
+package com.affectiva.affdexme;
+
+/**
+ * A stand-in for the Affectiva detector that produces deterministic, plausible-looking results without looking
+ * at any pixels: every metric follows its own slow sine wave and the landmarks trace an ellipse that drifts
+ * across the image. The same seed and frame index always produce the same face, so replays can be compared
+ * run to run.
+ */
+public class SyntheticFaceDetector {
+
+    private final int imageWidth;
+    private final int imageHeight;
+    private final float[] phases = new float[MetricsManager.getMetricCount()];
+    private final float[] frequencies = new float[MetricsManager.getMetricCount()];
+    private final int valenceIndex = MetricsManager.getMetricIndex(MetricsManager.Emotions.VALENCE);
+
+    public SyntheticFaceDetector(long seed, int imageWidth, int imageHeight) {
+        this.imageWidth = imageWidth;
+        this.imageHeight = imageHeight;
+
+        // small linear congruential generator, so the sequence does not depend on the platform's Random
+        long state = seed;
+        for (int n = 0; n < phases.length; n++) {
+            state = state * 6364136223846793005L + 1442695040888963407L;
+            phases[n] = (float) (((state >>> 33) & 0xffff) / 65536.0 * 2 * Math.PI);
+            state = state * 6364136223846793005L + 1442695040888963407L;
+            frequencies[n] = 0.02f + ((state >>> 33) & 0xff) / 256f * 0.1f;
+        }
+    }
+
+    /**
+     * Fill the given face with the results for one face of one frame.
+     */
+    public void detect(long frameIndex, int faceIndex, FaceSnapshot face) {
+        face.faceIndex = faceIndex;
+
+        for (int n = 0; n < face.scores.length; n++) {
+            float wave = (float) Math.sin(frameIndex * frequencies[n] + phases[n] + faceIndex);
+            // valence ranges from -100 to 100, every other metric from 0 to 100
+            face.scores[n] = (n == valenceIndex) ? 100f * wave : 50f + 50f * wave;
+        }
+
+        int faceCountAcross = faceIndex + 1;
+        float centerX = imageWidth * (0.5f + 0.2f * (float) Math.sin(frameIndex * 0.01 + faceCountAcross));
+        float centerY = imageHeight * (0.5f + 0.1f * (float) Math.cos(frameIndex * 0.013 + faceCountAcross));
+        float radiusX = imageWidth * 0.12f;
+        float radiusY = imageHeight * 0.16f;
+
+        int pointCount = face.points.length / 2;
+        for (int n = 0; n < pointCount; n++) {
+            double angle = 2 * Math.PI * n / pointCount;
+            face.points[2 * n] = centerX + radiusX * (float) Math.cos(angle);
+            face.points[2 * n + 1] = centerY + radiusY * (float) Math.sin(angle);
+        }
+        face.pointCount = pointCount;
+    }
+}
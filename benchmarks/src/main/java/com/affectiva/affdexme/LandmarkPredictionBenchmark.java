@@ -0,0 +1,76 @@
+/**
+ * Copyright (c) 2016 Affectiva Inc.
+ * See the file license.txt for copying permission.
+ */
+
+package com.affectiva.affdexme;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Landmark prediction as done by the DrawingThread: updating a face's model with a new result (once per processed
+ * frame, at 20 fps), and projecting the points predicted for a display frame in between (once per vsync), compared
+ * with projecting the detected points.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LandmarkPredictionBenchmark {
+
+    private static final int SURFACE_WIDTH = 1080;
+    private static final int SURFACE_HEIGHT = 1920;
+    private static final long RESULT_INTERVAL_NANOS = 50000000L;
+    private static final long DISPLAY_OFFSET_NANOS = 16666667L; //the display frame following a result
+
+    private final LandmarkPredictor predictor = new LandmarkPredictor(1);
+    private final LandmarkProjector projector = new LandmarkProjector();
+    private final float scale = (float) SURFACE_WIDTH / SyntheticFaces.IMAGE_WIDTH;
+    private FaceSnapshot[] snapshots;
+    private int frame = 0;
+    private long resultNanos = 0;
+
+    @Setup
+    public void setUp() {
+        snapshots = SyntheticFaces.snapshots();
+        predictor.setPredictionFactor(1);
+        for (int n = 0; n < 2; n++) {
+            update();
+        }
+    }
+
+    @Benchmark
+    public boolean update() {
+        frame = SyntheticFaces.next(frame);
+        resultNanos += RESULT_INTERVAL_NANOS;
+        return predictor.update(0, snapshots[frame], resultNanos, false);
+    }
+
+    @Benchmark
+    public float projectDetected() {
+        return project(snapshots[frame]);
+    }
+
+    @Benchmark
+    public float projectPredicted() {
+        return project(predictor.predict(0, snapshots[frame], resultNanos + DISPLAY_OFFSET_NANOS));
+    }
+
+    private float project(FaceLandmarks face) {
+        projector.project(face, scale, SyntheticFaces.IMAGE_WIDTH, false, SURFACE_WIDTH, SURFACE_HEIGHT);
+        return projector.getLeft() + projector.getTop() + projector.getRight() + projector.getBottom();
+    }
+}
@@ -0,0 +1,56 @@
+/**
+ * Copyright (c) 2016 Affectiva Inc.
+ * See the file license.txt for copying permission.
+ */
+
+package com.affectiva.affdexme;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Projecting the landmarks of a face to screen coordinates and computing their bounding box, as the DrawingThread
+ * does for each face it draws. The surface is a 1080x1920 portrait screen showing a 640x480 camera image.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LandmarkProjectionBenchmark {
+
+    private static final int SURFACE_WIDTH = 1080;
+    private static final int SURFACE_HEIGHT = 1920;
+
+    @Param({"false", "true"})
+    public boolean mirrorPoints;
+
+    private final LandmarkProjector projector = new LandmarkProjector();
+    private final float scale = (float) SURFACE_WIDTH / SyntheticFaces.IMAGE_WIDTH;
+    private FaceSnapshot[] snapshots;
+    private int frame = 0;
+
+    @Setup
+    public void setUp() {
+        snapshots = SyntheticFaces.snapshots();
+    }
+
+    @Benchmark
+    public float project() {
+        FaceSnapshot face = snapshots[frame = SyntheticFaces.next(frame)];
+        projector.project(face, scale, SyntheticFaces.IMAGE_WIDTH, mirrorPoints, SURFACE_WIDTH, SURFACE_HEIGHT);
+        return projector.getLeft() + projector.getTop() + projector.getRight() + projector.getBottom();
+    }
+}
@@ -0,0 +1,44 @@
+/**
+ * Copyright (c) 2016 Affectiva Inc.
+ * See the file license.txt for copying permission.
+ */
+
+package com.affectiva.affdexme;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building the names of every metric, as the metric panel and the selection screen do.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetricNameBenchmark {
+
+    private static final MetricsManager.Metrics[] METRICS = MetricsManager.getAllMetrics();
+
+    @Benchmark
+    public void camelCase(Blackhole blackhole) {
+        for (MetricsManager.Metrics metric : METRICS) {
+            blackhole.consume(MetricsManager.getCamelCase(metric));
+        }
+    }
+
+    @Benchmark
+    public void capitalizedName(Blackhole blackhole) {
+        for (MetricsManager.Metrics metric : METRICS) {
+            blackhole.consume(MetricsManager.getCapitalizedName(metric));
+        }
+    }
+}
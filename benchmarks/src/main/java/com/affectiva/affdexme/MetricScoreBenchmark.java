@@ -0,0 +1,113 @@
+/**
+ * Copyright (c) 2016 Affectiva Inc.
+ * See the file license.txt for copying permission.
+ */
+
+package com.affectiva.affdexme;
+
+import com.affectiva.android.affdex.sdk.detector.Face;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading the score of every metric from a face: through reflection, as the app did before MetricAccessor,
+ * through the MetricAccessor table, and from a FaceSnapshot. fill() measures the copy from the SDK's Face to a
+ * snapshot done once per face and frame.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetricScoreBenchmark {
+
+    private final MetricsManager.Metrics[] metrics = MetricsManager.getAllMetrics();
+    private final Method[] getters = new Method[metrics.length];
+    private final MetricAccessor[] accessors = new MetricAccessor[metrics.length];
+    private final FaceSnapshot filledSnapshot = new FaceSnapshot();
+    private FaceSnapshot[] snapshots;
+    private Face[] faces;
+    private int frame = 0;
+
+    @Setup
+    public void setUp() throws NoSuchMethodException {
+        snapshots = SyntheticFaces.snapshots();
+        faces = SyntheticFaces.faces(snapshots);
+        for (int n = 0; n < metrics.length; n++) {
+            MetricsManager.Metrics metric = metrics[n];
+            getters[n] = scoresClassOf(metric).getMethod("get" + MetricsManager.getCamelCase(metric));
+            accessors[n] = MetricAccessor.forMetric(metric);
+        }
+    }
+
+    @Benchmark
+    public float reflection() throws Exception {
+        Face face = faces[frame = SyntheticFaces.next(frame)];
+        float sum = 0;
+        for (int n = 0; n < metrics.length; n++) {
+            sum += (Float) getters[n].invoke(scoresOf(face, metrics[n]));
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public float accessor() {
+        Face face = faces[frame = SyntheticFaces.next(frame)];
+        float sum = 0;
+        for (int n = 0; n < accessors.length; n++) {
+            sum += accessors[n].getScore(face);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public float snapshot() {
+        FaceSnapshot snapshot = snapshots[frame = SyntheticFaces.next(frame)];
+        float sum = 0;
+        for (int n = 0; n < metrics.length; n++) {
+            sum += snapshot.getScore(n);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public FaceSnapshot fill() {
+        filledSnapshot.fill(0, faces[frame = SyntheticFaces.next(frame)]);
+        return filledSnapshot;
+    }
+
+    private static Class<?> scoresClassOf(MetricsManager.Metrics metric) {
+        switch (metric.getType()) {
+            case Emotion:
+                return Face.Emotions.class;
+            case Expression:
+                return Face.Expressions.class;
+            default:
+                return Face.Emojis.class;
+        }
+    }
+
+    private static Object scoresOf(Face face, MetricsManager.Metrics metric) {
+        switch (metric.getType()) {
+            case Emotion:
+                return face.emotions;
+            case Expression:
+                return face.expressions;
+            default:
+                return face.emojis;
+        }
+    }
+}
@@ -0,0 +1,204 @@
+/**
+ * Copyright (c) 2016 Affectiva Inc.
+ * See the file license.txt for copying permission.
+ */
+
+package com.affectiva.affdexme;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load test of the replay path on a plain JVM: a whole session file is replayed as fast as possible by a
+ * ReplayFrameSource, and every frame goes through what the ResultProcessor and the DrawingThread do with its
+ * snapshots (score and valence smoothing, dominant emotion, projection, tracking and landmark prediction).
+ * <p>
+ * By default the session is recorded by SessionRecorder from a SyntheticFaceDetector: 600 frames (30 s at 20 fps)
+ * of faceCount faces. A session recorded on a device can be replayed instead:
+ * <pre>
+ *   ./gradlew :benchmarks:jmh -PjmhInclude=SessionReplay -PjmhParam=session=/path/to/session.afds
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SessionReplayBenchmark {
+
+    private static final int SYNTHETIC_FRAME_COUNT = 600;
+    private static final long SYNTHETIC_FRAME_INTERVAL_NANOS = 50000000L;
+    private static final int SURFACE_WIDTH = 1080;
+    private static final int SURFACE_HEIGHT = 1920;
+    private static final long PREDICTION_LEAD_NANOS = 25000000L; //a display frame halfway between two results at 20 fps
+
+    @Param({""})
+    public String session; //a session file to replay, empty to record a synthetic one
+
+    @Param({"1", "3"})
+    public int faceCount; //faces per frame of the synthetic session
+
+    private File sessionFile;
+    private boolean isSessionTemporary;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        if (!session.isEmpty()) {
+            sessionFile = new File(session);
+            return;
+        }
+        sessionFile = File.createTempFile("replay", ".afds");
+        isSessionTemporary = true;
+
+        SessionRecorder recorder = new SessionRecorder();
+        recorder.setImageSize(SyntheticFaces.IMAGE_WIDTH, SyntheticFaces.IMAGE_HEIGHT);
+        recorder.start(sessionFile);
+        SyntheticFaceDetector detector = new SyntheticFaceDetector(42, SyntheticFaces.IMAGE_WIDTH, SyntheticFaces.IMAGE_HEIGHT);
+        FaceSnapshot face = new FaceSnapshot();
+        for (int frame = 0; frame < SYNTHETIC_FRAME_COUNT; frame++) {
+            long elapsedNanos = frame * SYNTHETIC_FRAME_INTERVAL_NANOS;
+            for (int n = 0; n < faceCount; n++) {
+                detector.detect(frame, n, face);
+                recorder.record(elapsedNanos, elapsedNanos / 1e9f, face);
+            }
+        }
+        recorder.stop();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (isSessionTemporary && !sessionFile.delete()) {
+            sessionFile.deleteOnExit();
+        }
+    }
+
+    @Benchmark
+    public float replay() throws Exception {
+        SessionReader reader = new SessionReader(sessionFile);
+        ReplayPipeline pipeline = new ReplayPipeline(reader.getImageWidth());
+        ReplayFrameSource source = new ReplayFrameSource(reader, false, null);
+        source.start(pipeline);
+        pipeline.finished.await();
+        if (pipeline.error != null) {
+            throw pipeline.error;
+        }
+        return pipeline.checksum;
+    }
+
+    /**
+     * The consumers of the replayed snapshots, as run on a device by the ResultProcessor and the DrawingThread.
+     * Called on the replay thread.
+     */
+    private static class ReplayPipeline implements FrameSource.Listener {
+        private static final int MAX_TRACKED_FACES = 8;
+
+        private final CountDownLatch finished = new CountDownLatch(1);
+        private static final int VALENCE_INDEX = MetricsManager.getMetricIndex(MetricsManager.Emotions.VALENCE);
+
+        private final ScoreSmoother smoother = new ScoreSmoother(1, MetricsManager.getMetricCount());
+        private final ScoreSmoother valenceSmoother = new ScoreSmoother(MAX_TRACKED_FACES, 1);
+        private final FaceTracker imageTracker = new FaceTracker(MAX_TRACKED_FACES, 0.3f, 10);
+        private final FaceTracker tracker = new FaceTracker(MAX_TRACKED_FACES, 0.3f, 10);
+        private final LandmarkPredictor predictor = new LandmarkPredictor(MAX_TRACKED_FACES);
+        private final LandmarkProjector projector = new LandmarkProjector();
+        private final int imageWidth;
+        private final float scale;
+        private float[] imageBoxes = new float[4];
+        private float[] boxes = new float[4];
+        private volatile Exception error;
+        private float checksum;
+
+        ReplayPipeline(int imageWidth) {
+            this.imageWidth = Math.max(1, imageWidth); //0 if the session does not tell
+            scale = (float) SURFACE_WIDTH / this.imageWidth;
+            smoother.configure(ScoreSmoother.Mode.ONE_EURO, ScoreSmoother.DEFAULT_WINDOW);
+            valenceSmoother.configure(ScoreSmoother.Mode.ONE_EURO, ScoreSmoother.DEFAULT_WINDOW);
+            predictor.setPredictionFactor(1);
+        }
+
+        @Override
+        public void onFrameResults(ReplayFrame frame) {
+            int faceCount = frame.getFaceCount();
+            long nanos = frame.getElapsedNanos();
+
+            //ResultProcessor: the metric panel of a single face
+            if (faceCount == 1) {
+                FaceSnapshot face = frame.getFace(0);
+                for (int n = 0; n < MetricsManager.getMetricCount(); n++) {
+                    checksum += smoother.filter(0, n, face.getScore(n), nanos);
+                }
+            }
+
+            //ResultProcessor: valence smoothed by track and dominant emotion of every face
+            if (boxes.length < 4 * faceCount) {
+                imageBoxes = new float[4 * faceCount];
+                boxes = new float[4 * faceCount];
+            }
+            for (int n = 0; n < faceCount; n++) {
+                projector.project(frame.getFace(n), 1, 0, false, Float.MAX_VALUE, Float.MAX_VALUE);
+                imageBoxes[4 * n] = projector.getLeft();
+                imageBoxes[4 * n + 1] = projector.getTop();
+                imageBoxes[4 * n + 2] = projector.getRight();
+                imageBoxes[4 * n + 3] = projector.getBottom();
+            }
+            imageTracker.update(imageBoxes, faceCount);
+            for (int n = 0; n < faceCount; n++) {
+                FaceSnapshot face = frame.getFace(n);
+                int slot = imageTracker.getTrackSlot(n);
+                if (slot != FaceTracker.NO_TRACK) {
+                    if (imageTracker.isNewTrack(n)) {
+                        valenceSmoother.reset(slot);
+                    }
+                    checksum += valenceSmoother.filter(slot, 0, face.getScore(VALENCE_INDEX), nanos);
+                }
+                if (DominantEmotion.find(face) != null) {
+                    checksum++;
+                }
+            }
+
+            //DrawingThread: tracking, prediction and projection of every face
+            for (int n = 0; n < faceCount; n++) {
+                projector.project(frame.getFace(n), scale, imageWidth, false, SURFACE_WIDTH, SURFACE_HEIGHT);
+                boxes[4 * n] = projector.getLeft();
+                boxes[4 * n + 1] = projector.getTop();
+                boxes[4 * n + 2] = projector.getRight();
+                boxes[4 * n + 3] = projector.getBottom();
+            }
+            tracker.update(boxes, faceCount);
+            for (int n = 0; n < faceCount; n++) {
+                FaceSnapshot face = frame.getFace(n);
+                int slot = tracker.getTrackSlot(n);
+                FaceLandmarks landmarks = face;
+                if (slot != FaceTracker.NO_TRACK) {
+                    predictor.update(slot, face, nanos, tracker.isNewTrack(n));
+                    landmarks = predictor.predict(slot, face, nanos + PREDICTION_LEAD_NANOS);
+                }
+                projector.project(landmarks, scale, imageWidth, false, SURFACE_WIDTH, SURFACE_HEIGHT);
+                checksum += projector.getLeft();
+            }
+        }
+
+        @Override
+        public void onFrameSourceFinished(Exception error) {
+            this.error = error;
+            finished.countDown();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/**
+ * Copyright (c) 2016 Affectiva Inc.
+ * See the file license.txt for copying permission.
+ */
+
+package com.affectiva.affdexme;
+
+import android.graphics.PointF;
+
+import com.affectiva.android.affdex.sdk.detector.Face;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Face fixtures standing in for the detector. The snapshots come from a SyntheticFaceDetector, and each one is
+ * also turned into a Face like those the SDK delivers, so code reading SDK faces and code reading snapshots are
+ * measured on the same results.
+ * Benchmarks cycle through FRAME_COUNT frames, far enough apart that the scores (and the dominant emotion) change
+ * from one frame to the next.
+ */
+final class SyntheticFaces {
+
+    static final int FRAME_COUNT = 64; //a power of two, see next()
+    static final int IMAGE_WIDTH = 640;
+    static final int IMAGE_HEIGHT = 480;
+    private static final long SEED = 42;
+    private static final int FRAME_STRIDE = 7;
+
+    private SyntheticFaces() {
+    }
+
+    static FaceSnapshot[] snapshots() {
+        SyntheticFaceDetector detector = new SyntheticFaceDetector(SEED, IMAGE_WIDTH, IMAGE_HEIGHT);
+        FaceSnapshot[] snapshots = new FaceSnapshot[FRAME_COUNT];
+        for (int n = 0; n < FRAME_COUNT; n++) {
+            snapshots[n] = new FaceSnapshot();
+            detector.detect(n * FRAME_STRIDE, 0, snapshots[n]);
+        }
+        return snapshots;
+    }
+
+    static Face[] faces(FaceSnapshot[] snapshots) {
+        Face.GENDER[] genders = Face.GENDER.values();
+        Face.GLASSES[] glasses = Face.GLASSES.values();
+        Face.EMOJI[] emojis = Face.EMOJI.values();
+        Face[] faces = new Face[snapshots.length];
+        for (int n = 0; n < snapshots.length; n++) {
+            FaceSnapshot snapshot = snapshots[n];
+            List<PointF> points = new ArrayList<>(snapshot.getPointCount());
+            for (int p = 0; p < snapshot.getPointCount(); p++) {
+                points.add(new PointF(snapshot.getPointX(p), snapshot.getPointY(p)));
+            }
+            faces[n] = new Face(snapshot.scores.clone(), points,
+                    genders[n % genders.length], glasses[n % glasses.length], emojis[n % emojis.length]);
+        }
+        return faces;
+    }
+
+    /**
+     * @return the index of the frame following the given one
+     */
+    static int next(int frame) {
+        return (frame + 1) & (FRAME_COUNT - 1);
+    }
+}
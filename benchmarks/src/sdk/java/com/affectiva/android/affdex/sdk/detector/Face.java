@@ -0,0 +1,309 @@
+/**
+ * Copyright (c) 2016 Affectiva Inc.
+ * See the file license.txt for copying permission.
+ */
+
+package com.affectiva.android.affdex.sdk.detector;
+
+import android.graphics.PointF;
+
+import java.util.List;
+
+/**
+ * JVM stand-in for the Affectiva SDK's Face, with the members the app reads from it.
+ * Instances are built by the benchmark fixtures from a score array ordered as the app's
+ * MetricsManager.getAllMetrics() (9 emotions, then 15 expressions, then 12 emojis); each getter reads a field,
+ * like the SDK's do.
+ */
+public class Face {
+
+    private static final int EXPRESSION_OFFSET = 9;
+    private static final int EMOJI_OFFSET = 9 + 15;
+
+    public final Emotions emotions;
+    public final Expressions expressions;
+    public final Emojis emojis;
+    public final Appearance appearance;
+    private final List<PointF> facePoints;
+
+    public Face(float[] scores, List<PointF> facePoints, GENDER gender, GLASSES glasses, EMOJI dominantEmoji) {
+        emotions = new Emotions(scores);
+        expressions = new Expressions(scores);
+        emojis = new Emojis(scores, dominantEmoji);
+        appearance = new Appearance(gender, glasses);
+        this.facePoints = facePoints;
+    }
+
+    public List<PointF> getFacePoints() {
+        return facePoints;
+    }
+
+    public enum GENDER {UNKNOWN, MALE, FEMALE}
+
+    public enum GLASSES {NO, YES}
+
+    public enum EMOJI {
+        RELAXED, SMILEY, LAUGHING, KISSING, DISAPPOINTED, RAGE, SMIRK, WINK, STUCK_OUT_TONGUE_WINKING_EYE,
+        STUCK_OUT_TONGUE, FLUSHED, SCREAM, UNKNOWN
+    }
+
+    public static class Appearance {
+        private final GENDER gender;
+        private final GLASSES glasses;
+
+        Appearance(GENDER gender, GLASSES glasses) {
+            this.gender = gender;
+            this.glasses = glasses;
+        }
+
+        public GENDER getGender() {
+            return gender;
+        }
+
+        public GLASSES getGlasses() {
+            return glasses;
+        }
+    }
+
+    public static class Emotions {
+        private final float anger;
+        private final float disgust;
+        private final float fear;
+        private final float joy;
+        private final float sadness;
+        private final float surprise;
+        private final float contempt;
+        private final float engagement;
+        private final float valence;
+
+        Emotions(float[] scores) {
+            anger = scores[0];
+            disgust = scores[1];
+            fear = scores[2];
+            joy = scores[3];
+            sadness = scores[4];
+            surprise = scores[5];
+            contempt = scores[6];
+            engagement = scores[7];
+            valence = scores[8];
+        }
+
+        public float getAnger() {
+            return anger;
+        }
+
+        public float getDisgust() {
+            return disgust;
+        }
+
+        public float getFear() {
+            return fear;
+        }
+
+        public float getJoy() {
+            return joy;
+        }
+
+        public float getSadness() {
+            return sadness;
+        }
+
+        public float getSurprise() {
+            return surprise;
+        }
+
+        public float getContempt() {
+            return contempt;
+        }
+
+        public float getEngagement() {
+            return engagement;
+        }
+
+        public float getValence() {
+            return valence;
+        }
+    }
+
+    public static class Expressions {
+        private final float attention;
+        private final float browFurrow;
+        private final float browRaise;
+        private final float chinRaise;
+        private final float eyeClosure;
+        private final float innerBrowRaise;
+        private final float lipCornerDepressor;
+        private final float lipPress;
+        private final float lipPucker;
+        private final float lipSuck;
+        private final float mouthOpen;
+        private final float noseWrinkle;
+        private final float smile;
+        private final float smirk;
+        private final float upperLipRaise;
+
+        Expressions(float[] scores) {
+            int n = EXPRESSION_OFFSET;
+            attention = scores[n++];
+            browFurrow = scores[n++];
+            browRaise = scores[n++];
+            chinRaise = scores[n++];
+            eyeClosure = scores[n++];
+            innerBrowRaise = scores[n++];
+            lipCornerDepressor = scores[n++];
+            lipPress = scores[n++];
+            lipPucker = scores[n++];
+            lipSuck = scores[n++];
+            mouthOpen = scores[n++];
+            noseWrinkle = scores[n++];
+            smile = scores[n++];
+            smirk = scores[n++];
+            upperLipRaise = scores[n];
+        }
+
+        public float getAttention() {
+            return attention;
+        }
+
+        public float getBrowFurrow() {
+            return browFurrow;
+        }
+
+        public float getBrowRaise() {
+            return browRaise;
+        }
+
+        public float getChinRaise() {
+            return chinRaise;
+        }
+
+        public float getEyeClosure() {
+            return eyeClosure;
+        }
+
+        public float getInnerBrowRaise() {
+            return innerBrowRaise;
+        }
+
+        public float getLipCornerDepressor() {
+            return lipCornerDepressor;
+        }
+
+        public float getLipPress() {
+            return lipPress;
+        }
+
+        public float getLipPucker() {
+            return lipPucker;
+        }
+
+        public float getLipSuck() {
+            return lipSuck;
+        }
+
+        public float getMouthOpen() {
+            return mouthOpen;
+        }
+
+        public float getNoseWrinkle() {
+            return noseWrinkle;
+        }
+
+        public float getSmile() {
+            return smile;
+        }
+
+        public float getSmirk() {
+            return smirk;
+        }
+
+        public float getUpperLipRaise() {
+            return upperLipRaise;
+        }
+    }
+
+    public static class Emojis {
+        private final float relaxed;
+        private final float smiley;
+        private final float laughing;
+        private final float kissing;
+        private final float disappointed;
+        private final float rage;
+        private final float smirk;
+        private final float wink;
+        private final float stuckOutTongueWinkingEye;
+        private final float stuckOutTongue;
+        private final float flushed;
+        private final float scream;
+        private final EMOJI dominantEmoji;
+
+        Emojis(float[] scores, EMOJI dominantEmoji) {
+            int n = EMOJI_OFFSET;
+            relaxed = scores[n++];
+            smiley = scores[n++];
+            laughing = scores[n++];
+            kissing = scores[n++];
+            disappointed = scores[n++];
+            rage = scores[n++];
+            smirk = scores[n++];
+            wink = scores[n++];
+            stuckOutTongueWinkingEye = scores[n++];
+            stuckOutTongue = scores[n++];
+            flushed = scores[n++];
+            scream = scores[n];
+            this.dominantEmoji = dominantEmoji;
+        }
+
+        public float getRelaxed() {
+            return relaxed;
+        }
+
+        public float getSmiley() {
+            return smiley;
+        }
+
+        public float getLaughing() {
+            return laughing;
+        }
+
+        public float getKissing() {
+            return kissing;
+        }
+
+        public float getDisappointed() {
+            return disappointed;
+        }
+
+        public float getRage() {
+            return rage;
+        }
+
+        public float getSmirk() {
+            return smirk;
+        }
+
+        public float getWink() {
+            return wink;
+        }
+
+        public float getStuckOutTongueWinkingEye() {
+            return stuckOutTongueWinkingEye;
+        }
+
+        public float getStuckOutTongue() {
+            return stuckOutTongue;
+        }
+
+        public float getFlushed() {
+            return flushed;
+        }
+
+        public float getScream() {
+            return scream;
+        }
+
+        public EMOJI getDominantEmoji() {
+            return dominantEmoji;
+        }
+    }
+}
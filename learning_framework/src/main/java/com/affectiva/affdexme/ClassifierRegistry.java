@@ -0,0 +1,151 @@
+/**
+ * Copyright (c) 2016 Affectiva Inc.
+ * See the file license.txt for copying permission.
+ */
+
+package com.affectiva.affdexme;
+
+import android.support.annotation.NonNull;
+
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps track of which classifiers the application actually consumes, so the detector only computes those.
+ * <p>
+ * Every consumer of detector results (a metric display, the dominant emotion overlay, the emoji marker, the
+ * session recorder, ...) declares its Demand under its own name. The registry keeps a reference count per
+ * classifier, so when a consumer changes its demand only the classifiers it added or dropped are
+ * recomputed, and getClassifiers() is the union of all demands.
+ * <p>
+ * Classifiers are identified by an index: the metrics use their MetricsManager.getMetricIndex(), followed by
+ * the GENDER and GLASSES appearance classifiers. An instance is not thread-safe.
+ */
+public class ClassifierRegistry {
+
+    public static final int GENDER = MetricsManager.getMetricCount();
+    public static final int GLASSES = GENDER + 1;
+    public static final int CLASSIFIER_COUNT = GLASSES + 1;
+
+    private final Map<String, Demand> demands = new LinkedHashMap<>();
+    private final int[] referenceCounts = new int[CLASSIFIER_COUNT];
+    private final BitSet classifiers = new BitSet(CLASSIFIER_COUNT);
+
+    /**
+     * Replace the demand of the given consumer.
+     *
+     * @return true if the union of all demands changed
+     */
+    public boolean setDemand(@NonNull String consumer, @NonNull Demand demand) {
+        Demand previous = demands.get(consumer);
+        BitSet removed = previous == null ? new BitSet() : (BitSet) previous.classifiers.clone();
+        removed.andNot(demand.classifiers);
+        BitSet added = (BitSet) demand.classifiers.clone();
+        if (previous != null) {
+            added.andNot(previous.classifiers);
+        }
+        if (demand.classifiers.isEmpty()) {
+            demands.remove(consumer);
+        } else {
+            demands.put(consumer, demand.copy());
+        }
+
+        boolean isChanged = false;
+        for (int n = removed.nextSetBit(0); n >= 0; n = removed.nextSetBit(n + 1)) {
+            if (--referenceCounts[n] == 0) {
+                classifiers.clear(n);
+                isChanged = true;
+            }
+        }
+        for (int n = added.nextSetBit(0); n >= 0; n = added.nextSetBit(n + 1)) {
+            if (referenceCounts[n]++ == 0) {
+                classifiers.set(n);
+                isChanged = true;
+            }
+        }
+        return isChanged;
+    }
+
+    /**
+     * Drop the demand of the given consumer.
+     *
+     * @return true if the union of all demands changed
+     */
+    public boolean clearDemand(@NonNull String consumer) {
+        return setDemand(consumer, new Demand());
+    }
+
+    /**
+     * The union of all demands. The returned set must not be modified.
+     */
+    @NonNull
+    public BitSet getClassifiers() {
+        return classifiers;
+    }
+
+    public boolean isDemanded(int classifier) {
+        return classifiers.get(classifier);
+    }
+
+    /**
+     * A readable summary of the active classifiers and of who demands them, for the debug panel.
+     */
+    @NonNull
+    public String describe() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(classifiers.cardinality()).append(" of ").append(CLASSIFIER_COUNT).append(" classifiers active");
+        for (Map.Entry<String, Demand> entry : demands.entrySet()) {
+            builder.append('\n').append(entry.getKey()).append(": ");
+            BitSet demand = entry.getValue().classifiers;
+            for (int n = demand.nextSetBit(0); n >= 0; n = demand.nextSetBit(n + 1)) {
+                builder.append(getName(n));
+                if (demand.nextSetBit(n + 1) >= 0) {
+                    builder.append(", ");
+                }
+            }
+        }
+        return builder.toString();
+    }
+
+    @NonNull
+    static String getName(int classifier) {
+        if (classifier == GENDER) {
+            return "Gender";
+        } else if (classifier == GLASSES) {
+            return "Glasses";
+        }
+        return MetricsManager.getCamelCase(MetricsManager.getAllMetrics()[classifier]);
+    }
+
+    /**
+     * The classifiers one consumer reads.
+     */
+    public static class Demand {
+        private final BitSet classifiers = new BitSet(CLASSIFIER_COUNT);
+
+        public Demand add(@NonNull MetricsManager.Metrics metric) {
+            classifiers.set(MetricsManager.getMetricIndex(metric));
+            return this;
+        }
+
+        public Demand addAll(@NonNull MetricsManager.Metrics[] metrics) {
+            for (MetricsManager.Metrics metric : metrics) {
+                add(metric);
+            }
+            return this;
+        }
+
+        public Demand addAppearance() {
+            classifiers.set(GENDER);
+            classifiers.set(GLASSES);
+            return this;
+        }
+
+        Demand copy() {
+            Demand copy = new Demand();
+            copy.classifiers.or(classifiers);
+            return copy;
+        }
+    }
+}
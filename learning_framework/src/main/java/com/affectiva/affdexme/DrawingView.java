@@ -8,53 +8,43 @@ package com.affectiva.affdexme;
 import android.content.Context;
 import android.content.res.TypedArray;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.PixelFormat;
-import android.graphics.PointF;
 import android.graphics.PorterDuff;
 import android.graphics.Rect;
 import android.graphics.Typeface;
+import android.os.Looper;
 import android.os.Process;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.AttributeSet;
 import android.util.Log;
-import android.util.Pair;
+import android.view.Choreographer;
 import android.view.SurfaceHolder;
 import android.view.SurfaceView;
 import android.widget.Toast;
 
-import com.affectiva.android.affdex.sdk.detector.Face;
-
-import java.io.FileNotFoundException;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
 import java.util.Locale;
-import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This class contains a SurfaceView and its own thread that draws to it.
  * It is used to display the facial tracking dots over a user's face.
  */
-public class DrawingView extends SurfaceView implements SurfaceHolder.Callback {
+public class DrawingView extends SurfaceView implements SurfaceHolder.Callback, ResultProcessor.Overlay {
 
     private final static String LOG_TAG = "AffdexMe";
     private final float MARGIN = 4;
-    private Bitmap appearanceMarkerBitmap_genderMale_glassesOn;
-    private Bitmap appearanceMarkerBitmap_genderFemale_glassesOn;
-    private Bitmap appearanceMarkerBitmap_genderUnknown_glassesOn;
-    private Bitmap appearanceMarkerBitmap_genderUnknown_glassesOff;
-    private Bitmap appearanceMarkerBitmap_genderMale_glassesOff;
-    private Bitmap appearanceMarkerBitmap_genderFemale_glassesOff;
-    private Map<String, Bitmap> emojiMarkerBitmapToEmojiTypeMap;
+    private volatile MarkerAtlas markerAtlas; //emoji and appearance markers, none are drawn until it is set
     private SurfaceHolder surfaceHolder;
-    private DrawingThread drawingThread; //DrawingThread object
+    private volatile DrawingThread drawingThread; //replaced on the main thread, asked to render by the ResultProcessor
     private DrawingViewConfig drawingViewConfig;
     private DrawingThreadEventListener listener;
+    private final FaceResultChannel faceResultChannel = new FaceResultChannel(); //hands faces from the ResultProcessor to the drawing thread
+    private volatile PerformanceMonitor performanceMonitor; //told about every frame posted, if set
 
     //three constructors required of any custom view
     public DrawingView(Context context) {
@@ -72,10 +62,6 @@ public class DrawingView extends SurfaceView implements SurfaceHolder.Callback {
         initView();
     }
 
-    private static int getDrawable(@NonNull Context context, @NonNull String name) {
-        return context.getResources().getIdentifier(name, "drawable", context.getPackageName());
-    }
-
     public void setEventListener(DrawingThreadEventListener listener) {
         this.listener = listener;
 
@@ -98,6 +84,7 @@ public class DrawingView extends SurfaceView implements SurfaceHolder.Callback {
             return;
         }
         drawingThread.requestCaptureBitmap = true;
+        drawingThread.requestRender();
     }
 
     @SuppressWarnings("ResourceType")
@@ -160,21 +147,19 @@ public class DrawingView extends SurfaceView implements SurfaceHolder.Callback {
 
         drawingViewConfig.setDominantEmotionLabelPaints(emotionLabelPaint, emotionValuePaint);
         drawingViewConfig.setDominantEmotionMetricBarConfig(metricBarPaint, metricBarWidth);
-        drawingThread = new DrawingThread(surfaceHolder, drawingViewConfig, listener);
-
-        //statically load the emoji bitmaps on-demand and cache
-        emojiMarkerBitmapToEmojiTypeMap = new HashMap<>();
+        drawingThread = new DrawingThread(surfaceHolder, drawingViewConfig, faceResultChannel, listener);
     }
 
     public void setTypeface(Typeface face) {
         drawingViewConfig.dominantEmotionLabelPaint.setTypeface(face);
         drawingViewConfig.dominantEmotionValuePaint.setTypeface(face);
+        drawingViewConfig.labelStyleVersion++; //the drawing thread re-measures its cached labels
     }
 
     @Override
     public void surfaceCreated(SurfaceHolder holder) {
         if (drawingThread.isStopped()) {
-            drawingThread = new DrawingThread(surfaceHolder, drawingViewConfig, listener);
+            drawingThread = new DrawingThread(surfaceHolder, drawingViewConfig, faceResultChannel, listener);
         }
         drawingThread.start();
     }
@@ -196,7 +181,6 @@ public class DrawingView extends SurfaceView implements SurfaceHolder.Callback {
                 Log.e(LOG_TAG, e.getMessage());
             }
         }
-        cleanup();
     }
 
     public boolean isDimensionsNeeded() {
@@ -248,85 +232,125 @@ public class DrawingView extends SurfaceView implements SurfaceHolder.Callback {
         drawingViewConfig.isDrawEmojiMarkersEnabled = b;
     }
 
-    public void updatePoints(List<Face> faces, boolean isPointsMirrored) {
-        drawingThread.updatePoints(faces, isPointsMirrored);
+    /**
+     * Extrapolate the landmarks of tracked faces between processed frames, over the given share of the time elapsed
+     * since their last result (0 to turn prediction off, 1 to predict up to the display frame). While points are
+     * predicted, the overlay is redrawn at every display frame rather than once per result.
+     */
+    public void setLandmarkPrediction(float factor) {
+        drawingViewConfig.landmarkPredictionFactor = factor;
     }
 
-    public void invalidatePoints() {
-        drawingThread.invalidatePoints();
+    /**
+     * Set the rate at which the detector processes frames, so that landmark prediction spans the interval between
+     * two results at low rates too.
+     */
+    public void setProcessRate(int framesPerSecond) {
+        drawingViewConfig.resultIntervalNanos = framesPerSecond > 0 ? 1000000000L / framesPerSecond : 0;
     }
 
     /**
-     * To be called when this view element is potentially being destroyed
-     * I.E. when the Activity's onPause() gets called.
+     * Draw the first faceCount faces from the next frame on, with the valence and dominant emotion the
+     * ResultProcessor derived for them. The snapshots are copied. Must always be called from the same thread as
+     * invalidatePoints(), the ResultProcessor's.
+     *
+     * @param receivedNanos System.nanoTime() when the faces were received, to measure how long they take to be drawn
      */
-    public void cleanup() {
-        if (emojiMarkerBitmapToEmojiTypeMap != null) {
-            for (Bitmap bitmap : emojiMarkerBitmapToEmojiTypeMap.values()) {
-                bitmap.recycle();
-            }
-            emojiMarkerBitmapToEmojiTypeMap.clear();
-        }
+    @Override
+    public void updatePoints(FaceSnapshot[] faces, int faceCount, boolean isPointsMirrored, long receivedNanos) {
+        faceResultChannel.publish(faces, faceCount, isPointsMirrored, receivedNanos);
+        drawingThread.requestRender();
+    }
 
-        if (appearanceMarkerBitmap_genderMale_glassesOn != null) {
-            appearanceMarkerBitmap_genderMale_glassesOn.recycle();
-        }
-        if (appearanceMarkerBitmap_genderFemale_glassesOn != null) {
-            appearanceMarkerBitmap_genderFemale_glassesOn.recycle();
-        }
-        if (appearanceMarkerBitmap_genderUnknown_glassesOn != null) {
-            appearanceMarkerBitmap_genderUnknown_glassesOn.recycle();
-        }
-        if (appearanceMarkerBitmap_genderUnknown_glassesOff != null) {
-            appearanceMarkerBitmap_genderUnknown_glassesOff.recycle();
-        }
-        if (appearanceMarkerBitmap_genderMale_glassesOff != null) {
-            appearanceMarkerBitmap_genderMale_glassesOff.recycle();
-        }
-        if (appearanceMarkerBitmap_genderFemale_glassesOff != null) {
-            appearanceMarkerBitmap_genderFemale_glassesOff.recycle();
-        }
+    @Override
+    public void invalidatePoints() {
+        faceResultChannel.clear();
+        drawingThread.requestRender();
     }
 
-    interface DrawingThreadEventListener {
-        void onBitmapGenerated(Bitmap bitmap);
+    //number of face results that were replaced by a newer result before the drawing thread could draw them
+    public long getOverwrittenFrameCount() {
+        return faceResultChannel.getOverwrittenFrameCount();
     }
 
-    class FacesSharer {
-        boolean isPointsMirrored;
-        List<Face> facesToDraw;
+    //number of face results discarded by invalidatePoints() before the drawing thread could draw them
+    public long getDroppedFrameCount() {
+        return faceResultChannel.getDroppedFrameCount();
+    }
 
-        public FacesSharer() {
-            isPointsMirrored = false;
-            facesToDraw = new ArrayList<>();
-        }
+    //number of redraws the current drawing thread avoided because nothing new had to be drawn
+    public long getSkippedRedundantFrameCount() {
+        return drawingThread.getSkippedRedundantFrameCount();
+    }
+
+    public void setPerformanceMonitor(PerformanceMonitor monitor) {
+        performanceMonitor = monitor;
+    }
+
+    /**
+     * Draw the emoji and appearance markers from the given atlas, from the next frame on. The atlas stays owned by
+     * the caller, who must not recycle it while it is set.
+     */
+    public void setMarkerAtlas(@Nullable MarkerAtlas atlas) {
+        markerAtlas = atlas;
+        drawingThread.requestRender();
+    }
+
+    interface DrawingThreadEventListener {
+        void onBitmapGenerated(Bitmap bitmap);
     }
 
-    //Inner Thread class
+    /**
+     * Inner Thread class.
+     * The thread runs a Looper and sleeps until requestRender() is called, either because new faces were
+     * published or because a screenshot was requested. Rendering is then done in a Choreographer frame callback,
+     * so requests arriving faster than the display refreshes are coalesced into one redraw per vsync.
+     * While landmark prediction moves the points of a face, the thread also redraws at every vsync on its own,
+     * until the prediction horizon of the last result has passed.
+     */
     class DrawingThread extends Thread {
-        private final FacesSharer sharer;
+        private static final int MAX_TRACKED_FACES = 8; //faces beyond this are untracked and drawn as detected
+        private static final float MIN_TRACKING_OVERLAP = 0.3f; //intersection over union needed to consider two boxes the same face
+        private static final int MAX_MISSED_FRAMES = 10; //frames a face may go undetected before its track expires
+        private final FaceResultChannel channel;
         private final SurfaceHolder mSurfaceHolder;
         private Paint trackingPointsPaint;
         private Paint boundingBoxPaint;
         private Paint dominantEmotionScoreBarPaint;
         private volatile boolean stopFlag = false; //boolean to indicate when thread has been told to stop
         private volatile boolean requestCaptureBitmap = false; //boolean to indicate a snapshot of the surface has been requested
+        private final AtomicBoolean isFrameScheduled = new AtomicBoolean(false); //a frame callback is pending for the next vsync
+        private final AtomicLong skippedRedundantFrameCount = new AtomicLong();
+        private volatile Looper looper;
+        private boolean isSurfaceCleared = false; //only touched by the drawing thread
+        private volatile Choreographer choreographer;
+        private final Choreographer.FrameCallback frameCallback = new Choreographer.FrameCallback() {
+            @Override
+            public void doFrame(long frameTimeNanos) {
+                isFrameScheduled.set(false);
+                renderFrame(frameTimeNanos);
+            }
+        };
         private DrawingViewConfig config;
         private DrawingThreadEventListener listener;
-
-        public DrawingThread(SurfaceHolder surfaceHolder, DrawingViewConfig con, DrawingThreadEventListener listener) {
+        //the fields below are only touched by the drawing thread
+        private final FaceTracker faceTracker = new FaceTracker(MAX_TRACKED_FACES, MIN_TRACKING_OVERLAP, MAX_MISSED_FRAMES);
+        private final LandmarkPredictor landmarkPredictor = new LandmarkPredictor(MAX_TRACKED_FACES); //indexed by track slot
+        private boolean isPredicting = false; //the last draw() showed predicted points that keep moving
+        private long lastDrawnSequence = 0; //sequence of the last result drawn
+        private long drawnResultNanos = -1; //when the result drawn by the last draw() was received, -1 if it was drawn before
+        private Rect[] faceRects = new Rect[0]; //bounding box of each face on screen
+        private Rect[] screenshotFaceRects = new Rect[0]; //bounding box of each face in the screenshot (not mirrored)
+        private float[] faceBoxes = new float[0]; //bounding boxes of the detected points, packed for the tracker
+        private final LandmarkProjector landmarkProjector = new LandmarkProjector(); //screen coordinates of the face being drawn
+        private final EmotionLabelCache emotionLabelCache = new EmotionLabelCache();
+
+        public DrawingThread(SurfaceHolder surfaceHolder, DrawingViewConfig con, FaceResultChannel channel, DrawingThreadEventListener listener) {
             mSurfaceHolder = surfaceHolder;
 
-            //statically load the Appearance marker bitmaps so they only have to load once
-            appearanceMarkerBitmap_genderMale_glassesOn = ImageHelper.loadBitmapFromInternalStorage(getContext(), "male_glasses.png");
-            appearanceMarkerBitmap_genderMale_glassesOff = ImageHelper.loadBitmapFromInternalStorage(getContext(), "male_noglasses.png");
-            appearanceMarkerBitmap_genderFemale_glassesOn = ImageHelper.loadBitmapFromInternalStorage(getContext(), "female_glasses.png");
-            appearanceMarkerBitmap_genderFemale_glassesOff = ImageHelper.loadBitmapFromInternalStorage(getContext(), "female_noglasses.png");
-            appearanceMarkerBitmap_genderUnknown_glassesOn = ImageHelper.loadBitmapFromInternalStorage(getContext(), "unknown_glasses.png");
-            appearanceMarkerBitmap_genderUnknown_glassesOff = ImageHelper.loadBitmapFromInternalStorage(getContext(), "unknown_noglasses.png");
-
             trackingPointsPaint = new Paint();
             trackingPointsPaint.setColor(Color.WHITE);
+            trackingPointsPaint.setStrokeCap(Paint.Cap.ROUND); //round dots rather than squares
             boundingBoxPaint = new Paint();
             boundingBoxPaint.setColor(Color.WHITE);
             boundingBoxPaint.setStyle(Paint.Style.STROKE);
@@ -335,7 +359,7 @@ public class DrawingView extends SurfaceView implements SurfaceHolder.Callback {
             dominantEmotionScoreBarPaint.setStyle(Paint.Style.STROKE);
 
             config = con;
-            sharer = new FacesSharer();
+            this.channel = channel;
             this.listener = listener;
 
             setThickness(config.drawThickness);
@@ -358,159 +382,248 @@ public class DrawingView extends SurfaceView implements SurfaceHolder.Callback {
 
         public void stopThread() {
             stopFlag = true;
+            Looper l = looper;
+            if (l != null) {
+                l.quit();
+            }
         }
 
-        public boolean isStopped() {
-            return stopFlag;
+        /**
+         * Ask for the surface to be redrawn at the next vsync. Safe to call from any thread, never blocks on the
+         * drawing thread. Requests made while a redraw is already pending are merged into that redraw.
+         */
+        public void requestRender() {
+            Choreographer c = choreographer;
+            if (c == null || stopFlag) {
+                return; //the thread is not looping yet (it draws once when it starts) or has stopped
+            }
+            if (isFrameScheduled.compareAndSet(false, true)) {
+                c.postFrameCallback(frameCallback);
+            } else {
+                skippedRedundantFrameCount.incrementAndGet();
+            }
         }
 
-        //Updates thread with latest faces returned by the onImageResults() event.
-        public void updatePoints(List<Face> faces, boolean isPointsMirrored) {
-            synchronized (sharer) {
-                sharer.facesToDraw.clear();
-                if (faces != null) {
-                    sharer.facesToDraw.addAll(faces);
-                }
-                sharer.isPointsMirrored = isPointsMirrored;
-            }
+        public long getSkippedRedundantFrameCount() {
+            return skippedRedundantFrameCount.get();
         }
 
-        void setThickness(int thickness) {
-            boundingBoxPaint.setStrokeWidth(thickness);
+        public boolean isStopped() {
+            return stopFlag;
         }
 
-        //Inform thread face detection has stopped, so pending faces are no longer valid.
-        public void invalidatePoints() {
-            synchronized (sharer) {
-                sharer.facesToDraw.clear();
-            }
+        void setThickness(int thickness) {
+            boundingBoxPaint.setStrokeWidth(thickness);
+            trackingPointsPaint.setStrokeWidth(thickness * 2); //dot diameter, so dots have a radius of thickness
         }
 
         @Override
         public void run() {
             Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
 
-            while (!stopFlag) {
-
-                /**
-                 * We use SurfaceHolder.lockCanvas() to get the canvas that draws to the SurfaceView.
-                 * After we are done drawing, we let go of the canvas using SurfaceHolder.unlockCanvasAndPost()
-                 * **/
-                Canvas c = null;
-                Canvas screenshotCanvas = null;
-                Bitmap screenshotBitmap = null;
-                try {
-                    c = mSurfaceHolder.lockCanvas();
-
-                    if (requestCaptureBitmap) {
-                        Rect surfaceBounds = mSurfaceHolder.getSurfaceFrame();
-                        screenshotBitmap = Bitmap.createBitmap(surfaceBounds.width(), surfaceBounds.height(), Bitmap.Config.ARGB_8888);
-                        screenshotCanvas = new Canvas(screenshotBitmap);
-                        requestCaptureBitmap = false;
-                    }
+            Looper.prepare();
+            choreographer = Choreographer.getInstance(); //Choreographer callbacks are delivered on this thread's Looper
+            looper = Looper.myLooper();
 
-                    if (c != null) {
-                        synchronized (mSurfaceHolder) {
-                            c.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR); //clear previous dots
-                            draw(c, screenshotCanvas);
-                        }
-                    }
+            //stopThread() quits the looper once it is published, so only exit here if we were stopped before that
+            if (!stopFlag) {
+                isFrameScheduled.set(true);
+                choreographer.postFrameCallback(frameCallback); //draw once to clear whatever the surface holds
+                Looper.loop();
+            }
+
+            Log.d(LOG_TAG, String.format(Locale.US, "Drawing thread stopped. Face results published: %d, overwritten: %d, dropped: %d, redundant frames skipped: %d",
+                    channel.getPublishedFrameCount(), channel.getOverwrittenFrameCount(), channel.getDroppedFrameCount(), skippedRedundantFrameCount.get()));
+            config = null; //nullify object to avoid memory leak
+        }
 
-                } finally {
-                    if (c != null) {
-                        mSurfaceHolder.unlockCanvasAndPost(c);
+        private void renderFrame(long frameTimeNanos) {
+            if (stopFlag) {
+                return;
+            }
+
+            //a result published while the previous frame was drawing may already have been drawn by it
+            if (isSurfaceCleared && !channel.hasNewFrame() && !requestCaptureBitmap && !isPredicting) {
+                skippedRedundantFrameCount.incrementAndGet();
+                return;
+            }
+            isSurfaceCleared = true;
+            isPredicting = false; //until draw() shows moving points again
+
+            /**
+             * We use SurfaceHolder.lockCanvas() to get the canvas that draws to the SurfaceView.
+             * After we are done drawing, we let go of the canvas using SurfaceHolder.unlockCanvasAndPost()
+             * **/
+            Canvas c = null;
+            Canvas screenshotCanvas = null;
+            Bitmap screenshotBitmap = null;
+            try {
+                c = mSurfaceHolder.lockCanvas();
+
+                if (requestCaptureBitmap) {
+                    Rect surfaceBounds = mSurfaceHolder.getSurfaceFrame();
+                    screenshotBitmap = Bitmap.createBitmap(surfaceBounds.width(), surfaceBounds.height(), Bitmap.Config.ARGB_8888);
+                    screenshotCanvas = new Canvas(screenshotBitmap);
+                    requestCaptureBitmap = false;
+                }
+
+                if (c != null) {
+                    synchronized (mSurfaceHolder) {
+                        c.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR); //clear previous dots
+                        draw(c, screenshotCanvas, frameTimeNanos);
                     }
-                    if (screenshotBitmap != null && listener != null) {
-                        listener.onBitmapGenerated(Bitmap.createBitmap(screenshotBitmap));
-                        screenshotBitmap.recycle();
+                }
+
+            } finally {
+                if (c != null) {
+                    mSurfaceHolder.unlockCanvasAndPost(c);
+                    PerformanceMonitor monitor = performanceMonitor;
+                    if (monitor != null) {
+                        monitor.onOverlayDrawn(System.nanoTime(), drawnResultNanos);
                     }
                 }
+                if (isPredicting && isFrameScheduled.compareAndSet(false, true)) {
+                    choreographer.postFrameCallback(frameCallback); //keep the predicted points moving
+                }
+                if (screenshotBitmap != null && listener != null) {
+                    listener.onBitmapGenerated(Bitmap.createBitmap(screenshotBitmap));
+                    screenshotBitmap.recycle();
+                }
             }
-
-            config = null; //nullify object to avoid memory leak
         }
 
-        void draw(@NonNull Canvas c, @Nullable Canvas c2) {
-            Face nextFaceToDraw;
-            boolean mirrorPoints;
-            boolean multiFaceMode;
-            int index = 0;
+        /**
+         * @param frameTimeNanos the Choreographer frame time, to which the landmarks of tracked faces are predicted
+         */
+        void draw(@NonNull Canvas c, @Nullable Canvas c2, long frameTimeNanos) {
+            //the channel guarantees the result is not modified until we acquire the next one
+            FaceResultChannel.Result result = channel.acquireLatest();
+            int faceCount = result.getFaceCount();
+            boolean mirrorPoints = result.isPointsMirrored();
+            boolean multiFaceMode = faceCount > 1;
+
+            //a result is redrawn when a screenshot is requested, only feed it to the tracker the first time
+            boolean isNewResult = result.getSequence() != lastDrawnSequence;
+            lastDrawnSequence = result.getSequence();
+            drawnResultNanos = isNewResult ? result.getReceivedNanos() : -1;
+            landmarkPredictor.setPredictionFactor(config.landmarkPredictionFactor);
+            landmarkPredictor.setResultInterval(config.resultIntervalNanos);
+            ensureFaceCapacity(faceCount);
 
-            synchronized (sharer) {
-                mirrorPoints = sharer.isPointsMirrored;
-                multiFaceMode = sharer.facesToDraw.size() > 1;
+            //the tracker matches the detected points before anything keyed by face, predicted points included, is drawn
+            if (isNewResult) {
+                trackFaces(result, mirrorPoints);
+            }
 
-                if (sharer.facesToDraw.isEmpty()) {
-                    nextFaceToDraw = null;
-                } else {
-                    nextFaceToDraw = sharer.facesToDraw.get(index);
-                    index++;
+            //first pass: tracking dots and bounding boxes
+            for (int index = 0; index < faceCount; index++) {
+                FaceLandmarks landmarks = predictLandmarks(index, result.getFace(index), frameTimeNanos);
+
+                drawFacePoints(c, landmarks, mirrorPoints, faceRects[index]);
+                if (c2 != null) {
+                    drawFacePoints(c2, landmarks, false, screenshotFaceRects[index]);
                 }
             }
 
-            while (nextFaceToDraw != null) {
+            //second pass: everything drawn around the bounding boxes
+            for (int index = 0; index < faceCount; index++) {
+                FaceSnapshot nextFaceToDraw = result.getFace(index);
 
-                drawFaceAttributes(c, nextFaceToDraw, mirrorPoints, multiFaceMode);
+                drawFaceDecorations(c, nextFaceToDraw, faceRects[index], multiFaceMode);
 
                 if (c2 != null) {
-                    drawFaceAttributes(c2, nextFaceToDraw, false, multiFaceMode);
+                    drawFaceDecorations(c2, nextFaceToDraw, screenshotFaceRects[index], multiFaceMode);
                 }
+            }
+        }
 
-                synchronized (sharer) {
-                    mirrorPoints = sharer.isPointsMirrored;
+        private void trackFaces(FaceResultChannel.Result result, boolean mirrorPoints) {
+            int faceCount = result.getFaceCount();
+            for (int index = 0; index < faceCount; index++) {
+                landmarkProjector.project(result.getFace(index), config.screenToImageRatio, config.imageWidth, mirrorPoints,
+                        config.surfaceViewWidth, config.surfaceViewHeight);
+                faceBoxes[index * 4] = landmarkProjector.getLeft();
+                faceBoxes[index * 4 + 1] = landmarkProjector.getTop();
+                faceBoxes[index * 4 + 2] = landmarkProjector.getRight();
+                faceBoxes[index * 4 + 3] = landmarkProjector.getBottom();
+            }
+            faceTracker.update(faceBoxes, faceCount);
 
-                    if (index < sharer.facesToDraw.size()) {
-                        nextFaceToDraw = sharer.facesToDraw.get(index);
-                        index++;
-                    } else {
-                        nextFaceToDraw = null;
-                    }
+            //feed the predictors, and report how far off the points they showed before this result were
+            PerformanceMonitor monitor = performanceMonitor;
+            for (int index = 0; index < faceCount; index++) {
+                int trackSlot = faceTracker.getTrackSlot(index);
+                if (trackSlot == FaceTracker.NO_TRACK) {
+                    continue;
+                }
+                boolean isMeasured = landmarkPredictor.update(trackSlot, result.getFace(index), result.getReceivedNanos(),
+                        faceTracker.isNewTrack(index));
+                if (isMeasured && monitor != null) {
+                    monitor.onLandmarkResidual(System.nanoTime(), landmarkPredictor.getLastPredictedError(),
+                            landmarkPredictor.getLastHeldError());
                 }
             }
         }
 
-        private void drawFaceAttributes(Canvas c, Face face, boolean mirrorPoints, boolean isMultiFaceMode) {
-            //Coordinates around which to draw bounding box.
-            //Default to an 'inverted' box, where the absolute max and min values of the surface view are inside-out
-            Rect boundingRect = new Rect(config.surfaceViewWidth, config.surfaceViewHeight, 0, 0);
-
-            for (PointF point : face.getFacePoints()) {
-                //transform from the camera coordinates to our screen coordinates
-                //The camera preview is displayed as a mirror, so X pts have to be mirrored back.
-                float x;
-                if (mirrorPoints) {
-                    x = (config.imageWidth - point.x) * config.screenToImageRatio;
-                } else {
-                    x = (point.x) * config.screenToImageRatio;
-                }
-                float y = (point.y) * config.screenToImageRatio;
+        //the landmarks of the given face at the given frame time, as detected if the face is untracked
+        private FaceLandmarks predictLandmarks(int index, FaceSnapshot face, long frameTimeNanos) {
+            int trackSlot = faceTracker.getTrackSlot(index);
+            if (trackSlot == FaceTracker.NO_TRACK) {
+                return face;
+            }
+            if (landmarkPredictor.isMoving(trackSlot, frameTimeNanos)) {
+                isPredicting = true;
+            }
+            return landmarkPredictor.predict(trackSlot, face, frameTimeNanos);
+        }
 
-                //For some reason I needed to add each point twice to make sure that all the
-                //points get properly registered in the bounding box.
-                boundingRect.union(Math.round(x), Math.round(y));
-                boundingRect.union(Math.round(x), Math.round(y));
+        private void ensureFaceCapacity(int faceCount) {
+            if (faceRects.length >= faceCount) {
+                return;
+            }
+            Rect[] rects = new Rect[faceCount];
+            Rect[] screenshotRects = new Rect[faceCount];
+            for (int n = 0; n < faceCount; n++) {
+                rects[n] = new Rect();
+                screenshotRects[n] = new Rect();
+            }
+            faceRects = rects;
+            screenshotFaceRects = screenshotRects;
+            faceBoxes = new float[faceCount * 4];
+        }
 
-                //Draw facial tracking dots.
-                if (config.isDrawPointsEnabled) {
-                    c.drawCircle(x, y, config.drawThickness, trackingPointsPaint);
-                }
+        private void drawFacePoints(Canvas c, FaceLandmarks face, boolean mirrorPoints, Rect boundingRect) {
+            //Coordinates around which to draw bounding box.
+            int pointCount = landmarkProjector.project(face, config.screenToImageRatio, config.imageWidth, mirrorPoints,
+                    config.surfaceViewWidth, config.surfaceViewHeight);
+            boundingRect.set(Math.round(landmarkProjector.getLeft()), Math.round(landmarkProjector.getTop()),
+                    Math.round(landmarkProjector.getRight()), Math.round(landmarkProjector.getBottom()));
+
+            //Draw facial tracking dots, all in one call.
+            if (config.isDrawPointsEnabled && pointCount > 0) {
+                c.drawPoints(landmarkProjector.getProjectedPoints(), 0, pointCount * 2, trackingPointsPaint);
             }
+        }
 
-            //Draw the bounding box.
+        private void drawFaceDecorations(Canvas c, FaceSnapshot face, Rect boundingRect, boolean isMultiFaceMode) {
+            //Draw the bounding box, colored by the valence smoothed by the ResultProcessor
             if (config.isDrawPointsEnabled) {
-                drawBoundingBox(c, face, boundingRect);
+                drawBoundingBox(c, face.getDisplayValence(), boundingRect);
             }
 
-            float heightOffset = findNecessaryHeightOffset(boundingRect, face);
+            MarkerAtlas atlas = markerAtlas;
+            if (atlas != null) {
+                float heightOffset = findNecessaryHeightOffset(atlas, boundingRect, face);
 
-            //Draw the Appearance markers (gender / glasses)
-            if (config.isDrawAppearanceMarkersEnabled) {
-                drawAppearanceMarkers(c, face, boundingRect, heightOffset);
-            }
+                //Draw the Appearance markers (gender / glasses)
+                if (config.isDrawAppearanceMarkersEnabled) {
+                    drawAppearanceMarkers(c, atlas, face, boundingRect, heightOffset);
+                }
 
-            //Draw the Emoji markers
-            if (config.isDrawEmojiMarkersEnabled) {
-                drawDominantEmoji(c, face, boundingRect, heightOffset);
+                //Draw the Emoji markers
+                if (config.isDrawEmojiMarkersEnabled) {
+                    drawDominantEmoji(c, atlas, face, boundingRect, heightOffset);
+                }
             }
 
             //Only draw the dominant emotion bar in multiface mode
@@ -519,12 +632,12 @@ public class DrawingView extends SurfaceView implements SurfaceHolder.Callback {
             }
         }
 
-        private float findNecessaryHeightOffset(Rect boundingBox, Face face) {
-            Bitmap appearanceBitmap = getAppearanceBitmapForFace(face);
-            Bitmap emojiBitmap = getDominantEmojiBitmapForFace(face);
+        private float findNecessaryHeightOffset(MarkerAtlas atlas, Rect boundingBox, FaceSnapshot face) {
+            Rect appearanceRect = atlas.getAppearanceRect(face.getGender(), face.getGlasses());
+            Rect emojiRect = atlas.getEmojiRect(face.getDominantEmoji());
 
-            float appearanceBitmapHeight = (appearanceBitmap != null) ? appearanceBitmap.getHeight() : 0;
-            float emojiBitmapHeight = (emojiBitmap != null) ? emojiBitmap.getHeight() : 0;
+            float appearanceBitmapHeight = (appearanceRect != null) ? appearanceRect.height() : 0;
+            float emojiBitmapHeight = (emojiRect != null) ? emojiRect.height() : 0;
             float spacingBetween = (appearanceBitmapHeight > 0 && emojiBitmapHeight > 0) ? MARGIN : 0;
             float totalHeightRequired = appearanceBitmapHeight + emojiBitmapHeight + spacingBetween;
 
@@ -533,8 +646,8 @@ public class DrawingView extends SurfaceView implements SurfaceHolder.Callback {
             return bitmapHeightOverflow / 2;  // distribute the overflow evenly on both sides of the bounding box
         }
 
-        private void drawBoundingBox(Canvas c, Face f, Rect boundingBox) {
-            setValenceOfBoundingBox(f.emotions.getValence());
+        private void drawBoundingBox(Canvas c, float valence, Rect boundingBox) {
+            setValenceOfBoundingBox(valence);
             c.drawRect(boundingBox.left,
                     boundingBox.top,
                     boundingBox.right,
@@ -542,199 +655,46 @@ public class DrawingView extends SurfaceView implements SurfaceHolder.Callback {
                     boundingBoxPaint);
         }
 
-        private void drawAppearanceMarkers(Canvas c, Face f, Rect boundingBox, float offset) {
-            Bitmap bitmap = getAppearanceBitmapForFace(f);
-            if (bitmap != null) {
-                drawBitmapIfNotRecycled(c, bitmap, boundingBox.right + MARGIN, boundingBox.bottom - bitmap.getHeight() + offset);
-            }
-        }
-
-        private Bitmap getAppearanceBitmapForFace(Face f) {
-            Bitmap bitmap = null;
-            switch (f.appearance.getGender()) {
-                case MALE:
-                    if (Face.GLASSES.YES.equals(f.appearance.getGlasses())) {
-                        bitmap = appearanceMarkerBitmap_genderMale_glassesOn;
-                    } else {
-                        bitmap = appearanceMarkerBitmap_genderMale_glassesOff;
-                    }
-                    break;
-                case FEMALE:
-                    if (Face.GLASSES.YES.equals(f.appearance.getGlasses())) {
-                        bitmap = appearanceMarkerBitmap_genderFemale_glassesOn;
-                    } else {
-                        bitmap = appearanceMarkerBitmap_genderFemale_glassesOff;
-                    }
-                    break;
-                case UNKNOWN:
-                    if (Face.GLASSES.YES.equals(f.appearance.getGlasses())) {
-                        bitmap = appearanceMarkerBitmap_genderUnknown_glassesOn;
-                    } else {
-                        bitmap = appearanceMarkerBitmap_genderUnknown_glassesOff;
-                    }
-                    break;
-                default:
-                    Log.e(LOG_TAG, "Unknown gender: " + f.appearance.getGender());
+        private void drawAppearanceMarkers(Canvas c, MarkerAtlas atlas, FaceSnapshot f, Rect boundingBox, float offset) {
+            Rect markerRect = atlas.getAppearanceRect(f.getGender(), f.getGlasses());
+            if (markerRect != null) {
+                atlas.draw(c, markerRect, boundingBox.right + MARGIN, boundingBox.bottom - markerRect.height() + offset);
             }
-            return bitmap;
         }
 
-        private void drawBitmapIfNotRecycled(Canvas c, Bitmap b, float posX, float posY) {
-            if (!b.isRecycled()) {
-                c.drawBitmap(b, posX, posY, null);
+        private void drawDominantEmoji(Canvas c, MarkerAtlas atlas, FaceSnapshot f, Rect boundingBox, float offset) {
+            Rect markerRect = atlas.getEmojiRect(f.getDominantEmoji());
+            if (markerRect != null) {
+                atlas.draw(c, markerRect, boundingBox.right + MARGIN, boundingBox.top - offset);
             }
         }
 
-        private void drawDominantEmoji(Canvas c, Face f, Rect boundingBox, float offset) {
-            drawEmojiFromCache(c, f.emojis.getDominantEmoji().name(), boundingBox.right + MARGIN, boundingBox.top - offset);
-        }
-
-        private void drawDominantEmotion(Canvas c, Face f, Rect boundingBox) {
-            Pair<String, Float> dominantMetric = findDominantEmotion(f);
-
-            if (dominantMetric == null || dominantMetric.first.isEmpty()) {
+        private void drawDominantEmotion(Canvas c, FaceSnapshot f, Rect boundingBox) {
+            MetricsManager.Emotions dominantEmotion = f.getDominantEmotion(); //selected by the ResultProcessor
+            if (dominantEmotion == null) {
                 return;
             }
+            float dominantScore = f.getScore(dominantEmotion);
 
-            String emotionText = dominantMetric.first;
-            String emotionValue = Math.round(dominantMetric.second) + "%";
-
-            Rect emotionTextBounds = new Rect();
-            config.dominantEmotionLabelPaint.getTextBounds(emotionText, 0, emotionText.length(), emotionTextBounds);
-
-            Rect emotionValueBounds = new Rect();
-            config.dominantEmotionValuePaint.getTextBounds(emotionValue, 0, emotionValue.length(), emotionValueBounds);
+            if (!emotionLabelCache.isValidFor(config.labelStyleVersion)) {
+                emotionLabelCache.rebuild(config.dominantEmotionLabelPaint, config.dominantEmotionValuePaint, config.labelStyleVersion);
+            }
+            String emotionText = emotionLabelCache.getLabel(dominantEmotion);
+            String emotionValue = emotionLabelCache.getPercentage(dominantScore);
+            int emotionValueHeight = emotionLabelCache.getPercentageHeight(dominantScore);
 
             float drawAtX = boundingBox.exactCenterX();
-            float drawAtY = boundingBox.bottom + MARGIN + emotionTextBounds.height();
+            float drawAtY = boundingBox.bottom + MARGIN + emotionLabelCache.getLabelHeight(dominantEmotion);
             c.drawText(emotionText, drawAtX, drawAtY, config.dominantEmotionLabelPaint);
 
             //draws the colored bar that appears behind our score
-            drawAtY += MARGIN + emotionValueBounds.height();
-            int halfWidth = Math.round(config.metricBarWidth / 200.0f * dominantMetric.second);
-            c.drawRect(drawAtX - halfWidth, drawAtY - emotionValueBounds.height(), drawAtX + halfWidth, drawAtY, config.dominantEmotionMetricBarPaint);
+            drawAtY += MARGIN + emotionValueHeight;
+            int halfWidth = Math.round(config.metricBarWidth / 200.0f * dominantScore);
+            c.drawRect(drawAtX - halfWidth, drawAtY - emotionValueHeight, drawAtX + halfWidth, drawAtY, config.dominantEmotionMetricBarPaint);
 
             //draws the score
             c.drawText(emotionValue, drawAtX, drawAtY, config.dominantEmotionValuePaint);
         }
-
-        private Pair<String, Float> findDominantEmotion(Face f) {
-            String dominantMetricName = "";
-            Float dominantMetricValue = 50.0f; // no emotion is dominant unless at least greater than this value
-
-            if (f.emotions.getAnger() > dominantMetricValue) {
-                dominantMetricName = MetricsManager.getCapitalizedName(MetricsManager.Emotions.ANGER);
-                dominantMetricValue = f.emotions.getAnger();
-            }
-            if (f.emotions.getContempt() > dominantMetricValue) {
-                dominantMetricName = MetricsManager.getCapitalizedName(MetricsManager.Emotions.CONTEMPT);
-                dominantMetricValue = f.emotions.getContempt();
-            }
-            if (f.emotions.getDisgust() > dominantMetricValue) {
-                dominantMetricName = MetricsManager.getCapitalizedName(MetricsManager.Emotions.DISGUST);
-                dominantMetricValue = f.emotions.getDisgust();
-            }
-            if (f.emotions.getFear() > dominantMetricValue) {
-                dominantMetricName = MetricsManager.getCapitalizedName(MetricsManager.Emotions.FEAR);
-                dominantMetricValue = f.emotions.getFear();
-            }
-            if (f.emotions.getJoy() > dominantMetricValue) {
-                dominantMetricName = MetricsManager.getCapitalizedName(MetricsManager.Emotions.JOY);
-                dominantMetricValue = f.emotions.getJoy();
-            }
-            if (f.emotions.getSadness() > dominantMetricValue) {
-                dominantMetricName = MetricsManager.getCapitalizedName(MetricsManager.Emotions.SADNESS);
-                dominantMetricValue = f.emotions.getSadness();
-            }
-            if (f.emotions.getSurprise() > dominantMetricValue) {
-                dominantMetricName = MetricsManager.getCapitalizedName(MetricsManager.Emotions.SURPRISE);
-                dominantMetricValue = f.emotions.getSurprise();
-            }
-            // Ignore VALENCE and ENGAGEMENT
-
-            if (dominantMetricName.isEmpty()) {
-                return null;
-            } else {
-                return new Pair<>(dominantMetricName, dominantMetricValue);
-            }
-        }
-
-        void drawEmojiFromCache(Canvas c, String emojiName, float markerPosX, float markerPosY) {
-            Bitmap emojiBitmap;
-
-            try {
-                emojiBitmap = getEmojiBitmapByName(emojiName);
-            } catch (FileNotFoundException e) {
-                Log.e(LOG_TAG, "Error, file not found!", e);
-                return;
-            }
-
-            if (emojiBitmap != null) {
-                c.drawBitmap(emojiBitmap, markerPosX, markerPosY, null);
-            }
-        }
-
-        private Bitmap getDominantEmojiBitmapForFace(Face f) {
-            try {
-                return getEmojiBitmapByName(f.emojis.getDominantEmoji().name());
-            } catch (FileNotFoundException e) {
-                Log.e(LOG_TAG, "Dominant emoji bitmap not available", e);
-                return null;
-            }
-        }
-
-        Bitmap getEmojiBitmapByName(String emojiName) throws FileNotFoundException {
-            // No bitmap necessary if emoji is unknown
-            if (emojiName.equals(Face.EMOJI.UNKNOWN.name())) {
-                return null;
-            }
-
-            String emojiResourceName = emojiName.trim().replace(' ', '_').toLowerCase(Locale.US).concat("_emoji");
-            String emojiFileName = emojiResourceName + ".png";
-
-            //Try to get the emoji from the cache
-            Bitmap desiredEmojiBitmap = emojiMarkerBitmapToEmojiTypeMap.get(emojiFileName);
-
-            if (desiredEmojiBitmap != null) {
-                //emoji bitmap found in the cache
-                return desiredEmojiBitmap;
-            }
-
-            //Cache miss, try and load the bitmap from disk
-            desiredEmojiBitmap = ImageHelper.loadBitmapFromInternalStorage(getContext(), emojiFileName);
-
-            if (desiredEmojiBitmap != null) {
-                //emoji bitmap found in the app storage
-
-
-                //Bitmap loaded, add to cache for subsequent use.
-                emojiMarkerBitmapToEmojiTypeMap.put(emojiFileName, desiredEmojiBitmap);
-
-                return desiredEmojiBitmap;
-            }
-
-            Log.d(LOG_TAG, "Emoji not found on disk: " + emojiFileName);
-
-            //Still unable to find the file, try to locate the emoji resource
-            final int resourceId = getDrawable(getContext(), emojiFileName);
-
-            if (resourceId == 0) {
-                //unrecognised emoji file name
-                throw new FileNotFoundException("Resource not found for file named: " + emojiFileName);
-            }
-
-            desiredEmojiBitmap = BitmapFactory.decodeResource(getResources(), resourceId);
-
-            if (desiredEmojiBitmap == null) {
-                //still unable to load the resource from the file
-                throw new FileNotFoundException("Resource id [" + resourceId + "] but could not load bitmap: " + emojiFileName);
-            }
-
-            //Bitmap loaded, add to cache for subsequent use.
-            emojiMarkerBitmapToEmojiTypeMap.put(emojiFileName, desiredEmojiBitmap);
-
-            return desiredEmojiBitmap;
-        }
     }
 
     class DrawingViewConfig {
@@ -747,15 +707,19 @@ public class DrawingView extends SurfaceView implements SurfaceHolder.Callback {
         private boolean isDimensionsNeeded = true;
         private boolean isDrawAppearanceMarkersEnabled = true; //by default, draw the appearance markers
         private boolean isDrawEmojiMarkersEnabled = true; //by default, draw the dominant emoji markers
+        private volatile float landmarkPredictionFactor = 0; //share of the time since the last result points are extrapolated over
+        private volatile long resultIntervalNanos = 0; //period of the process rate, 0 if unknown
 
         private Paint dominantEmotionLabelPaint;
         private Paint dominantEmotionMetricBarPaint;
         private Paint dominantEmotionValuePaint;
         private int metricBarWidth;
+        private volatile int labelStyleVersion = 0; //changed whenever the dominant emotion paints change
 
         public void setDominantEmotionLabelPaints(Paint labelPaint, Paint valuePaint) {
             dominantEmotionLabelPaint = labelPaint;
             dominantEmotionValuePaint = valuePaint;
+            labelStyleVersion++;
         }
 
         public void setDominantEmotionMetricBarConfig(Paint metricBarPaint, int metricBarWidth) {
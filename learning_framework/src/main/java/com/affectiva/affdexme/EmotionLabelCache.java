@@ -0,0 +1,82 @@
+/**
+ * Copyright (c) 2016 Affectiva Inc.
+ * See the file license.txt for copying permission.
+ */
+
+package com.affectiva.affdexme;
+
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.support.annotation.NonNull;
+
+/**
+ * Precomputed strings and text heights for the dominant emotion overlay drawn in multi-face mode:
+ * the capitalized name of every emotion and the "0%" to "100%" score strings.
+ * <p>
+ * Everything is measured with the paints given to rebuild(), so the cache must be rebuilt whenever their
+ * typeface or style changes; isValidFor() compares against the style version the cache was built for.
+ * Once built, looking up a label allocates nothing.
+ */
+class EmotionLabelCache {
+
+    private static final int MAX_PERCENT = 100;
+
+    private final String[] labels = new String[MetricsManager.Emotions.values().length];
+    private final int[] labelHeights = new int[labels.length];
+    private final String[] percentages = new String[MAX_PERCENT + 1];
+    private final int[] percentageHeights = new int[percentages.length];
+    private int styleVersion = -1;
+
+    EmotionLabelCache() {
+        for (MetricsManager.Emotions emotion : MetricsManager.Emotions.values()) {
+            labels[emotion.ordinal()] = MetricsManager.getCapitalizedName(emotion);
+        }
+        for (int n = 0; n <= MAX_PERCENT; n++) {
+            percentages[n] = n + "%";
+        }
+    }
+
+    boolean isValidFor(int styleVersion) {
+        return this.styleVersion == styleVersion;
+    }
+
+    /**
+     * Measure every label and score string with the given paints.
+     */
+    void rebuild(@NonNull Paint labelPaint, @NonNull Paint valuePaint, int styleVersion) {
+        Rect bounds = new Rect();
+        for (int n = 0; n < labels.length; n++) {
+            labelPaint.getTextBounds(labels[n], 0, labels[n].length(), bounds);
+            labelHeights[n] = bounds.height();
+        }
+        for (int n = 0; n <= MAX_PERCENT; n++) {
+            valuePaint.getTextBounds(percentages[n], 0, percentages[n].length(), bounds);
+            percentageHeights[n] = bounds.height();
+        }
+        this.styleVersion = styleVersion;
+    }
+
+    String getLabel(@NonNull MetricsManager.Emotions emotion) {
+        return labels[emotion.ordinal()];
+    }
+
+    int getLabelHeight(@NonNull MetricsManager.Emotions emotion) {
+        return labelHeights[emotion.ordinal()];
+    }
+
+    /**
+     * @param score a score between 0 and 100, rounded to the nearest percent
+     */
+    String getPercentage(float score) {
+        return percentages[toPercent(score)];
+    }
+
+    int getPercentageHeight(float score) {
+        return percentageHeights[toPercent(score)];
+    }
+
+    private static int toPercent(float score) {
+        int percent = Math.round(score);
+        return percent < 0 ? 0 : (percent > MAX_PERCENT ? MAX_PERCENT : percent);
+    }
+}
@@ -0,0 +1,165 @@
+/**
+ * Copyright (c) 2016 Affectiva Inc.
+ * See the file license.txt for copying permission.
+ */
+
+package com.affectiva.affdexme;
+
+import android.graphics.PointF;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.affectiva.android.affdex.sdk.detector.Face;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The detector results for one face, held in primitive arrays so they can be handed to other threads, read back
+ * from a session file or produced by a stand-in detector without keeping any SDK object.
+ * Scores are indexed by MetricsManager.getMetricIndex(), landmarks are stored as x,y pairs, and the appearance and
+ * dominant emoji as the ordinals of the SDK enums.
+ * <p>
+ * A snapshot is filled once per frame from the SDK's Face in onImageResults(), then copied to the ResultProcessor,
+ * which records it and derives what the overlay shows of it (the smoothed valence and the dominant emotion), and
+ * from there to the DrawingThread. Instances are mutable and meant to be reused from frame to frame; a snapshot
+ * must only be read by the thread that filled or copied it.
+ */
+public class FaceSnapshot implements FaceScores, FaceLandmarks {
+
+    private static final byte NONE = -1; //appearance or emoji not known, e.g. not computed or not recorded
+    private static final Face.GENDER[] GENDERS = Face.GENDER.values();
+    private static final Face.GLASSES[] GLASSES = Face.GLASSES.values();
+    private static final Face.EMOJI[] EMOJIS = Face.EMOJI.values();
+    private static final MetricAccessor[] ACCESSORS; //indexed like scores
+
+    static {
+        MetricsManager.Metrics[] allMetrics = MetricsManager.getAllMetrics();
+        ACCESSORS = new MetricAccessor[allMetrics.length];
+        for (MetricsManager.Metrics metric : allMetrics) {
+            ACCESSORS[MetricsManager.getMetricIndex(metric)] = MetricAccessor.forMetric(metric);
+        }
+    }
+
+    final float[] scores = new float[MetricsManager.getMetricCount()];
+    final float[] points = new float[2 * SessionRecorder.MAX_LANDMARKS];
+    int pointCount;
+    int faceIndex;
+    byte gender = NONE;
+    byte glasses = NONE;
+    byte dominantEmoji = NONE;
+    float displayValence = Float.NaN; //derived by the ResultProcessor, not recorded
+    MetricsManager.Emotions dominantEmotion; //derived by the ResultProcessor, not recorded
+
+    /**
+     * Copy the results of the given face, the faceIndex-th face of its frame.
+     */
+    public void fill(int faceIndex, @NonNull Face face) {
+        this.faceIndex = faceIndex;
+        for (int n = 0; n < scores.length; n++) {
+            scores[n] = ACCESSORS[n].getScore(face);
+        }
+
+        List<PointF> facePoints = face.getFacePoints();
+        pointCount = (facePoints == null) ? 0 : Math.min(facePoints.size(), points.length / 2);
+        for (int n = 0; n < pointCount; n++) {
+            PointF point = facePoints.get(n);
+            points[2 * n] = point.x;
+            points[2 * n + 1] = point.y;
+        }
+        Arrays.fill(points, 2 * pointCount, points.length, Float.NaN);
+
+        gender = ordinalOf(face.appearance.getGender());
+        glasses = ordinalOf(face.appearance.getGlasses());
+        dominantEmoji = ordinalOf(face.emojis.getDominantEmoji());
+        displayValence = Float.NaN;
+        dominantEmotion = null;
+    }
+
+    public void copyFrom(@NonNull FaceSnapshot other) {
+        System.arraycopy(other.scores, 0, scores, 0, scores.length);
+        System.arraycopy(other.points, 0, points, 0, points.length);
+        pointCount = other.pointCount;
+        faceIndex = other.faceIndex;
+        gender = other.gender;
+        glasses = other.glasses;
+        dominantEmoji = other.dominantEmoji;
+        displayValence = other.displayValence;
+        dominantEmotion = other.dominantEmotion;
+    }
+
+    public float getScore(MetricsManager.Metrics metric) {
+        return scores[MetricsManager.getMetricIndex(metric)];
+    }
+
+    @Override
+    public float getScore(int metricIndex) {
+        return scores[metricIndex];
+    }
+
+    @Override
+    public int getPointCount() {
+        return pointCount;
+    }
+
+    @Override
+    public float getPointX(int n) {
+        return points[2 * n];
+    }
+
+    @Override
+    public float getPointY(int n) {
+        return points[2 * n + 1];
+    }
+
+    public int getFaceIndex() {
+        return faceIndex;
+    }
+
+    @NonNull
+    public Face.GENDER getGender() {
+        return gender == NONE ? Face.GENDER.UNKNOWN : GENDERS[gender];
+    }
+
+    @Nullable
+    public Face.GLASSES getGlasses() {
+        return glasses == NONE ? null : GLASSES[glasses];
+    }
+
+    @NonNull
+    public Face.EMOJI getDominantEmoji() {
+        return dominantEmoji == NONE ? Face.EMOJI.UNKNOWN : EMOJIS[dominantEmoji];
+    }
+
+    /**
+     * The valence coloring the bounding box of the face, smoothed over its track by the ResultProcessor; NaN if
+     * the snapshot did not go through the ResultProcessor.
+     */
+    public float getDisplayValence() {
+        return displayValence;
+    }
+
+    /**
+     * The emotion shown as dominant under the face, as selected by the ResultProcessor; null if none is.
+     */
+    @Nullable
+    public MetricsManager.Emotions getDominantEmotion() {
+        return dominantEmotion;
+    }
+
+    void clear() {
+        Arrays.fill(scores, Float.NaN);
+        Arrays.fill(points, Float.NaN);
+        pointCount = 0;
+        faceIndex = 0;
+        gender = NONE;
+        glasses = NONE;
+        dominantEmoji = NONE;
+        displayValence = Float.NaN;
+        dominantEmotion = null;
+    }
+
+    private static byte ordinalOf(@Nullable Enum<?> value) {
+        return value == null ? NONE : (byte) value.ordinal();
+    }
+}
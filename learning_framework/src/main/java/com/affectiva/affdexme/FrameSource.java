@@ -0,0 +1,42 @@
+/**
+ * Copyright (c) 2016 Affectiva Inc.
+ * See the file license.txt for copying permission.
+ */
+
+package com.affectiva.affdexme;
+
+/**
+ * A source of processed frames that can stand in for a live CameraDetector, so the metric and overlay path
+ * can be driven (and load-tested) without a camera.
+ */
+public interface FrameSource {
+
+    void start(Listener listener);
+
+    /**
+     * Stop delivering frames and wait for the source to wind down.
+     */
+    void stop();
+
+    boolean isRunning();
+
+    /**
+     * Size of the images the landmarks of the frames refer to, to size the overlay with. 0 if unknown.
+     */
+    int getImageWidth();
+
+    int getImageHeight();
+
+    interface Listener {
+        /**
+         * Called once per processed frame, the counterpart of Detector.ImageListener.onImageResults().
+         * The frame is only valid for the duration of the call.
+         */
+        void onFrameResults(ReplayFrame frame);
+
+        /**
+         * Called once after the last frame, or after the source failed or was stopped.
+         */
+        void onFrameSourceFinished(Exception error);
+    }
+}
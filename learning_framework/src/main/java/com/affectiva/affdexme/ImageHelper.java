@@ -7,78 +7,32 @@ package com.affectiva.affdexme;
 
 import android.content.ContentValues;
 import android.content.Context;
-import android.content.res.Resources;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.graphics.ImageFormat;
 import android.graphics.Matrix;
-import android.graphics.Rect;
-import android.graphics.YuvImage;
 import android.graphics.drawable.Drawable;
 import android.provider.MediaStore;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.util.DisplayMetrics;
 import android.util.Log;
 import android.widget.ImageView;
 
 import com.affectiva.android.affdex.sdk.Frame;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.ByteBuffer;
 
 public class ImageHelper {
 
     private static final String LOG_TAG = "AffdexMe";
+    private static FrameConverter frameConverter; //created on first use, reuses its pixel buffer between frames
 
     // Prevent instantiation of this object
     private ImageHelper() {
     }
 
-    public static boolean checkIfImageFileExists(@NonNull final Context context, @NonNull final String fileName) {
-
-        // path to /data/data/yourapp/app_data/images
-        File directory = context.getDir("images", Context.MODE_PRIVATE);
-
-        // File location to save image
-        File imagePath = new File(directory, fileName);
-
-        return imagePath.exists();
-    }
-
-    public static boolean deleteImageFile(@NonNull final Context context, @NonNull final String fileName) {
-        // path to /data/data/yourapp/app_data/images
-        File directory = context.getDir("images", Context.MODE_PRIVATE);
-
-        // File location to save image
-        File imagePath = new File(directory, fileName);
-
-        return imagePath.delete();
-    }
-
-    public static void resizeAndSaveResourceImageToInternalStorage(@NonNull final Context context, @NonNull final String fileName, @NonNull final String resourceName) throws FileNotFoundException {
-        final int resourceId = context.getResources().getIdentifier(resourceName, "drawable", context.getPackageName());
-
-        if (resourceId == 0) {
-            //unrecognised resource
-            throw new FileNotFoundException("Resource not found for file named: " + resourceName);
-        }
-        resizeAndSaveResourceImageToInternalStorage(context, fileName, resourceId);
-    }
-
-    public static void resizeAndSaveResourceImageToInternalStorage(@NonNull final Context context, @NonNull final String fileName, final int resourceId) {
-        Resources resources = context.getResources();
-        Bitmap sourceBitmap = BitmapFactory.decodeResource(resources, resourceId);
-        Bitmap resizedBitmap = resizeBitmapForDeviceDensity(context, sourceBitmap);
-        saveBitmapToInternalStorage(context, resizedBitmap, fileName);
-        sourceBitmap.recycle();
-        resizedBitmap.recycle();
-    }
-
     public static Bitmap resizeBitmapForDeviceDensity(@NonNull final Context context, @NonNull final Bitmap sourceBitmap) {
         DisplayMetrics metrics = context.getResources().getDisplayMetrics();
 
@@ -88,76 +42,6 @@ public class ImageHelper {
         return Bitmap.createScaledBitmap(sourceBitmap, targetWidth, targetHeight, false);
     }
 
-    public static void saveBitmapToInternalStorage(@NonNull final Context context, @NonNull final Bitmap bitmapImage, @NonNull final String fileName) {
-
-        // path to /data/data/yourapp/app_data/images
-        File directory = context.getDir("images", Context.MODE_PRIVATE);
-
-        // File location to save image
-        File imagePath = new File(directory, fileName);
-
-        FileOutputStream fos = null;
-        try {
-            fos = new FileOutputStream(imagePath);
-
-            // Use the compress method on the BitMap object to write image to the OutputStream
-            bitmapImage.compress(Bitmap.CompressFormat.PNG, 100, fos);
-            fos.flush();
-        } catch (FileNotFoundException e) {
-            Log.e(LOG_TAG, "Exception while trying to save file to internal storage: " + imagePath, e);
-        } catch (IOException e) {
-            Log.e(LOG_TAG, "Exception while trying to flush the output stream", e);
-        } finally {
-            if (fos != null) {
-                try {
-                    fos.close();
-                } catch (IOException e) {
-                    Log.e(LOG_TAG, "Exception wile trying to close file output stream.", e);
-                }
-            }
-        }
-    }
-
-    public static Bitmap loadBitmapFromInternalStorage(@NonNull final Context applicationContext, @NonNull final String fileName) {
-
-        // path to /data/data/yourapp/app_data/images
-        File directory = applicationContext.getDir("images", Context.MODE_PRIVATE);
-
-        // File location to save image
-        File imagePath = new File(directory, fileName);
-
-        try {
-            return BitmapFactory.decodeStream(new FileInputStream(imagePath));
-        } catch (FileNotFoundException e) {
-            Log.e(LOG_TAG, "Exception wile trying to load image: " + imagePath, e);
-            return null;
-        }
-    }
-
-    public static void preproccessImageIfNecessary(@NonNull final Context context, @NonNull final String fileName, @NonNull final String resourceName) {
-        // Set this to true to force the app to always load the images for debugging purposes
-        final boolean DEBUG = false;
-
-        if (ImageHelper.checkIfImageFileExists(context, fileName)) {
-            // Image file already exists, no need to load the file again.
-
-            if (DEBUG) {
-                Log.d(LOG_TAG, "DEBUG: Deleting: " + fileName);
-                ImageHelper.deleteImageFile(context, fileName);
-            } else {
-                return;
-            }
-        }
-
-        try {
-            ImageHelper.resizeAndSaveResourceImageToInternalStorage(context, fileName, resourceName);
-            Log.d(LOG_TAG, "Resized and saved image: " + fileName);
-        } catch (FileNotFoundException e) {
-            Log.e(LOG_TAG, "Unable to process image: " + fileName, e);
-            throw new RuntimeException(e);
-        }
-    }
-
     /**
      * Returns the bitmap position inside an imageView.
      * Source: http://stackoverflow.com/a/26930938
@@ -207,6 +91,43 @@ public class ImageHelper {
         return ret;
     }
 
+    /**
+     * Copy the image of a Frame, so it can be converted on another thread: the SDK goes on reusing the frame's
+     * buffers once its callback has returned.
+     *
+     * @param frame - The Frame containing the desired image
+     * @return - A copy of its pixels, or null if the frame has no bitmap or is of an unknown color format
+     */
+    @Nullable
+    public static FrameCopy copyFrame(@NonNull final Frame frame) {
+        double rotation = frame.getTargetRotation().toDouble();
+
+        if (frame instanceof Frame.BitmapFrame) {
+            Bitmap bitmap = ((Frame.BitmapFrame) frame).getBitmap();
+            if (bitmap == null) {
+                return null;
+            }
+            return new FrameCopy(bitmap.copy(Bitmap.Config.ARGB_8888, false), null, null, 0, 0, rotation);
+        }
+
+        //frame is ByteArrayFrame
+        FrameConverter.ColorFormat format;
+        switch (frame.getColorFormat()) {
+            case RGBA:
+                format = FrameConverter.ColorFormat.RGBA;
+                break;
+            case YUV_NV21:
+                format = FrameConverter.ColorFormat.NV21;
+                break;
+            case UNKNOWN_TYPE:
+            default:
+                Log.e(LOG_TAG, "Unable to get bitmap from unknown frame type");
+                return null;
+        }
+        byte[] pixels = ((Frame.ByteArrayFrame) frame).getByteArray().clone();
+        return new FrameCopy(null, pixels, format, frame.getWidth(), frame.getHeight(), rotation);
+    }
+
     /**
      * This is a HACK.
      * We need to update the Android SDK to make this process cleaner.
@@ -214,66 +135,46 @@ public class ImageHelper {
      * of frame it is.  If any conversion between file types needs to take place, it needs to happen
      * inside the SDK layer and put the onus on the developer to know how to convert between YUV and ARGB.
      * TODO: See above
+     * <p>
+     * Byte array frames are converted and rotated by the target rotation in a single pass, so only one
+     * full-size Bitmap is allocated.
      *
-     * @param frame - The Frame containing the desired image
+     * The copy is released by the conversion, and cannot be converted again.
+     *
+     * @param frame - The copy of the Frame containing the desired image, see copyFrame()
      * @return - The Bitmap representation of the image
      */
-    public static Bitmap getBitmapFromFrame(@NonNull final Frame frame) {
-        Bitmap bitmap;
-
-        if (frame instanceof Frame.BitmapFrame) {
-            bitmap = ((Frame.BitmapFrame) frame).getBitmap();
-        } else { //frame is ByteArrayFrame
-            switch (frame.getColorFormat()) {
-                case RGBA:
-                    bitmap = getBitmapFromRGBFrame(frame);
-                    break;
-                case YUV_NV21:
-                    bitmap = getBitmapFromYuvFrame(frame);
-                    break;
-                case UNKNOWN_TYPE:
-                default:
-                    Log.e(LOG_TAG, "Unable to get bitmap from unknown frame type");
-                    return null;
+    public static Bitmap getBitmapFromFrame(@NonNull final FrameCopy frame) {
+        if (frame.pixels == null) {
+            Bitmap bitmap = frame.bitmap;
+            frame.bitmap = null; //now belongs to the caller
+            if (bitmap == null || frame.rotation == 0.0) {
+                return bitmap;
             }
+            Bitmap rotated = rotateBitmap(bitmap, (float) frame.rotation);
+            if (rotated != bitmap) {
+                bitmap.recycle();
+            }
+            return rotated;
         }
 
-        if (bitmap == null || frame.getTargetRotation().toDouble() == 0.0) {
-            return bitmap;
-        } else {
-            return rotateBitmap(bitmap, (float) frame.getTargetRotation().toDouble());
+        byte[] pixels = frame.pixels;
+        frame.pixels = null;
+        FrameConverter converter = getFrameConverter();
+        synchronized (converter) {
+            int[] argb = converter.convert(pixels, frame.format, frame.width, frame.height,
+                    FrameConverter.normalizeRotation(frame.rotation));
+            int width = converter.getOutputWidth();
+            int height = converter.getOutputHeight();
+            return Bitmap.createBitmap(argb, 0, width, width, height, Bitmap.Config.ARGB_8888);
         }
     }
 
-    public static Bitmap getBitmapFromRGBFrame(@NonNull final Frame frame) {
-        byte[] pixels = ((Frame.ByteArrayFrame) frame).getByteArray();
-        Bitmap bitmap = Bitmap.createBitmap(frame.getWidth(), frame.getHeight(), Bitmap.Config.ARGB_8888);
-        bitmap.copyPixelsFromBuffer(ByteBuffer.wrap(pixels));
-        return bitmap;
-    }
-
-    public static Bitmap getBitmapFromYuvFrame(@NonNull final Frame frame) {
-        byte[] pixels = ((Frame.ByteArrayFrame) frame).getByteArray();
-        YuvImage yuvImage = new YuvImage(pixels, ImageFormat.NV21, frame.getWidth(), frame.getHeight(), null);
-        return convertYuvImageToBitmap(yuvImage);
-    }
-
-    /**
-     * Note: This conversion procedure is sloppy and may result in JPEG compression artifacts
-     *
-     * @param yuvImage - The YuvImage to convert
-     * @return - The converted Bitmap
-     */
-    public static Bitmap convertYuvImageToBitmap(@NonNull final YuvImage yuvImage) {
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        yuvImage.compressToJpeg(new Rect(0, 0, yuvImage.getWidth(), yuvImage.getHeight()), 100, out);
-        byte[] imageBytes = out.toByteArray();
-        try {
-            out.close();
-        } catch (IOException e) {
-            Log.e(LOG_TAG, "Exception while closing output stream", e);
+    private static synchronized FrameConverter getFrameConverter() {
+        if (frameConverter == null) {
+            frameConverter = new FrameConverter();
         }
-        return BitmapFactory.decodeByteArray(imageBytes, 0, imageBytes.length);
+        return frameConverter;
     }
 
     public static Bitmap rotateBitmap(@NonNull final Bitmap source, final float angle) {
@@ -303,4 +204,38 @@ public class ImageHelper {
 
         context.getContentResolver().insert(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, values);
     }
+
+    /**
+     * The image of a Frame, copied on the thread that received it: either a bitmap, or the pixels of a byte array
+     * frame with their dimensions and color format.
+     */
+    public static class FrameCopy {
+        private Bitmap bitmap;
+        private byte[] pixels;
+        private final FrameConverter.ColorFormat format;
+        private final int width;
+        private final int height;
+        private final double rotation; //the frame's target rotation, in degrees
+
+        private FrameCopy(Bitmap bitmap, byte[] pixels, FrameConverter.ColorFormat format, int width, int height,
+                          double rotation) {
+            this.bitmap = bitmap;
+            this.pixels = pixels;
+            this.format = format;
+            this.width = width;
+            this.height = height;
+            this.rotation = rotation;
+        }
+
+        /**
+         * Release a copy that will not be converted.
+         */
+        public void recycle() {
+            if (bitmap != null && !bitmap.isRecycled()) {
+                bitmap.recycle();
+            }
+            bitmap = null;
+            pixels = null;
+        }
+    }
 }
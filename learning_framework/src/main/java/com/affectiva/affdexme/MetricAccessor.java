@@ -0,0 +1,184 @@
+/**
+ * Copyright (c) 2016 Affectiva Inc.
+ * See the file license.txt for copying permission.
+ */
+
+package com.affectiva.affdexme;
+
+import android.support.annotation.NonNull;
+
+import com.affectiva.android.affdex.sdk.detector.Face;
+
+/**
+ * Reads the score of a single metric from a Face object.
+ * The getters are resolved once, when the accessor table is built, so reading a score on every
+ * processed frame is a plain method call that returns a primitive float (no reflection, no boxing).
+ * Accessors are obtained through forMetric(), which indexes a table by MetricsManager.getMetricIndex().
+ */
+public abstract class MetricAccessor {
+
+    private static final MetricAccessor[] accessors;
+
+    static {
+        MetricsManager.Metrics[] allMetrics = MetricsManager.getAllMetrics();
+        accessors = new MetricAccessor[allMetrics.length];
+        for (MetricsManager.Metrics metric : allMetrics) {
+            accessors[MetricsManager.getMetricIndex(metric)] = createAccessor(metric);
+        }
+    }
+
+    private final MetricsManager.Metrics metric;
+
+    private MetricAccessor(MetricsManager.Metrics metric) {
+        this.metric = metric;
+    }
+
+    public static MetricAccessor forMetric(@NonNull MetricsManager.Metrics metric) {
+        return accessors[MetricsManager.getMetricIndex(metric)];
+    }
+
+    public MetricsManager.Metrics getMetric() {
+        return metric;
+    }
+
+    public abstract float getScore(@NonNull Face face);
+
+    private static MetricAccessor createAccessor(MetricsManager.Metrics metric) {
+        switch (metric.getType()) {
+            case Emotion:
+                return new EmotionAccessor((MetricsManager.Emotions) metric);
+            case Expression:
+                return new ExpressionAccessor((MetricsManager.Expressions) metric);
+            case Emoji:
+                return new EmojiAccessor((MetricsManager.Emojis) metric);
+            default:
+                throw new IllegalArgumentException("Unknown Metric Type: " + metric.getType());
+        }
+    }
+
+    private static class EmotionAccessor extends MetricAccessor {
+        private final MetricsManager.Emotions emotion;
+
+        EmotionAccessor(MetricsManager.Emotions emotion) {
+            super(emotion);
+            this.emotion = emotion;
+        }
+
+        @Override
+        public float getScore(@NonNull Face face) {
+            Face.Emotions emotions = face.emotions;
+            switch (emotion) {
+                case ANGER:
+                    return emotions.getAnger();
+                case DISGUST:
+                    return emotions.getDisgust();
+                case FEAR:
+                    return emotions.getFear();
+                case JOY:
+                    return emotions.getJoy();
+                case SADNESS:
+                    return emotions.getSadness();
+                case SURPRISE:
+                    return emotions.getSurprise();
+                case CONTEMPT:
+                    return emotions.getContempt();
+                case ENGAGEMENT:
+                    return emotions.getEngagement();
+                case VALENCE:
+                    return emotions.getValence();
+                default:
+                    return Float.NaN;
+            }
+        }
+    }
+
+    private static class ExpressionAccessor extends MetricAccessor {
+        private final MetricsManager.Expressions expression;
+
+        ExpressionAccessor(MetricsManager.Expressions expression) {
+            super(expression);
+            this.expression = expression;
+        }
+
+        @Override
+        public float getScore(@NonNull Face face) {
+            Face.Expressions expressions = face.expressions;
+            switch (expression) {
+                case ATTENTION:
+                    return expressions.getAttention();
+                case BROW_FURROW:
+                    return expressions.getBrowFurrow();
+                case BROW_RAISE:
+                    return expressions.getBrowRaise();
+                case CHIN_RAISE:
+                    return expressions.getChinRaise();
+                case EYE_CLOSURE:
+                    return expressions.getEyeClosure();
+                case INNER_BROW_RAISE:
+                    return expressions.getInnerBrowRaise();
+                case LIP_CORNER_DEPRESSOR:
+                    return expressions.getLipCornerDepressor();
+                case LIP_PRESS:
+                    return expressions.getLipPress();
+                case LIP_PUCKER:
+                    return expressions.getLipPucker();
+                case LIP_SUCK:
+                    return expressions.getLipSuck();
+                case MOUTH_OPEN:
+                    return expressions.getMouthOpen();
+                case NOSE_WRINKLE:
+                    return expressions.getNoseWrinkle();
+                case SMILE:
+                    return expressions.getSmile();
+                case SMIRK:
+                    return expressions.getSmirk();
+                case UPPER_LIP_RAISE:
+                    return expressions.getUpperLipRaise();
+                default:
+                    return Float.NaN;
+            }
+        }
+    }
+
+    private static class EmojiAccessor extends MetricAccessor {
+        private final MetricsManager.Emojis emoji;
+
+        EmojiAccessor(MetricsManager.Emojis emoji) {
+            super(emoji);
+            this.emoji = emoji;
+        }
+
+        @Override
+        public float getScore(@NonNull Face face) {
+            Face.Emojis emojis = face.emojis;
+            switch (emoji) {
+                case RELAXED:
+                    return emojis.getRelaxed();
+                case SMILEY:
+                    return emojis.getSmiley();
+                case LAUGHING:
+                    return emojis.getLaughing();
+                case KISSING:
+                    return emojis.getKissing();
+                case DISAPPOINTED:
+                    return emojis.getDisappointed();
+                case RAGE:
+                    return emojis.getRage();
+                case SMIRK:
+                    return emojis.getSmirk();
+                case WINK:
+                    return emojis.getWink();
+                case STUCK_OUT_TONGUE_WINKING_EYE:
+                    return emojis.getStuckOutTongueWinkingEye();
+                case STUCK_OUT_TONGUE:
+                    return emojis.getStuckOutTongue();
+                case FLUSHED:
+                    return emojis.getFlushed();
+                case SCREAM:
+                    return emojis.getScream();
+                default:
+                    return Float.NaN;
+            }
+        }
+    }
+}
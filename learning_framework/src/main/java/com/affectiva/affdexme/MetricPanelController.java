@@ -0,0 +1,74 @@
+/**
+ * Copyright (c) 2016 Affectiva Inc.
+ * See the file license.txt for copying permission.
+ */
+
+package com.affectiva.affdexme;
+
+import android.support.annotation.NonNull;
+import android.view.Choreographer;
+
+import java.util.Arrays;
+
+/**
+ * Coalesces the updates of the MetricPanelView to at most one per display frame.
+ * <p>
+ * Results may arrive faster than the display refreshes, so setScore() only stores the latest value in a primitive
+ * array and requests a Choreographer frame callback; the panel is updated once in that callback, with whatever values
+ * are current by then, and only invalidates the slots whose rounded score changes (see MetricPanelView.setScore()).
+ * <p>
+ * All methods must be called on the main thread.
+ */
+public class MetricPanelController implements Choreographer.FrameCallback {
+
+    private final MetricPanelView panel;
+    private float[] pendingScores = new float[0]; // NaN when the slot has no new score
+    private boolean isFrameCallbackPosted = false;
+
+    public MetricPanelController(@NonNull MetricPanelView panel) {
+        this.panel = panel;
+    }
+
+    /**
+     * Show the given score in the given slot of the panel from the next frame on.
+     */
+    public void setScore(int slot, float score) {
+        if (slot >= pendingScores.length) {
+            int oldLength = pendingScores.length;
+            pendingScores = Arrays.copyOf(pendingScores, panel.getSlotCount());
+            Arrays.fill(pendingScores, oldLength, pendingScores.length, Float.NaN);
+        }
+        pendingScores[slot] = score;
+        scheduleUpdate();
+    }
+
+    /**
+     * Drop the pending updates, e.g. when the activity is paused.
+     */
+    public void cancel() {
+        if (isFrameCallbackPosted) {
+            Choreographer.getInstance().removeFrameCallback(this);
+            isFrameCallbackPosted = false;
+        }
+        Arrays.fill(pendingScores, Float.NaN);
+    }
+
+    private void scheduleUpdate() {
+        if (!isFrameCallbackPosted) {
+            isFrameCallbackPosted = true;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        isFrameCallbackPosted = false;
+        int slotCount = Math.min(pendingScores.length, panel.getSlotCount());
+        for (int n = 0; n < slotCount; n++) {
+            if (!Float.isNaN(pendingScores[n])) {
+                panel.setScore(n, pendingScores[n]);
+                pendingScores[n] = Float.NaN;
+            }
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/**
+ * Copyright (c) 2016 Affectiva Inc.
+ * See the file license.txt for copying permission.
+ */
+
+package com.affectiva.affdexme;
+
+/**
+ * One processed frame read back by a FrameSource: a timestamp and the faces found in the frame.
+ * The FaceSnapshot objects are pooled, only the first getFaceCount() of them are valid.
+ */
+public class ReplayFrame {
+
+    private FaceSnapshot[] faces = new FaceSnapshot[0];
+    private int faceCount;
+    long elapsedNanos;
+    float timestamp;
+
+    /**
+     * Time at which the frame was processed, relative to an arbitrary origin. Used to pace replays.
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * The timestamp the detector attached to the frame, in seconds.
+     */
+    public float getTimestamp() {
+        return timestamp;
+    }
+
+    public int getFaceCount() {
+        return faceCount;
+    }
+
+    /**
+     * The pooled faces, only the first getFaceCount() of which are valid, in the form DrawingView.updatePoints()
+     * takes them.
+     */
+    FaceSnapshot[] getFaces() {
+        return faces;
+    }
+
+    public FaceSnapshot getFace(int n) {
+        if (n >= faceCount) {
+            throw new IndexOutOfBoundsException("Face " + n + " requested, frame holds " + faceCount);
+        }
+        return faces[n];
+    }
+
+    void reset(long elapsedNanos, float timestamp) {
+        this.elapsedNanos = elapsedNanos;
+        this.timestamp = timestamp;
+        faceCount = 0;
+    }
+
+    /**
+     * Append a face to the frame, reusing a pooled object when one is available.
+     */
+    FaceSnapshot addFace() {
+        if (faceCount == faces.length) {
+            FaceSnapshot[] grown = new FaceSnapshot[faces.length + 1];
+            System.arraycopy(faces, 0, grown, 0, faces.length);
+            grown[faces.length] = new FaceSnapshot();
+            faces = grown;
+        }
+        FaceSnapshot face = faces[faceCount++];
+        face.clear();
+        return face;
+    }
+}
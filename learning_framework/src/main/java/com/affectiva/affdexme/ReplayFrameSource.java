@@ -0,0 +1,205 @@
+/**
+ * Copyright (c) 2016 Affectiva Inc.
+ * See the file license.txt for copying permission.
+ */
+
+package com.affectiva.affdexme;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A FrameSource that replays frames read from disk on its own thread, either at the speed they were recorded
+ * at or as fast as the consumer accepts them.
+ * <p>
+ * Frames are handed to the listener through a callback Executor (for instance one posting to the main thread,
+ * like the SDK delivers onImageResults()). Two ReplayFrame objects are alternated: the next frame is read while
+ * the listener handles the current one, and reading never gets more than one frame ahead.
+ * Uses no Android APIs, so it also runs on a desktop JVM.
+ */
+public class ReplayFrameSource implements FrameSource {
+
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private final Input input;
+    private final boolean isRealTime;
+    private final Executor callbackExecutor;
+    private final ReplayFrame[] frames = {new ReplayFrame(), new ReplayFrame()};
+    private final Runnable[] deliveries = new Runnable[frames.length];
+    private final Semaphore frameConsumed = new Semaphore(frames.length); //one permit per frame not held by the listener
+    private volatile Listener listener;
+    private volatile boolean stopFlag = false;
+    private Thread thread;
+    private long deliveredFrameCount;
+
+    /**
+     * @param isRealTime true to replay at recorded speed, false to replay as fast as possible
+     * @param callbackExecutor executor the listener is called on, null to call it on the replay thread
+     */
+    public ReplayFrameSource(Input input, boolean isRealTime, Executor callbackExecutor) {
+        this.input = input;
+        this.isRealTime = isRealTime;
+        this.callbackExecutor = (callbackExecutor == null) ? DIRECT_EXECUTOR : callbackExecutor;
+
+        for (int n = 0; n < frames.length; n++) {
+            final ReplayFrame frame = frames[n];
+            deliveries[n] = new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Listener l = listener;
+                        if (l != null && !stopFlag) {
+                            l.onFrameResults(frame);
+                        }
+                    } finally {
+                        frameConsumed.release();
+                    }
+                }
+            };
+        }
+    }
+
+    @Override
+    public synchronized void start(Listener listener) {
+        if (thread != null) {
+            throw new IllegalStateException("Replay already started");
+        }
+        this.listener = listener;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                replay();
+            }
+        }, "ReplayFrameSource");
+        thread.start();
+    }
+
+    @Override
+    public void stop() {
+        Thread t;
+        synchronized (this) {
+            stopFlag = true;
+            t = thread;
+        }
+        if (t != null && t != Thread.currentThread()) {
+            t.interrupt();
+            boolean retry = true;
+            while (retry) {
+                try {
+                    t.join();
+                    retry = false;
+                } catch (InterruptedException e) {
+                    // keep waiting, the replay thread exits promptly once interrupted
+                }
+            }
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        Thread t = thread;
+        return t != null && t.isAlive();
+    }
+
+    @Override
+    public int getImageWidth() {
+        return input.getImageWidth();
+    }
+
+    @Override
+    public int getImageHeight() {
+        return input.getImageHeight();
+    }
+
+    public long getDeliveredFrameCount() {
+        return deliveredFrameCount;
+    }
+
+    private void replay() {
+        Exception error = null;
+        long firstFrameNanos = 0;
+        long replayStartNanos = System.nanoTime();
+        int next = 0;
+
+        try {
+            while (!stopFlag) {
+                // wait until the listener is done with the frame we are about to overwrite
+                frameConsumed.acquire();
+                ReplayFrame frame = frames[next];
+                if (!input.next(frame)) {
+                    frameConsumed.release();
+                    break;
+                }
+
+                if (isRealTime) {
+                    if (deliveredFrameCount == 0) {
+                        firstFrameNanos = frame.getElapsedNanos();
+                    }
+                    long dueNanos = replayStartNanos + (frame.getElapsedNanos() - firstFrameNanos);
+                    long waitNanos = dueNanos - System.nanoTime();
+                    if (waitNanos > 0) {
+                        TimeUnit.NANOSECONDS.sleep(waitNanos);
+                    }
+                }
+
+                callbackExecutor.execute(deliveries[next]);
+                deliveredFrameCount++;
+                next = (next + 1) % frames.length;
+            }
+            // wait for every frame handed to the listener to be consumed before reporting the end of the replay
+            frameConsumed.acquire(frames.length);
+            frameConsumed.release(frames.length);
+        } catch (InterruptedException e) {
+            // stop() was called
+        } catch (IOException e) {
+            error = e;
+        } finally {
+            try {
+                input.close();
+            } catch (IOException e) {
+                if (error == null) {
+                    error = e;
+                }
+            }
+        }
+
+        final Exception finalError = error;
+        callbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Listener l = listener;
+                if (l != null) {
+                    l.onFrameSourceFinished(finalError);
+                }
+            }
+        });
+    }
+
+    /**
+     * Something frames can be read from, one at a time.
+     */
+    public interface Input {
+        /**
+         * Fill the given frame with the next frame.
+         *
+         * @return false once there are no more frames
+         */
+        boolean next(ReplayFrame frame) throws IOException;
+
+        /**
+         * Size of the images the landmarks of the frames refer to, 0 if unknown.
+         */
+        int getImageWidth();
+
+        int getImageHeight();
+
+        void close() throws IOException;
+    }
+}
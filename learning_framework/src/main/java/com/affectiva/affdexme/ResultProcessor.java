@@ -0,0 +1,419 @@
+/**
+ * Copyright (c) 2016 Affectiva Inc.
+ * See the file license.txt for copying permission.
+ */
+
+package com.affectiva.affdexme;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+import android.os.Process;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Derives everything the application shows or records from the detector results, on a dedicated HandlerThread
+ * rather than in the SDK callback on the main thread.
+ * <p>
+ * The main thread submits a Batch per processed frame (a copy of its FaceSnapshots, with the frame's times) and
+ * returns; no SDK object reaches the processing thread. The processing thread records every live face to the
+ * SessionRecorder, derives what the overlay draws of each face (its valence, smoothed over the face's track, and its
+ * dominant emotion) into the face's snapshot, and publishes the faces to the Overlay itself. It also reads the
+ * scores of the metrics shown in the metric panel, smooths them, and posts only the resulting DisplayState to the
+ * Listener on the main thread. Batches and display states are pooled and messages are
+ * obtained from the Message pool, so a frame allocates nothing once the pools are warm.
+ * <p>
+ * Configuration changes (the metric of a panel slot, smoothing, recording) are posted to the processing thread
+ * too, so they apply between two batches and the state they touch is only ever touched by that thread.
+ * getQueueDepth() tells how many batches are waiting, which grows when processing falls behind the detector.
+ * <p>
+ * Unless noted otherwise, methods must be called on the main thread.
+ */
+public class ResultProcessor implements Handler.Callback {
+
+    private static final String LOG_TAG = "AffdexMe";
+    private static final int MSG_FRAME = 0;
+    private static final int MSG_SET_SLOT = 1;
+    private static final int MSG_SET_SMOOTHING = 2;
+    private static final int MSG_RESET_SMOOTHING = 3;
+    private static final int MSG_START_RECORDING = 4;
+    private static final int MSG_STOP_RECORDING = 5;
+    private static final int MSG_QUIT = 6;
+    private static final int MSG_SET_IMAGE_SIZE = 7;
+    private static final int POOL_SIZE = 8; //pooled batches and display states each, beyond which they are left to the GC
+    private static final int MAX_TRACKED_FACES = 8; //faces beyond this are untracked and drawn with their raw valence
+    private static final float MIN_TRACKING_OVERLAP = 0.3f; //intersection over union needed to consider two boxes the same face
+    private static final int MAX_MISSED_FRAMES = 10; //frames a face may go undetected before its track expires
+    private static final int VALENCE_INDEX = MetricsManager.getMetricIndex(MetricsManager.Emotions.VALENCE);
+
+    private final Listener listener;
+    private final HandlerThread thread;
+    private final Handler handler;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ArrayBlockingQueue<Batch> freeBatches = new ArrayBlockingQueue<>(POOL_SIZE);
+    private final ArrayBlockingQueue<DisplayState> freeDisplayStates = new ArrayBlockingQueue<>(POOL_SIZE);
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    private final AtomicInteger peakQueueDepth = new AtomicInteger();
+    private volatile Overlay overlay; //receives the faces of every batch, if set
+
+    //the fields below are only touched by the processing thread
+    private final SessionRecorder sessionRecorder = new SessionRecorder();
+    private final ScoreSmoother smoother = new ScoreSmoother(1, MetricsManager.getMetricCount());
+    private final FaceTracker faceTracker = new FaceTracker(MAX_TRACKED_FACES, MIN_TRACKING_OVERLAP, MAX_MISSED_FRAMES);
+    private final ScoreSmoother valenceSmoother = new ScoreSmoother(MAX_TRACKED_FACES, 1); //indexed by track slot
+    private final LandmarkProjector landmarkProjector = new LandmarkProjector();
+    private float[] faceBoxes = new float[0]; //bounding boxes of the landmarks, in image coordinates, packed for the tracker
+    private MetricsManager.Metrics[] slotMetrics = new MetricsManager.Metrics[0];
+
+    public ResultProcessor(@NonNull Listener listener) {
+        this.listener = listener;
+        thread = new HandlerThread("ResultProcessor", Process.THREAD_PRIORITY_DEFAULT);
+        thread.start();
+        handler = new Handler(thread.getLooper(), this);
+    }
+
+    /**
+     * Set the overlay which draws the faces of the following batches. May be called from any thread.
+     */
+    public void setOverlay(@Nullable Overlay overlay) {
+        this.overlay = overlay;
+    }
+
+    /**
+     * Hand over the first faceCount faces of a processed camera frame. The snapshots are copied, so the caller may
+     * refill them for the next frame right away.
+     *
+     * @param receivedNanos    System.nanoTime() when the results were received
+     * @param timestamp        timestamp of the frame, as given with the results
+     * @param isPointsMirrored true if the overlay must mirror the landmarks, as the preview of a front camera
+     * @param isDrawn          false if the overlay has nothing to draw of these faces, which it then keeps showing
+     *                         the previous ones; frames without faces always clear it
+     */
+    public void submit(@NonNull FaceSnapshot[] faces, int faceCount, long receivedNanos, float timestamp,
+                       boolean isPointsMirrored, boolean isDrawn) {
+        Batch batch = obtainBatch(receivedNanos, receivedNanos, timestamp);
+        batch.setFaces(faces, faceCount);
+        batch.isPointsMirrored = isPointsMirrored;
+        batch.isDrawn = isDrawn;
+        send(batch);
+    }
+
+    /**
+     * Hand over a replayed frame. Replayed frames are reused by the ReplayFrameSource, so their faces are copied;
+     * replayed frames are not recorded again, and their faces are drawn unmirrored, as they were recorded.
+     *
+     * @param receivedNanos System.nanoTime() when the frame was replayed
+     * @param isDrawn       false if the overlay cannot draw the faces yet
+     */
+    public void submitReplay(@NonNull ReplayFrame frame, long receivedNanos, boolean isDrawn) {
+        Batch batch = obtainBatch(frame.getElapsedNanos(), receivedNanos, frame.getTimestamp());
+        for (int n = 0; n < frame.getFaceCount(); n++) {
+            batch.addFace(frame.getFace(n));
+        }
+        batch.isReplay = true;
+        batch.isDrawn = isDrawn;
+        send(batch);
+    }
+
+    /**
+     * Show the given metric in the given slot of the metric panel from the next batch on.
+     */
+    public void setSlotMetric(int slot, @NonNull MetricsManager.Metrics metric) {
+        handler.obtainMessage(MSG_SET_SLOT, slot, 0, metric).sendToTarget();
+    }
+
+    public void setSmoothing(@NonNull ScoreSmoother.Mode mode, int window) {
+        handler.obtainMessage(MSG_SET_SMOOTHING, window, 0, mode).sendToTarget();
+    }
+
+    /**
+     * Forget the smoothing history, e.g. because the next face may be someone else.
+     */
+    public void resetSmoothing() {
+        handler.sendEmptyMessage(MSG_RESET_SMOOTHING);
+    }
+
+    /**
+     * Record every face of the following batches to the given session file.
+     */
+    public void startRecording(@NonNull File sessionFile) {
+        handler.obtainMessage(MSG_START_RECORDING, sessionFile).sendToTarget();
+    }
+
+    public void stopRecording() {
+        handler.sendEmptyMessage(MSG_STOP_RECORDING);
+    }
+
+    /**
+     * Set the size of the camera images the landmarks refer to, saved with the recorded sessions.
+     */
+    public void setImageSize(int width, int height) {
+        handler.obtainMessage(MSG_SET_IMAGE_SIZE, width, height).sendToTarget();
+    }
+
+    /**
+     * Process the batches already submitted, stop recording and end the processing thread.
+     */
+    public void quit() {
+        handler.sendEmptyMessage(MSG_QUIT);
+    }
+
+    /**
+     * Number of batches submitted but not processed yet. May be called from any thread.
+     */
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    /**
+     * Largest queue depth reached since the previous call. May be called from any thread.
+     */
+    public int getAndResetPeakQueueDepth() {
+        return peakQueueDepth.getAndSet(queueDepth.get());
+    }
+
+    private Batch obtainBatch(long elapsedNanos, long receivedNanos, float timestamp) {
+        Batch batch = freeBatches.poll();
+        if (batch == null) {
+            batch = new Batch();
+        }
+        batch.elapsedNanos = elapsedNanos;
+        batch.receivedNanos = receivedNanos;
+        batch.timestamp = timestamp;
+        return batch;
+    }
+
+    private void send(Batch batch) {
+        int depth = queueDepth.incrementAndGet();
+        int peak;
+        do {
+            peak = peakQueueDepth.get();
+        } while (depth > peak && !peakQueueDepth.compareAndSet(peak, depth));
+        handler.obtainMessage(MSG_FRAME, batch).sendToTarget();
+    }
+
+    @Override
+    public boolean handleMessage(Message msg) {
+        switch (msg.what) {
+            case MSG_FRAME:
+                Batch batch = (Batch) msg.obj;
+                process(batch);
+                batch.clear();
+                freeBatches.offer(batch);
+                queueDepth.decrementAndGet();
+                return true;
+            case MSG_SET_SLOT:
+                setSlot(msg.arg1, (MetricsManager.Metrics) msg.obj);
+                return true;
+            case MSG_SET_SMOOTHING:
+                ScoreSmoother.Mode mode = (ScoreSmoother.Mode) msg.obj;
+                if (!smoother.isConfiguredAs(mode, msg.arg1)) {
+                    smoother.configure(mode, msg.arg1);
+                }
+                if (!valenceSmoother.isConfiguredAs(mode, msg.arg1)) {
+                    valenceSmoother.configure(mode, msg.arg1);
+                }
+                return true;
+            case MSG_RESET_SMOOTHING:
+                smoother.reset();
+                valenceSmoother.reset();
+                return true;
+            case MSG_START_RECORDING:
+                try {
+                    sessionRecorder.start((File) msg.obj);
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Unable to start session recording", e);
+                }
+                return true;
+            case MSG_STOP_RECORDING:
+                sessionRecorder.stop();
+                return true;
+            case MSG_SET_IMAGE_SIZE:
+                sessionRecorder.setImageSize(msg.arg1, msg.arg2);
+                return true;
+            case MSG_QUIT:
+                sessionRecorder.stop();
+                thread.quit();
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private void setSlot(int slot, MetricsManager.Metrics metric) {
+        if (slot >= slotMetrics.length) {
+            slotMetrics = Arrays.copyOf(slotMetrics, slot + 1);
+        }
+        slotMetrics[slot] = metric;
+    }
+
+    private void process(Batch batch) {
+        if (!batch.isReplay && sessionRecorder.isRecording()) {
+            for (int n = 0; n < batch.faceCount; n++) {
+                sessionRecorder.record(batch.elapsedNanos, batch.timestamp, batch.faces[n]);
+            }
+        }
+
+        deriveOverlayScores(batch);
+        Overlay target = overlay;
+        if (target != null) {
+            if (batch.faceCount == 0) {
+                target.invalidatePoints();
+            } else if (batch.isDrawn) {
+                target.updatePoints(batch.faces, batch.faceCount, batch.isPointsMirrored, batch.receivedNanos);
+            }
+        }
+
+        //the metric panel is only shown when there is a single face
+        if (batch.faceCount != 1) {
+            return;
+        }
+        FaceSnapshot face = batch.faces[0];
+
+        DisplayState state = freeDisplayStates.poll();
+        if (state == null) {
+            state = new DisplayState();
+        }
+        state.setSlotCount(slotMetrics.length);
+        for (int n = 0; n < slotMetrics.length; n++) {
+            if (slotMetrics[n] == null) {
+                continue;
+            }
+            int metricIndex = MetricsManager.getMetricIndex(slotMetrics[n]);
+            state.scores[n] = smoother.filter(0, metricIndex, face.getScore(metricIndex), batch.elapsedNanos);
+        }
+        mainHandler.post(state);
+    }
+
+    /**
+     * Fill in the valence and the dominant emotion the overlay draws for each face. Valence is smoothed by track,
+     * so its filter follows the person when the SDK reorders the faces.
+     */
+    private void deriveOverlayScores(Batch batch) {
+        int faceCount = batch.faceCount;
+        if (faceBoxes.length < faceCount * 4) {
+            faceBoxes = new float[faceCount * 4];
+        }
+        for (int index = 0; index < faceCount; index++) {
+            //the bounding box of the landmarks, in image coordinates
+            landmarkProjector.project(batch.faces[index], 1, 0, false, Float.MAX_VALUE, Float.MAX_VALUE);
+            faceBoxes[index * 4] = landmarkProjector.getLeft();
+            faceBoxes[index * 4 + 1] = landmarkProjector.getTop();
+            faceBoxes[index * 4 + 2] = landmarkProjector.getRight();
+            faceBoxes[index * 4 + 3] = landmarkProjector.getBottom();
+        }
+        faceTracker.update(faceBoxes, faceCount);
+
+        for (int index = 0; index < faceCount; index++) {
+            FaceSnapshot face = batch.faces[index];
+            float valence = face.getScore(VALENCE_INDEX);
+            int trackSlot = faceTracker.getTrackSlot(index);
+            if (trackSlot != FaceTracker.NO_TRACK) {
+                if (faceTracker.isNewTrack(index)) {
+                    valenceSmoother.reset(trackSlot);
+                }
+                float smoothedValence = valenceSmoother.filter(trackSlot, 0, valence, batch.elapsedNanos);
+                if (!Float.isNaN(smoothedValence)) {
+                    valence = smoothedValence;
+                }
+            }
+            face.displayValence = valence;
+            face.dominantEmotion = DominantEmotion.find(face);
+        }
+    }
+
+    /**
+     * Receives the display states, on the main thread.
+     */
+    interface Listener {
+        void onDisplayState(@NonNull DisplayState state);
+    }
+
+    /**
+     * Draws the faces of each batch, called on the processing thread. The snapshots are only valid during the call.
+     */
+    interface Overlay {
+        void updatePoints(FaceSnapshot[] faces, int faceCount, boolean isPointsMirrored, long receivedNanos);
+
+        void invalidatePoints();
+    }
+
+    /**
+     * What a processed frame changes on screen: the smoothed score of each slot of the metric panel.
+     * Only valid during Listener.onDisplayState(), after which it goes back to the pool.
+     */
+    public class DisplayState implements Runnable {
+        private float[] scores = new float[0];
+        private int slotCount;
+
+        public int getSlotCount() {
+            return slotCount;
+        }
+
+        /**
+         * The smoothed score of the given slot, NaN if the slot shows no metric.
+         */
+        public float getScore(int slot) {
+            return scores[slot];
+        }
+
+        private void setSlotCount(int count) {
+            if (count > scores.length) {
+                scores = new float[count];
+            }
+            slotCount = count;
+            Arrays.fill(scores, 0, count, Float.NaN);
+        }
+
+        @Override
+        public void run() {
+            listener.onDisplayState(this);
+            freeDisplayStates.offer(this);
+        }
+    }
+
+    /**
+     * The results of one processed frame, as handed to the processing thread.
+     */
+    static class Batch {
+        private FaceSnapshot[] faces = new FaceSnapshot[0]; //grown as needed, the first faceCount are valid
+        private int faceCount;
+        private boolean isReplay;
+        private boolean isPointsMirrored;
+        private boolean isDrawn;
+        private long elapsedNanos; //time line of the frames, for smoothing and recording
+        private long receivedNanos; //System.nanoTime() when the frame was received, for the overlay
+        private float timestamp;
+
+        private void setFaces(FaceSnapshot[] source, int count) {
+            faceCount = 0;
+            for (int n = 0; n < count; n++) {
+                addFace(source[n]);
+            }
+        }
+
+        private void addFace(FaceSnapshot face) {
+            if (faceCount == faces.length) {
+                faces = Arrays.copyOf(faces, faceCount + 1);
+                faces[faceCount] = new FaceSnapshot();
+            }
+            faces[faceCount++].copyFrom(face);
+        }
+
+        private void clear() {
+            faceCount = 0;
+            isReplay = false;
+            isPointsMirrored = false;
+            isDrawn = false;
+        }
+    }
+}
@@ -0,0 +1,255 @@
+/**
+ * Copyright (c) 2016 Affectiva Inc.
+ * See the file license.txt for copying permission.
+ */
+
+package com.affectiva.affdexme;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.os.Environment;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.text.format.DateFormat;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds and saves screenshots on a background thread.
+ * <p>
+ * The UI thread only snapshots what has to be read on it (a copy of the camera frame's pixels, taken in the SDK
+ * callback since the SDK reuses the frame once it has returned, and the bitmaps of the overlay and metric views)
+ * and submits a Request. A single worker then runs the stages in order: frame capture (copied frame to Bitmap), compositing,
+ * PNG encoding and gallery insert.
+ * <p>
+ * At most 'capacity' requests may be waiting; further requests are refused (submit() returns false) instead
+ * of piling up while the user keeps tapping. The time spent in each stage is logged and reported to the
+ * Listener, which is called on the main thread.
+ */
+public class ScreenshotPipeline {
+
+    private static final String LOG_TAG = "AffdexMe";
+    private static final int DEFAULT_CAPACITY = 2;
+
+    private final Context context;
+    private final Listener listener;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ThreadPoolExecutor worker;
+
+    public ScreenshotPipeline(@NonNull Context context, @NonNull Listener listener) {
+        this(context, listener, DEFAULT_CAPACITY);
+    }
+
+    public ScreenshotPipeline(@NonNull Context context, @NonNull Listener listener, int capacity) {
+        this.context = context.getApplicationContext();
+        this.listener = listener;
+        worker = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(capacity),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(@NonNull Runnable runnable) {
+                        Thread thread = new Thread(runnable, "ScreenshotPipeline");
+                        thread.setPriority(Thread.MIN_PRIORITY);
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+
+    /**
+     * @return false if the pipeline cannot take another request right now
+     */
+    public boolean isAcceptingRequests() {
+        return !worker.isShutdown() && worker.getQueue().remainingCapacity() > 0;
+    }
+
+    /**
+     * Queue a screenshot. If the request is refused, its bitmaps are recycled and false is returned.
+     */
+    public boolean submit(@NonNull final Request request) {
+        request.queuedAt = SystemClock.elapsedRealtime();
+        try {
+            worker.execute(new Runnable() {
+                @Override
+                public void run() {
+                    process(request);
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            Log.w(LOG_TAG, "Screenshot pipeline is busy, dropping screenshot request");
+            request.recycle();
+            return false;
+        }
+    }
+
+    public void shutdown() {
+        worker.shutdown();
+    }
+
+    private void process(final Request request) {
+        long stageStart = SystemClock.elapsedRealtime();
+        final long queueWait = stageStart - request.queuedAt;
+
+        try {
+            // Stage 1: frame capture
+            Bitmap faceBitmap = ImageHelper.getBitmapFromFrame(request.frame);
+            if (faceBitmap == null) {
+                throw new IOException("Unable to generate bitmap for frame");
+            }
+            long now = SystemClock.elapsedRealtime();
+            final long captureTime = now - stageStart;
+            stageStart = now;
+
+            // Stage 2: compositing
+            Bitmap finalScreenshot = composite(faceBitmap, request.drawingViewBitmap, request.metricsBitmap);
+            request.recycle();
+            now = SystemClock.elapsedRealtime();
+            final long compositeTime = now - stageStart;
+            stageStart = now;
+
+            // Stage 3: encoding
+            File pictureFolder = new File(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_PICTURES), "AffdexMe");
+            if (!pictureFolder.exists() && !pictureFolder.mkdir()) {
+                faceBitmap.recycle();
+                finalScreenshot.recycle();
+                throw new IOException("Unable to create directory: " + pictureFolder.getAbsolutePath());
+            }
+            String timestamp = DateFormat.format("yyyy-MM-dd_hh-mm-ss", new Date(request.requestedAtWallTime)).toString();
+            final File screenshotFile = new File(pictureFolder, timestamp + ".png");
+            File rawScreenshotFile = null;
+
+            try {
+                ImageHelper.saveBitmapToFileAsPng(finalScreenshot, screenshotFile); // recycles finalScreenshot
+                if (request.alsoSaveRaw) {
+                    rawScreenshotFile = new File(pictureFolder, timestamp + "_raw.png");
+                    try {
+                        ImageHelper.saveBitmapToFileAsPng(faceBitmap, rawScreenshotFile); // recycles faceBitmap
+                    } catch (IOException e) {
+                        Log.e(LOG_TAG, "Unable to save raw screenshot", e);
+                        rawScreenshotFile = null;
+                    }
+                }
+            } finally {
+                if (!faceBitmap.isRecycled()) {
+                    faceBitmap.recycle();
+                }
+                if (!finalScreenshot.isRecycled()) {
+                    finalScreenshot.recycle();
+                }
+            }
+            now = SystemClock.elapsedRealtime();
+            final long encodeTime = now - stageStart;
+            stageStart = now;
+
+            // Stage 4: gallery insert
+            ImageHelper.addPngToGallery(context, screenshotFile);
+            if (rawScreenshotFile != null) {
+                ImageHelper.addPngToGallery(context, rawScreenshotFile);
+            }
+            now = SystemClock.elapsedRealtime();
+            final long galleryTime = now - stageStart;
+            final long totalTime = now - request.requestedAt;
+
+            Log.d(LOG_TAG, String.format(Locale.US,
+                    "Screenshot saved in %d ms (overlay %d, queued %d, capture %d, composite %d, encode %d, gallery %d)",
+                    totalTime, request.queuedAt - request.requestedAt, queueWait,
+                    captureTime, compositeTime, encodeTime, galleryTime));
+
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    listener.onScreenshotSaved(screenshotFile, new long[]{
+                            request.queuedAt - request.requestedAt, queueWait, captureTime, compositeTime, encodeTime, galleryTime});
+                }
+            });
+        } catch (final Exception e) {
+            request.recycle();
+            Log.e(LOG_TAG, "Unable to save screenshot", e);
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    listener.onScreenshotFailed(e);
+                }
+            });
+        }
+    }
+
+    private static Bitmap composite(Bitmap faceBitmap, Bitmap drawingViewBitmap, Bitmap metricsBitmap) {
+        Bitmap finalScreenshot = Bitmap.createBitmap(faceBitmap.getWidth(), faceBitmap.getHeight(), Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(finalScreenshot);
+        Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+        canvas.drawBitmap(faceBitmap, 0, 0, paint);
+
+        float scaleFactor = ((float) faceBitmap.getWidth()) / ((float) drawingViewBitmap.getWidth());
+        int scaledHeight = Math.round(drawingViewBitmap.getHeight() * scaleFactor);
+        canvas.drawBitmap(drawingViewBitmap, null, new Rect(0, 0, faceBitmap.getWidth(), scaledHeight), paint);
+
+        scaleFactor = ((float) faceBitmap.getWidth()) / ((float) metricsBitmap.getWidth());
+        scaledHeight = Math.round(metricsBitmap.getHeight() * scaleFactor);
+        canvas.drawBitmap(metricsBitmap, null, new Rect(0, 0, faceBitmap.getWidth(), scaledHeight), paint);
+
+        return finalScreenshot;
+    }
+
+    interface Listener {
+        /**
+         * @param stageTimes milliseconds spent in: overlay capture, queue, frame capture, compositing, encoding, gallery insert
+         */
+        void onScreenshotSaved(File screenshotFile, long[] stageTimes);
+
+        void onScreenshotFailed(Exception e);
+    }
+
+    /**
+     * The state captured on the UI thread for one screenshot. The pipeline takes ownership of the frame copy and
+     * the bitmaps.
+     */
+    public static class Request {
+        private final ImageHelper.FrameCopy frame;
+        private final Bitmap drawingViewBitmap;
+        private final Bitmap metricsBitmap;
+        private final boolean alsoSaveRaw;
+        private final long requestedAt;
+        private final long requestedAtWallTime;
+        private long queuedAt;
+
+        /**
+         * @param frame       the camera frame, copied by ImageHelper.copyFrame() in the SDK callback that delivered it
+         * @param requestedAt SystemClock.elapsedRealtime() when the user asked for the screenshot
+         */
+        public Request(@NonNull ImageHelper.FrameCopy frame, @NonNull Bitmap drawingViewBitmap, @NonNull Bitmap metricsBitmap,
+                       boolean alsoSaveRaw, long requestedAt) {
+            this.frame = frame;
+            this.drawingViewBitmap = drawingViewBitmap;
+            this.metricsBitmap = metricsBitmap;
+            this.alsoSaveRaw = alsoSaveRaw;
+            this.requestedAt = requestedAt;
+            this.requestedAtWallTime = System.currentTimeMillis();
+        }
+
+        private void recycle() {
+            frame.recycle();
+            if (!drawingViewBitmap.isRecycled()) {
+                drawingViewBitmap.recycle();
+            }
+            if (!metricsBitmap.isRecycled()) {
+                metricsBitmap.recycle();
+            }
+        }
+    }
+}
@@ -0,0 +1,192 @@
+/**
+ * Copyright (c) 2016 Affectiva Inc.
+ * See the file license.txt for copying permission.
+ */
+
+package com.affectiva.affdexme;
+
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Records the scores of every metric and the landmark coordinates of every face in every processed frame to a
+ * binary session file, for offline analysis.
+ * <p>
+ * The file is written through a MappedByteBuffer which is grown CHUNK_SIZE bytes at a time, so recording a face
+ * is a series of memory writes: no allocation and no system call on the hot path. stop() truncates the file to
+ * the bytes actually written.
+ * <p>
+ * The header holds the number of records written, updated after each record, so that the file of a session that
+ * never reached stop() (the app crashed or was killed) can still be read: the zero-filled end of its last chunk
+ * is not replayed as records.
+ * <p>
+ * File layout (little endian):
+ * <pre>
+ * header:  int MAGIC, int VERSION, int metric count, int MAX_LANDMARKS, int record size in bytes,
+ *          int image width, int image height (of the camera images the landmarks refer to, 0 if unknown),
+ *          int record count
+ * records: long elapsed nanoseconds, float SDK timestamp, int face index, int landmark count,
+ *          float[metric count] scores (ordered as MetricsManager.getAllMetrics()),
+ *          float[2 * MAX_LANDMARKS] landmark x,y pairs (unused pairs are NaN)
+ * </pre>
+ * A recorder is meant to be driven by a single thread.
+ */
+public class SessionRecorder {
+
+    public static final int MAGIC = 0x41464453; // "AFDS"
+    public static final int VERSION = 3;
+    public static final int MAX_LANDMARKS = 34;
+    public static final int HEADER_SIZE = 8 * 4;
+    static final int IMAGE_SIZE_OFFSET = 5 * 4;
+    static final int RECORD_COUNT_OFFSET = 7 * 4;
+    public static final int RECORD_SIZE = 8 + 4 + 4 + 4 + (MetricsManager.getMetricCount() + 2 * MAX_LANDMARKS) * 4;
+    static final int CHUNK_SIZE = RECORD_SIZE * 1024;
+
+    private static final String LOG_TAG = "AffdexMe";
+
+    private RandomAccessFile file;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private MappedByteBuffer header; // mapped for the whole session, so it can be updated wherever buffer is
+    private long bufferOffset; // position of the mapped region within the file
+    private long recordCount;
+    private File sessionFile;
+    private int imageWidth;
+    private int imageHeight;
+
+    public boolean isRecording() {
+        return channel != null;
+    }
+
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+    public File getSessionFile() {
+        return sessionFile;
+    }
+
+    /**
+     * Set the size of the camera images the landmarks refer to, written to the header of the session file so a
+     * replay can size its overlay. If it changes during a session, the file holds the last size set.
+     */
+    public void setImageSize(int width, int height) {
+        imageWidth = width;
+        imageHeight = height;
+        if (header != null) {
+            header.putInt(IMAGE_SIZE_OFFSET, width);
+            header.putInt(IMAGE_SIZE_OFFSET + 4, height);
+        }
+    }
+
+    /**
+     * Create (or overwrite) the session file and write its header.
+     */
+    public void start(@NonNull File sessionFile) throws IOException {
+        if (isRecording()) {
+            stop();
+        }
+
+        this.sessionFile = sessionFile;
+        file = new RandomAccessFile(sessionFile, "rw");
+        file.setLength(0);
+        channel = file.getChannel();
+        bufferOffset = 0;
+        recordCount = 0;
+        map(0);
+        header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+        header.order(ByteOrder.LITTLE_ENDIAN);
+
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(MetricsManager.getMetricCount());
+        buffer.putInt(MAX_LANDMARKS);
+        buffer.putInt(RECORD_SIZE);
+        buffer.putInt(imageWidth);
+        buffer.putInt(imageHeight);
+        buffer.putInt(0);
+    }
+
+    /**
+     * Append one record for the given face. Does nothing if the recorder is not started.
+     */
+    public void record(long elapsedNanos, float timestamp, @NonNull FaceSnapshot face) {
+        if (channel == null) {
+            return;
+        }
+
+        try {
+            if (buffer.remaining() < RECORD_SIZE) {
+                map(bufferOffset + buffer.position());
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Unable to grow session file, stopping recording", e);
+            stop();
+            return;
+        }
+
+        MappedByteBuffer out = buffer;
+        out.putLong(elapsedNanos);
+        out.putFloat(timestamp);
+        out.putInt(face.faceIndex);
+        out.putInt(face.pointCount);
+
+        //scores are ordered as MetricsManager.getAllMetrics(), unused landmark pairs are NaN
+        for (float score : face.scores) {
+            out.putFloat(score);
+        }
+        for (float coordinate : face.points) {
+            out.putFloat(coordinate);
+        }
+
+        recordCount++;
+        header.putInt(RECORD_COUNT_OFFSET, (int) recordCount); //only once the record is complete
+    }
+
+    /**
+     * Flush the records and truncate the file to its real length. Safe to call when not recording.
+     */
+    public void stop() {
+        if (channel == null) {
+            return;
+        }
+
+        long length = bufferOffset + buffer.position();
+        try {
+            buffer.force();
+            header.force();
+            buffer = null; // the mappings are released when the buffers are collected
+            header = null;
+            channel.truncate(length);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Unable to truncate session file: " + sessionFile, e);
+        } finally {
+            try {
+                file.close();
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Exception while closing session file", e);
+            }
+            channel = null;
+            file = null;
+        }
+
+        Log.d(LOG_TAG, "Recorded " + recordCount + " faces to " + sessionFile + " (" + length + " bytes)");
+    }
+
+    // map the next CHUNK_SIZE bytes starting at the given file position, extending the file as needed
+    private void map(long position) throws IOException {
+        if (buffer != null) {
+            buffer.force();
+        }
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, position, CHUNK_SIZE);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        bufferOffset = position;
+    }
+}
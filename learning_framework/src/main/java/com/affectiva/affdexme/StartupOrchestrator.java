@@ -0,0 +1,377 @@
+/**
+ * Copyright (c) 2016 Affectiva Inc.
+ * See the file license.txt for copying permission.
+ */
+
+package com.affectiva.affdexme;
+
+import android.content.Context;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the application's initialization as a graph of named tasks.
+ * <p>
+ * Every task declares the tasks it depends on and whether it has to run on the main thread (anything touching
+ * views). A task is dispatched as soon as all of its dependencies have finished: background tasks run in
+ * parallel on a small thread pool, main thread tasks are posted to the main looper. await() lets the main
+ * thread run the main thread tasks itself until the tasks it cannot continue without are done.
+ * If a task fails, the tasks depending on it are skipped.
+ * <p>
+ * The time each task waited and ran is recorded. Once all tasks have finished and finish() was called,
+ * the trace is logged and written to the app's "traces" files directory: startup_trace.json, in the Chrome trace event format
+ * (open it with chrome://tracing), and a line appended to startup_history.csv to follow cold-start time
+ * across runs.
+ */
+public class StartupOrchestrator {
+
+    private static final String LOG_TAG = "AffdexMe";
+    private static final String TRACE_FILE_NAME = "startup_trace.json";
+    private static final String HISTORY_FILE_NAME = "startup_history.csv";
+
+    private final Map<String, Task> tasks = new LinkedHashMap<>();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final LinkedBlockingQueue<Task> readyMainThreadTasks = new LinkedBlockingQueue<>();
+    private final Runnable mainThreadDrainer = new Runnable() {
+        @Override
+        public void run() {
+            Task task;
+            while ((task = readyMainThreadTasks.poll()) != null) {
+                runTask(task);
+            }
+        }
+    };
+    private final Context context;
+    private final long createdAt = SystemClock.elapsedRealtime();
+    private ExecutorService workers;
+    private int unfinishedTaskCount;
+    private long finishedAt = -1;
+    private boolean isStarted = false;
+    private boolean isTraceWritten = false;
+
+    /**
+     * @param context used to locate the trace directory, or null to only log the trace
+     */
+    public StartupOrchestrator(Context context) {
+        this.context = (context == null) ? null : context.getApplicationContext();
+    }
+
+    /**
+     * Declare a task. Dependencies must have been declared before the tasks depending on them.
+     */
+    public synchronized StartupOrchestrator addTask(@NonNull String name, boolean isMainThread, @NonNull Runnable work, String... dependencies) {
+        if (isStarted) {
+            throw new IllegalStateException("Tasks must be added before start()");
+        }
+        if (tasks.containsKey(name)) {
+            throw new IllegalArgumentException("Duplicate startup task: " + name);
+        }
+        Task task = new Task(name, isMainThread, work);
+        for (String dependency : dependencies) {
+            Task parent = tasks.get(dependency);
+            if (parent == null) {
+                throw new IllegalArgumentException("Startup task " + name + " depends on undeclared task " + dependency);
+            }
+            parent.dependents.add(task);
+            task.remainingDependencies++;
+        }
+        tasks.put(name, task);
+        return this;
+    }
+
+    /**
+     * Dispatch every task without dependencies. Must be called on the main thread.
+     */
+    public void start() {
+        List<Task> ready = new ArrayList<>();
+        synchronized (this) {
+            isStarted = true;
+            unfinishedTaskCount = tasks.size();
+            int threadCount = Math.max(1, Math.min(3, Runtime.getRuntime().availableProcessors() - 1));
+            workers = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+                private int count = 0;
+
+                @Override
+                public synchronized Thread newThread(@NonNull Runnable runnable) {
+                    Thread thread = new Thread(runnable, "Startup-" + count++);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            for (Task task : tasks.values()) {
+                if (task.remainingDependencies == 0) {
+                    ready.add(task);
+                }
+            }
+        }
+        for (Task task : ready) {
+            dispatch(task);
+        }
+    }
+
+    /**
+     * Run main thread tasks on the calling (main) thread until all the given tasks have finished.
+     *
+     * @throws RuntimeException if one of the given tasks failed or was skipped
+     */
+    public void await(String... names) {
+        List<Task> awaited = new ArrayList<>();
+        synchronized (this) {
+            for (String name : names) {
+                Task task = tasks.get(name);
+                if (task == null) {
+                    throw new IllegalArgumentException("Unknown startup task: " + name);
+                }
+                awaited.add(task);
+            }
+        }
+
+        for (Task task : awaited) {
+            while (!task.isFinished()) {
+                try {
+                    Task next = readyMainThreadTasks.poll(10, TimeUnit.MILLISECONDS);
+                    if (next != null) {
+                        runTask(next);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted during startup", e);
+                }
+            }
+            if (task.error != null) {
+                throw new RuntimeException("Startup task " + task.name + " failed", task.error);
+            }
+            if (task.isSkipped) {
+                throw new IllegalStateException("Startup task " + task.name + " was skipped because a dependency failed");
+            }
+        }
+    }
+
+    /**
+     * Mark the end of startup from the application's point of view (e.g. the window is shown). The trace is
+     * written once this was called and every task has finished. Only the first call counts.
+     */
+    public void finish() {
+        synchronized (this) {
+            if (finishedAt >= 0) {
+                return;
+            }
+            finishedAt = SystemClock.elapsedRealtime();
+        }
+        writeTraceIfComplete();
+    }
+
+    private void dispatch(final Task task) {
+        synchronized (this) {
+            task.readyAt = SystemClock.elapsedRealtime();
+        }
+        if (task.isMainThread) {
+            readyMainThreadTasks.add(task);
+            mainHandler.post(mainThreadDrainer);
+        } else {
+            workers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    runTask(task);
+                }
+            });
+        }
+    }
+
+    private void runTask(Task task) {
+        long startedAt = SystemClock.elapsedRealtime();
+        Throwable error = null;
+        try {
+            task.work.run();
+        } catch (RuntimeException | Error e) {
+            error = e;
+            Log.e(LOG_TAG, "Startup task " + task.name + " failed", e);
+        }
+        complete(task, startedAt, SystemClock.elapsedRealtime(), error, false);
+    }
+
+    private void complete(Task task, long startedAt, long endedAt, Throwable error, boolean isSkipped) {
+        List<Task> ready = new ArrayList<>();
+        List<Task> skipped = new ArrayList<>();
+        synchronized (this) {
+            if (isSkipped) {
+                task.readyAt = startedAt;
+            }
+            task.startedAt = startedAt;
+            task.endedAt = endedAt;
+            task.threadName = isSkipped ? "-" : Thread.currentThread().getName();
+            task.error = error;
+            task.isSkipped = isSkipped;
+            task.finished = true;
+            unfinishedTaskCount--;
+
+            for (Task dependent : task.dependents) {
+                if (error != null || isSkipped) {
+                    if (!dependent.isSkipped && !dependent.finished) {
+                        dependent.isSkipped = true;
+                        skipped.add(dependent);
+                    }
+                } else if (--dependent.remainingDependencies == 0 && !dependent.isSkipped) {
+                    ready.add(dependent);
+                }
+            }
+            if (unfinishedTaskCount == 0) {
+                workers.shutdown();
+            }
+        }
+        for (Task dependent : skipped) {
+            Log.w(LOG_TAG, "Skipping startup task " + dependent.name + " because " + task.name + " did not complete");
+            long now = SystemClock.elapsedRealtime();
+            complete(dependent, now, now, null, true);
+        }
+        for (Task dependent : ready) {
+            dispatch(dependent);
+        }
+        writeTraceIfComplete();
+    }
+
+    private void writeTraceIfComplete() {
+        final String trace;
+        final String summary;
+        synchronized (this) {
+            if (isTraceWritten || unfinishedTaskCount > 0 || finishedAt < 0) {
+                return;
+            }
+            isTraceWritten = true;
+            trace = buildChromeTrace();
+            summary = buildSummary();
+        }
+
+        Log.d(LOG_TAG, "Startup trace: " + summary);
+        if (context == null) {
+            return;
+        }
+        //write from a throwaway thread, the workers may already be shut down and the main thread must not do IO
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeTraceFiles(trace, summary);
+            }
+        }, "StartupTrace").start();
+    }
+
+    // time origin of the trace: process start when available, orchestrator creation otherwise
+    private long getOrigin() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            return Math.min(createdAt, Process.getStartElapsedRealtime());
+        }
+        return createdAt;
+    }
+
+    private String buildChromeTrace() {
+        long origin = getOrigin();
+        List<String> threadNames = new ArrayList<>();
+        StringBuilder json = new StringBuilder("{\"traceEvents\":[\n");
+        for (Task task : tasks.values()) {
+            int threadIndex = threadNames.indexOf(task.threadName);
+            if (threadIndex < 0) {
+                threadNames.add(task.threadName);
+                threadIndex = threadNames.size() - 1;
+            }
+            json.append(String.format(Locale.US,
+                    "{\"name\":\"%s\",\"ph\":\"X\",\"pid\":1,\"tid\":%d,\"ts\":%d,\"dur\":%d,\"args\":{\"thread\":\"%s\",\"waitMs\":%d,\"status\":\"%s\"}},\n",
+                    task.name, threadIndex, (task.startedAt - origin) * 1000, (task.endedAt - task.startedAt) * 1000,
+                    task.threadName, task.startedAt - task.readyAt, task.getStatus()));
+        }
+        json.append(String.format(Locale.US, "{\"name\":\"startup complete\",\"ph\":\"i\",\"s\":\"g\",\"pid\":1,\"tid\":0,\"ts\":%d}\n]}\n",
+                (finishedAt - origin) * 1000));
+        return json.toString();
+    }
+
+    // one CSV line: wall clock time, total startup ms, then name=ms for each task
+    private String buildSummary() {
+        StringBuilder line = new StringBuilder();
+        line.append(System.currentTimeMillis()).append(',').append(finishedAt - getOrigin());
+        for (Task task : tasks.values()) {
+            line.append(',').append(task.name).append('=').append(task.endedAt - task.startedAt);
+            if (!"ok".equals(task.getStatus())) {
+                line.append('(').append(task.getStatus()).append(')');
+            }
+        }
+        return line.toString();
+    }
+
+    private void writeTraceFiles(String trace, String summary) {
+        File traceDirectory = context.getExternalFilesDir("traces");
+        if (traceDirectory == null) {
+            traceDirectory = context.getDir("traces", Context.MODE_PRIVATE); // external storage is unavailable
+        }
+        if (!traceDirectory.exists() && !traceDirectory.mkdirs()) {
+            Log.e(LOG_TAG, "Unable to create trace directory: " + traceDirectory);
+            return;
+        }
+        Writer writer = null;
+        try {
+            writer = new FileWriter(new File(traceDirectory, TRACE_FILE_NAME));
+            writer.write(trace);
+            writer.close();
+            writer = new FileWriter(new File(traceDirectory, HISTORY_FILE_NAME), true);
+            writer.write(summary);
+            writer.write('\n');
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Unable to write startup trace", e);
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Exception while closing startup trace", e);
+                }
+            }
+        }
+    }
+
+    private static class Task {
+        final String name;
+        final boolean isMainThread;
+        final Runnable work;
+        final List<Task> dependents = new ArrayList<>();
+        int remainingDependencies;
+        long readyAt;
+        long startedAt;
+        long endedAt;
+        String threadName;
+        Throwable error;
+        boolean isSkipped;
+        volatile boolean finished;
+
+        Task(String name, boolean isMainThread, Runnable work) {
+            this.name = name;
+            this.isMainThread = isMainThread;
+            this.work = work;
+        }
+
+        boolean isFinished() {
+            return finished;
+        }
+
+        String getStatus() {
+            return error != null ? "failed" : (isSkipped ? "skipped" : "ok");
+        }
+    }
+}